@@ -0,0 +1,129 @@
+package me.apemanzilla.edscan;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs startup stages concurrently, starting each one as soon as the stages it
+ * depends on have completed, and records how long each stage took.<br>
+ * A stage whose dependencies fail is skipped. If a required stage fails,
+ * {@link #await()} rethrows its exception; failures of optional stages are
+ * left for the stage itself to report.
+ */
+@Slf4j
+class Bootstrap {
+	@FunctionalInterface
+	interface Task {
+		void run() throws Exception;
+	}
+
+	private final ExecutorService executor;
+
+	private final long started = System.nanoTime();
+
+	private final Map<String, CompletableFuture<Void>> stages = new LinkedHashMap<>();
+
+	private final Set<String> optional = new HashSet<>();
+
+	private final Map<String, Long> timings = new ConcurrentHashMap<>();
+
+	Bootstrap() {
+		AtomicInteger count = new AtomicInteger();
+
+		executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+			Thread t = new Thread(r);
+			t.setDaemon(true);
+			t.setName("EDScan Bootstrap " + count.incrementAndGet());
+			return t;
+		});
+	}
+
+	/**
+	 * @return Whether a stage with the given name has been added
+	 */
+	synchronized boolean hasStage(String name) {
+		return stages.containsKey(name);
+	}
+
+	/**
+	 * Adds a stage which runs once all of the given stages have completed
+	 * successfully. Dependencies must be added before the stages that depend on
+	 * them.
+	 */
+	synchronized CompletableFuture<Void> stage(String name, Task task, String... dependencies) {
+		if (stages.containsKey(name)) throw new IllegalArgumentException("Duplicate stage " + name);
+
+		CompletableFuture<?>[] deps = Arrays.stream(dependencies).map(d -> {
+			CompletableFuture<Void> f = stages.get(d);
+			if (f == null) throw new IllegalArgumentException("Stage " + name + " depends on unknown stage " + d);
+			return f;
+		}).toArray(CompletableFuture[]::new);
+
+		CompletableFuture<Void> future = CompletableFuture.allOf(deps).thenRunAsync(() -> {
+			long start = System.nanoTime();
+
+			try {
+				task.run();
+			} catch (Exception e) {
+				throw new CompletionException(e);
+			} finally {
+				timings.put(name, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			}
+		}, executor);
+
+		stages.put(name, future);
+		return future;
+	}
+
+	/**
+	 * Adds a stage whose failure doesn't stop startup
+	 *
+	 * @see #stage(String, Task, String...)
+	 */
+	synchronized CompletableFuture<Void> optionalStage(String name, Task task, String... dependencies) {
+		optional.add(name);
+		return stage(name, task, dependencies);
+	}
+
+	/**
+	 * Waits for every stage to finish and logs a breakdown of how long each took.
+	 *
+	 * @throws Exception The exception thrown by the first required stage that
+	 *                   failed, if any
+	 */
+	void await() throws Exception {
+		Map<String, CompletableFuture<Void>> all;
+		synchronized (this) {
+			all = new LinkedHashMap<>(stages);
+		}
+
+		for (CompletableFuture<Void> f : all.values()) {
+			f.handle((v, t) -> null).join();
+		}
+
+		executor.shutdown();
+
+		log.info("Bootstrap finished in {}ms: {}", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started),
+				all.keySet().stream().map(s -> s + " " + (timings.containsKey(s) ? timings.get(s) + "ms" : "skipped"))
+						.collect(Collectors.joining(", ")));
+
+		for (Map.Entry<String, CompletableFuture<Void>> e : all.entrySet()) {
+			if (!e.getValue().isCompletedExceptionally()) continue;
+
+			if (!timings.containsKey(e.getKey())) {
+				log.warn("Stage {} was skipped because a stage it depends on failed", e.getKey());
+			} else if (!optional.contains(e.getKey())) {
+				try {
+					e.getValue().join();
+				} catch (CompletionException ex) {
+					Throwable cause = ex.getCause();
+					throw cause instanceof Exception ? (Exception) cause : ex;
+				}
+			}
+		}
+	}
+}
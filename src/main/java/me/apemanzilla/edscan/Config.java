@@ -1,70 +1,332 @@
 package me.apemanzilla.edscan;
 
 import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.Primitives;
 import com.google.gson.*;
 import com.google.gson.reflect.TypeToken;
 
 import javafx.beans.property.Property;
 import javafx.beans.value.ObservableValue;
-import lombok.AccessLevel;
-import lombok.Getter;
 import lombok.NonNull;
+import lombok.Setter;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
 
+/**
+ * Application and plugin settings, stored as JSON values under dotted keys.<br>
+ * <br>
+ * Keys are grouped into shards by their first segment (so
+ * <code>neutronHighway.route</code> is in the <code>neutronHighway</code>
+ * shard), and each shard is stored in its own file, loaded the first time one
+ * of its keys is used and only rewritten when one of its keys changes. Core
+ * settings share a single <code>core</code> shard.
+ */
+@Slf4j
 public class Config {
 	private static final Gson gson = new GsonBuilder().setPrettyPrinting().create();
 
+	private static final Type mapType = new TypeToken<Map<String, JsonElement>>() {}.getType();
+
+	private static final String coreShard = "core";
+
+	/**
+	 * Namespaces which are kept in the core shard instead of their own
+	 */
+	private static final Set<String> coreNamespaces = ImmutableSet.of(coreShard, "edscan", "plugins", "journal");
+
+	private static Map<String, JsonElement> read(Path file) throws JsonParseException, IOException {
+		try (Reader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			Map<String, JsonElement> map = gson.fromJson(r, mapType);
+			return map == null ? Collections.emptyMap() : map;
+		}
+	}
+
+	/**
+	 * Loads a config from a single file, without sharding it. The config is kept
+	 * in memory only.
+	 */
 	public static Config load(Path file) throws JsonIOException, JsonSyntaxException, IOException {
-		return new Config(
-				gson.fromJson(Files.newBufferedReader(file), new TypeToken<Map<String, JsonElement>>() {}.getType()));
+		return new Config(read(file));
+	}
+
+	/**
+	 * Opens a config stored as one file per shard in the given directory. If a
+	 * single-file config from an older version exists, its settings are moved
+	 * into shards and it is renamed so that this only happens once.
+	 */
+	public static Config open(Path directory, Path legacyFile) {
+		Config config = new Config(directory);
+
+		if (Files.exists(legacyFile)) {
+			log.info("Migrating config from {} to {}", legacyFile, directory);
+
+			try {
+				read(legacyFile).forEach((k, v) -> {
+					Shard s = config.shard(k);
+					if (s.map().putIfAbsent(k, v) == null) s.version.incrementAndGet();
+				});
+
+				config.save();
+				Files.move(legacyFile, legacyFile.resolveSibling(legacyFile.getFileName() + ".old"),
+						StandardCopyOption.REPLACE_EXISTING);
+			} catch (IOException | JsonParseException e) {
+				log.error("Error migrating config from {}", legacyFile, e);
+			}
+		}
+
+		return config;
+	}
+
+	/**
+	 * A config key along with the type of its value and the value to use when
+	 * it isn't set. Keys are intended to be created once and kept in constants.
+	 * 
+	 * @see Config#get(Key)
+	 */
+	@Value
+	public static class Key<T> {
+		String name;
+		Type type;
+		T defaultValue;
+	}
+
+	public static <T> Key<T> key(String name, Class<T> cls, T defaultValue) {
+		return new Key<>(name, cls, defaultValue);
+	}
+
+	public static <T> Key<T> key(String name, Type type, T defaultValue) {
+		return new Key<>(name, type, defaultValue);
+	}
+
+	/**
+	 * A decoded value along with the JSON it was decoded from, so that a stale
+	 * value can be detected if the JSON is replaced
+	 */
+	@Value
+	private static class Decoded {
+		JsonElement source;
+		Object value;
+	}
+
+	/**
+	 * The keys in one shard, along with the file they're stored in
+	 */
+	private static class Shard {
+		private final String name;
+
+		/**
+		 * The file this shard is stored in, or <code>null</code> if it's only kept
+		 * in memory
+		 */
+		private final Path file;
+
+		private volatile ConcurrentHashMap<String, JsonElement> map;
+
+		/**
+		 * Incremented every time a key in this shard changes
+		 */
+		private final AtomicLong version = new AtomicLong();
+
+		/**
+		 * The version which was last written to disk
+		 */
+		private long written;
+
+		Shard(String name, Path file) {
+			this.name = name;
+			this.file = file;
+		}
+
+		ConcurrentHashMap<String, JsonElement> map() {
+			ConcurrentHashMap<String, JsonElement> m = map;
+			if (m != null) return m;
+
+			synchronized (this) {
+				if (map == null) map = load();
+				return map;
+			}
+		}
+
+		private ConcurrentHashMap<String, JsonElement> load() {
+			if (file == null || !Files.exists(file)) return new ConcurrentHashMap<>();
+
+			log.debug("Loading config shard {} from {}", name, file);
+
+			try {
+				return new ConcurrentHashMap<>(read(file));
+			} catch (IOException | JsonParseException e) {
+				log.error("Error loading config shard {} from {}", name, file, e);
+				return new ConcurrentHashMap<>();
+			}
+		}
+
+		/**
+		 * Writes this shard if it has changed since it was last written, replacing
+		 * the previous file atomically so that a crash during the write can't leave
+		 * it truncated.
+		 */
+		synchronized void save() throws IOException {
+			long v = version.get();
+			if (file == null || map == null || v == written) return;
+
+			log.info("Writing config shard {}", name);
+
+			Files.createDirectories(file.getParent());
+			Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+			Files.write(temp, gson.toJson(map).getBytes(StandardCharsets.UTF_8));
+
+			try {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+
+			written = v;
+		}
 	}
 
 	/**
-	 * The underlying map of this config. Changes made to this map will propagate to
-	 * the config, but should be avoided since listeners will not be fired.
+	 * The directory shards are stored in, or <code>null</code> if this config is
+	 * only kept in memory
+	 */
+	private final Path directory;
+
+	private final ConcurrentHashMap<String, Shard> shards = new ConcurrentHashMap<>();
+
+	/**
+	 * Values which have already been decoded, by key and then by type
+	 */
+	private final ConcurrentHashMap<String, ConcurrentHashMap<Type, Decoded>> decoded = new ConcurrentHashMap<>();
+
+	/**
+	 * Called after every change to the config
 	 */
-	@Getter(AccessLevel.PACKAGE)
-	private final ConcurrentHashMap<String, JsonElement> map;
+	@Setter
+	private volatile Runnable onChange;
+
+	private Config(Path directory) {
+		this.directory = directory;
+	}
 
 	/**
-	 * Creates a new config using the mappings from the given map.
+	 * Creates a new in-memory config using the mappings from the given map.
 	 */
 	public Config(Map<String, JsonElement> cfg) {
-		map = new ConcurrentHashMap<>(cfg);
+		this((Path) null);
+		cfg.forEach((k, v) -> shard(k).map().put(k, v));
 	}
 
 	/**
-	 * Creates a new, empty config.
+	 * Creates a new, empty in-memory config.
 	 */
 	public Config() {
 		this(Collections.emptyMap());
 	}
 
+	private static String shardName(String key) {
+		int dot = key.indexOf('.');
+		String namespace = dot < 0 ? coreShard : key.substring(0, dot);
+
+		return coreNamespaces.contains(namespace) ? coreShard : namespace.replaceAll("[^A-Za-z0-9_-]", "_");
+	}
+
+	private Shard shard(String key) {
+		return shards.computeIfAbsent(shardName(key),
+				n -> new Shard(n, directory == null ? null : directory.resolve(n + ".json")));
+	}
+
+	private ConcurrentHashMap<String, JsonElement> map(String key) {
+		return shard(key).map();
+	}
+
 	/**
 	 * @return Whether the given key is present in the map
 	 */
 	public boolean hasKey(String key) {
-		return map.containsKey(key);
+		return map(key).containsKey(key);
 	}
 
 	/**
 	 * Adds a key-value pair to the map
 	 */
 	public <T> void put(String key, T value) {
-		map.put(key, gson.toJsonTree(value));
+		JsonElement json = gson.toJsonTree(value);
+		Shard s = shard(key);
+		if (json.equals(s.map().get(key))) return;
+
+		s.map().put(key, json);
+		decoded.remove(key);
+		changed(s);
+	}
+
+	public <T> void put(Key<T> key, T value) {
+		put(key.getName(), value);
 	}
 
 	/**
 	 * Removes a given key from the map
 	 */
 	public void remove(String key) {
-		map.remove(key);
+		Shard s = shard(key);
+		if (s.map().remove(key) == null) return;
+
+		decoded.remove(key);
+		changed(s);
+	}
+
+	private void changed(Shard shard) {
+		shard.version.incrementAndGet();
+
+		Runnable r = onChange;
+		if (r != null) r.run();
+	}
+
+	public void remove(Key<?> key) {
+		remove(key.getName());
+	}
+
+	/**
+	 * Decodes a value as the given type, reusing the previously decoded value if
+	 * the JSON hasn't changed since.
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> T decode(String key, JsonElement json, Type type) {
+		ConcurrentHashMap<Type, Decoded> byType = decoded.get(key);
+		Decoded d = byType == null ? null : byType.get(type);
+
+		if (d == null || d.getSource() != json) {
+			d = new Decoded(json, gson.fromJson(json, type));
+			decoded.computeIfAbsent(key, k -> new ConcurrentHashMap<>()).put(type, d);
+		}
+
+		return (T) d.getValue();
+	}
+
+	/**
+	 * Gets the value of the given key, or its default value if it isn't set.
+	 * Decoded values are cached until the key is changed, so repeated reads are
+	 * cheap, but values must not be modified by callers.
+	 */
+	public <T> T get(Key<T> key) {
+		JsonElement json = map(key.getName()).get(key.getName());
+		if (json == null) return key.getDefaultValue();
+
+		return decode(key.getName(), json, key.getType());
 	}
 
 	/**
@@ -72,17 +334,26 @@ public class Config {
 	 *         containing the value mapped to the given key.
 	 */
 	public Optional<JsonElement> get(String key) {
-		return Optional.ofNullable(map.get(key));
+		return Optional.ofNullable(map(key).get(key));
 	}
 
 	/**
 	 * Gets a value from the map and casts it to the given class. If the value
 	 * cannot be cast or no value is present, an empty <code>Optional</code> is
-	 * returned.
+	 * returned.<br>
+	 * Each call returns a freshly decoded value which the caller may modify,
+	 * except for immutable values such as strings and numbers, which are cached.
 	 */
 	public <T> Optional<T> getAs(Class<T> cls, String key) {
-		if (!map.containsKey(key)) return Optional.empty();
-		return get(key).map(e -> gson.fromJson(e, cls));
+		return get(key).map(e -> isImmutable(cls) ? decode(key, e, cls) : gson.fromJson(e, cls));
+	}
+
+	/**
+	 * @return Whether values of the given class can't be modified, so that one
+	 *         decoded value can be shared by every caller
+	 */
+	private static boolean isImmutable(Class<?> cls) {
+		return Primitives.isWrapperType(cls) || cls == String.class || cls.isEnum();
 	}
 
 	/**
@@ -143,7 +414,14 @@ public class Config {
 		});
 	}
 
-	public void save(Path path) throws IOException {
-		Files.write(path, gson.toJson(map).getBytes());
+	/**
+	 * Writes every shard which has changed since it was last written. Shards
+	 * which haven't changed, or were never loaded, are left alone. Does nothing
+	 * for in-memory configs.
+	 */
+	public void save() throws IOException {
+		for (Shard s : shards.values()) {
+			s.save();
+		}
 	}
 }
@@ -0,0 +1,70 @@
+package me.apemanzilla.edscan;
+
+import java.io.IOException;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Writes a config to disk in the background. The first change after a write
+ * schedules another write after a delay, and any further changes made before
+ * then are written along with it, so a burst of changes (like dragging the
+ * window around) costs a single write. Only the shards which changed are
+ * written.
+ */
+@Slf4j
+class ConfigWriter {
+	private final Config config;
+
+	private final long delay;
+
+	private final Timer timer = new Timer("EDScan Config Writer", true);
+
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+	ConfigWriter(Config config, long delay) {
+		this.config = config;
+		this.delay = delay;
+	}
+
+	/**
+	 * Schedules a write, unless one is already pending
+	 */
+	void changed() {
+		if (!scheduled.compareAndSet(false, true)) return;
+
+		try {
+			timer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					try {
+						flush();
+					} catch (IOException e) {
+						log.error("Error writing config", e);
+					}
+				}
+			}, delay);
+		} catch (IllegalStateException e) {
+			// the writer has been closed, so the final flush will pick this change up
+			scheduled.set(false);
+		}
+	}
+
+	/**
+	 * Writes any changes to the config now
+	 */
+	synchronized void flush() throws IOException {
+		scheduled.set(false);
+		config.save();
+	}
+
+	/**
+	 * Stops background writes and writes any remaining changes
+	 */
+	void close() throws IOException {
+		timer.cancel();
+		flush();
+	}
+}
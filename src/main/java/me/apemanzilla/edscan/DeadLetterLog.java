@@ -0,0 +1,138 @@
+package me.apemanzilla.edscan;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.function.Consumer;
+
+import com.google.gson.*;
+
+import lombok.Getter;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import me.apemanzilla.edjournal.events.JournalEvent;
+
+/**
+ * A size-limited log of events which listeners failed to handle, stored as one
+ * JSON object per line so that they can be replayed later. Outgoing messages
+ * which a remote service rejected for good are recorded here too, so that
+ * they can be inspected. When the log grows past its limit it is moved aside,
+ * replacing any older backup, so at most twice the limit is ever kept on disk.
+ */
+@Slf4j
+public class DeadLetterLog {
+	private static final Gson gson = new GsonBuilder()
+			.registerTypeAdapter(Instant.class, (JsonSerializer<Instant>) (v, t, c) -> new JsonPrimitive(v.toString()))
+			.registerTypeAdapter(Instant.class,
+					(JsonDeserializer<Instant>) (j, t, c) -> Instant.parse(j.getAsString()))
+			.create();
+
+	@Value
+	private static class DeadLetter {
+		Instant failedAt;
+		String mailbox;
+		String listener;
+		String error;
+		String eventClass;
+		JsonElement event;
+
+		/**
+		 * The rejected outgoing message, for letters which aren't events
+		 */
+		JsonElement message;
+	}
+
+	@Getter
+	private final Path file;
+
+	private final long maxSize;
+
+	public DeadLetterLog(Path file, long maxSize) {
+		this.file = file;
+		this.maxSize = maxSize;
+	}
+
+	private Path getBackupFile() {
+		return file.resolveSibling(file.getFileName() + ".old");
+	}
+
+	/**
+	 * Records an event which the given listener failed to handle
+	 */
+	public synchronized void write(Mailbox mailbox, Object listener, JournalEvent event, Throwable error) {
+		append(new DeadLetter(Instant.now(), mailbox.getName(), listener.getClass().getName(), error.toString(),
+				event.getClass().getName(), gson.toJsonTree(event), null), event.getClass().getSimpleName());
+	}
+
+	/**
+	 * Records an outgoing message which a remote service rejected, and which will
+	 * never be accepted if it's sent again
+	 *
+	 * @param source  The name of whatever tried to send the message
+	 * @param message The message, usually JSON
+	 * @param error   Why the message was rejected
+	 */
+	public synchronized void writeRejected(String source, String message, String error) {
+		JsonElement json;
+
+		try {
+			json = new JsonParser().parse(message);
+		} catch (JsonParseException e) {
+			json = new JsonPrimitive(message);
+		}
+
+		append(new DeadLetter(Instant.now(), source, null, error, null, null, json), "message from " + source);
+	}
+
+	private void append(DeadLetter letter, String what) {
+		try {
+			if (Files.exists(file) && Files.size(file) >= maxSize) {
+				Files.move(file, getBackupFile(), StandardCopyOption.REPLACE_EXISTING);
+			}
+
+			try (Writer w = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+					StandardOpenOption.APPEND)) {
+				w.write(gson.toJson(letter));
+				w.write('\n');
+			}
+		} catch (IOException e) {
+			log.error("Could not write dead letter for {} to {}", what, file, e);
+		}
+	}
+
+	/**
+	 * Passes every recorded event to the given consumer, oldest first, and then
+	 * clears the log. Entries which can no longer be decoded, and rejected
+	 * outgoing messages, are skipped.
+	 */
+	public synchronized void replay(Consumer<JournalEvent> consumer) throws IOException {
+		for (Path p : new Path[] { getBackupFile(), file }) {
+			if (!Files.exists(p)) continue;
+
+			try (BufferedReader r = Files.newBufferedReader(p, StandardCharsets.UTF_8)) {
+				String line;
+				while ((line = r.readLine()) != null) {
+					try {
+						DeadLetter letter = gson.fromJson(line, DeadLetter.class);
+						if (letter.getEventClass() == null) continue;
+
+						Class<? extends JournalEvent> cls = Class.forName(letter.getEventClass())
+								.asSubclass(JournalEvent.class);
+
+						consumer.accept(gson.fromJson(letter.getEvent(), cls));
+					} catch (JsonParseException | ClassNotFoundException | ClassCastException e) {
+						log.warn("Skipping unreadable dead letter in {}", p, e);
+					}
+				}
+			}
+
+			Files.delete(p);
+		}
+	}
+}
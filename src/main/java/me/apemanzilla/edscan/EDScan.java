@@ -1,21 +1,16 @@
 package me.apemanzilla.edscan;
 
 import java.io.IOException;
-import java.io.Reader;
-import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 
-import com.google.common.collect.Multimap;
-import com.google.common.collect.MultimapBuilder;
-import com.google.gson.JsonIOException;
-import com.google.gson.JsonSyntaxException;
-
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
@@ -38,6 +33,7 @@ import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import me.apemanzilla.edjournal.Journal;
 import me.apemanzilla.edjournal.events.JournalEvent;
+import me.apemanzilla.edscan.journal.*;
 
 @Slf4j
 public class EDScan extends Application {
@@ -51,14 +47,41 @@ public class EDScan extends Application {
 		launch(args);
 	}
 
-	@Getter
 	private Journal journal;
 
+	private Path journalDirectory;
+
+	@Getter
+	private JournalIndex journalIndex;
+
+	@Getter
+	private CheckpointStore checkpoints;
+
+	private EventReader eventReader;
+
 	@Getter(AccessLevel.PACKAGE)
 	private PluginManager pluginManager;
 
-	private Multimap<Class<?>, Consumer<? extends JournalEvent>> listeners = MultimapBuilder.hashKeys().hashSetValues()
-			.build();
+	/**
+	 * Paces requests to remote services, shared so that every plugin talking to
+	 * the same host stays within its limits together
+	 */
+	@Getter
+	private final RateController rateController = new RateController();
+
+	/**
+	 * Mailbox for listeners which were registered without an owning plugin
+	 */
+	private final Mailbox defaultMailbox = new Mailbox(this, "edscan", "EDScan", 1024,
+			Mailbox.OverflowPolicy.DROP_OLDEST);
+
+	private final Map<Plugin, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+	/**
+	 * The mailboxes with listeners for each concrete event class, resolved lazily
+	 * and cleared whenever a listener is added or removed.
+	 */
+	private final Map<Class<?>, Mailbox[]> routingTable = new ConcurrentHashMap<>();
 
 	public class EDScanController extends BorderPane implements Initializable {
 		@SneakyThrows(IOException.class)
@@ -122,6 +145,11 @@ public class EDScan extends Application {
 	@Getter
 	private Config config;
 
+	private ConfigWriter configWriter;
+
+	@Getter
+	private DeadLetterLog deadLetterLog;
+
 	public Path getDataDirectory() {
 		String os = System.getProperty("os.name").toLowerCase();
 		if (os.startsWith("win")) {
@@ -137,32 +165,164 @@ public class EDScan extends Application {
 		return getDataDirectory().resolve("plugins");
 	}
 
+	/**
+	 * @return The directory config shards are stored in
+	 */
+	public Path getConfigDirectory() {
+		return getDataDirectory().resolve("config");
+	}
+
+	/**
+	 * @return The single-file config used by older versions, which is migrated
+	 *         into the config directory on startup
+	 */
 	public Path getConfigFile() {
 		return getDataDirectory().resolve("config.json");
 	}
 
+	public Path getJournalIndexFile() {
+		return getDataDirectory().resolve("journal.idx");
+	}
+
+	/**
+	 * @return The directory containing the journal files, which may be
+	 *         overridden with the <code>journal.directory</code> config key. It's
+	 *         chosen once at startup, so the index and the event reader always
+	 *         read the same directory.
+	 */
+	public Path getJournalDirectory() {
+		return journalDirectory;
+	}
+
+	/**
+	 * @return The journal library's view of the journal
+	 * @deprecated The library finds the journal directory on its own, which may
+	 *             not be the directory EDScan reads. Use {@link #getJournalIndex()}
+	 *             and the event listeners instead.
+	 */
+	@Deprecated
+	@SneakyThrows(IOException.class)
+	public synchronized Journal getJournal() {
+		if (journal == null) journal = Journal.create();
+		return journal;
+	}
+
+	public Path getCheckpointFile() {
+		return getDataDirectory().resolve("checkpoints.json");
+	}
+
+	public Path getDeadLetterFile() {
+		return getDataDirectory().resolve("dead-letters.jsonl");
+	}
+
+	/**
+	 * Writes any unsaved config changes immediately. Changes are also written
+	 * automatically shortly after they're made, so this is only needed when a
+	 * change must be on disk before continuing.
+	 */
 	public void saveConfig() throws IOException {
-		log.info("Writing config");
-		config.save(getConfigFile());
+		configWriter.flush();
+	}
+
+	/**
+	 * Registers a listener owned by the given plugin. Events are delivered to it
+	 * from the plugin's own {@link Mailbox}, so slow listeners only hold up
+	 * their own plugin.
+	 */
+	public <T extends JournalEvent> void addEventListener(Plugin plugin, Class<T> cls, Consumer<T> consumer) {
+		synchronized (routingTable) {
+			getMailbox(plugin).addListener(cls, consumer);
+			routingTable.clear();
+		}
 	}
 
+	/**
+	 * Registers a listener which isn't owned by any plugin. These listeners share
+	 * a single mailbox.
+	 * 
+	 * @see #addEventListener(Plugin, Class, Consumer)
+	 */
 	public <T extends JournalEvent> void addEventListener(Class<T> cls, Consumer<T> consumer) {
-		listeners.put(cls, consumer);
+		synchronized (routingTable) {
+			defaultMailbox.addListener(cls, consumer);
+			routingTable.clear();
+		}
 	}
 
 	public <T extends JournalEvent> void removeEventListener(Class<T> cls, Consumer<T> consumer) {
-		listeners.remove(cls, consumer);
+		synchronized (routingTable) {
+			allMailboxes().forEach(m -> m.removeListener(cls, consumer));
+			routingTable.clear();
+		}
 	}
 
 	public <T extends JournalEvent> void removeEventListener(Consumer<T> consumer) {
-		listeners.values().removeIf(c -> c == consumer);
+		synchronized (routingTable) {
+			allMailboxes().forEach(m -> m.removeListener(consumer));
+			routingTable.clear();
+		}
 	}
 
-	@SuppressWarnings("unchecked")
-	private <T extends JournalEvent> void handleEvent(T event) {
-		listeners.forEach((c, a) -> {
-			if (c.isInstance(event)) ((Consumer<JournalEvent>) a).accept(event);
-		});
+	/**
+	 * Gets the mailbox that events for the given plugin's listeners are delivered
+	 * through, creating it if necessary.
+	 */
+	public Mailbox getMailbox(Plugin plugin) {
+		return mailboxes.computeIfAbsent(plugin,
+				p -> new Mailbox(this, p.getClass().getName(), p.toString(), p.getMailboxCapacity(),
+						p.getOverflowPolicy()));
+	}
+
+	/**
+	 * @return The journal position after which the given plugin's listeners will
+	 *         be sent events when the journal reader starts, or an empty optional
+	 *         if they'll only be sent events written from then on
+	 */
+	public Optional<JournalPosition> getResumePosition(Plugin plugin) {
+		return getCheckpoints().get(getMailbox(plugin).getId());
+	}
+
+	/**
+	 * Gets the mailbox for the given plugin's listeners, if it has one
+	 */
+	Optional<Mailbox> findMailbox(Plugin plugin) {
+		return Optional.ofNullable(mailboxes.get(plugin));
+	}
+
+	private List<Mailbox> allMailboxes() {
+		List<Mailbox> all = new ArrayList<>(mailboxes.values());
+		all.add(defaultMailbox);
+		return all;
+	}
+
+	/**
+	 * Gets the mailboxes with at least one listener for the given concrete event
+	 * class.
+	 */
+	Mailbox[] mailboxesFor(Class<?> eventClass) {
+		Mailbox[] table = routingTable.get(eventClass);
+
+		if (table == null) {
+			synchronized (routingTable) {
+				table = allMailboxes().stream().filter(m -> m.listenersFor(eventClass).length > 0)
+						.toArray(Mailbox[]::new);
+
+				routingTable.put(eventClass, table);
+			}
+		}
+
+		return table;
+	}
+
+	private <T extends JournalEvent> void handleEvent(JournalPosition position, T event) {
+		for (Mailbox mailbox : mailboxesFor(event.getClass())) {
+			try {
+				mailbox.post(position, event);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
 	}
 
 	public void showErrorMessage(String title, String header, Throwable t) {
@@ -189,9 +349,18 @@ public class EDScan extends Application {
 		});
 	}
 
-	void addView(String name, Node content) {
-		TitledPane pane = new TitledPane(name, content);
-		pane.getStyleClass().add("plugin-view-wrapper");
+	/**
+	 * Adds a placeholder pane for a plugin's view. The view builder is only
+	 * invoked when the pane is expanded, which happens immediately unless the
+	 * user left it collapsed last time.
+	 */
+	void addView(Plugin plugin, Callable<Node> builder) {
+		PluginViewPane pane = new PluginViewPane(plugin, builder);
+		String name = pane.getText();
+
+		config.bindAndSet("edscan.views." + plugin.getClass().getName() + ".expanded", pane.expandedProperty(), true);
+		if (pane.isExpanded()) pane.build();
+
 		List<Node> children = controller.viewPane.getChildren();
 
 		int i;
@@ -207,33 +376,123 @@ public class EDScan extends Application {
 		children.add(i, pane);
 	}
 
-	@Override
-	public void init() throws URISyntaxException, IOException {
-		log.info("Loading config");
-		if (Files.exists(getConfigFile())) {
-			try (Reader r = Files.newBufferedReader(getConfigFile())) {
-				config = Config.load(getConfigFile());
-			} catch (JsonIOException | JsonSyntaxException | IOException e) {
-				log.error("Error loading config from {}", getConfigFile(), e);
-				config = new Config();
-			}
-		} else {
-			config = new Config();
+	/**
+	 * Builds any views which haven't been built yet, one at a time in separate
+	 * JavaFX pulses so the window stays responsive, so that they're ready when
+	 * their panes are expanded
+	 */
+	private void prebuildViews() {
+		controller.viewPane.getChildren().stream().filter(PluginViewPane.class::isInstance)
+				.map(PluginViewPane.class::cast).forEach(p -> Platform.runLater(p::build));
+	}
+
+	private void updateJournalIndex() {
+		try {
+			journalIndex.update();
+		} catch (IOException e) {
+			log.error("Error updating journal index", e);
 		}
+	}
+
+	private void saveCheckpoints() {
+		try {
+			checkpoints.save();
+		} catch (IOException e) {
+			log.error("Error saving journal checkpoints", e);
+		}
+	}
+
+	/**
+	 * Starts tailing the journal. Each existing mailbox resumes from its
+	 * checkpoint, or from the current end of the journal if it doesn't have one,
+	 * and reading starts from the earliest of these.
+	 */
+	private void startEventReader() throws IOException {
+		JournalTailer tailer = new JournalTailer(journalDirectory);
+		tailer.setOnLinesRead(this::updateJournalIndex);
+
+		JournalPosition end = tailer.endPosition();
+		JournalPosition start = end;
 
-		log.info("Initializing journal");
-		journal = Journal.create();
+		for (Mailbox m : allMailboxes()) {
+			JournalPosition resume = checkpoints.get(m.getId()).orElse(end);
+			m.setResumeFrom(resume);
 
-		log.info("Starting event listener");
-		Thread eventListener = new Thread(() -> journal.liveEvents().forEach(EDScan.this::handleEvent));
+			if (resume.compareTo(start) < 0) start = resume;
+		}
+
+		log.info("Starting event listener from {}", start);
+		eventReader = new EventReader(tailer, start, this::handleEvent);
+
+		Thread eventListener = new Thread(eventReader);
 		eventListener.setDaemon(true);
 		eventListener.setName("EDScan Event Listener");
 		eventListener.start();
+	}
+
+	private void loadConfig() {
+		log.info("Loading config");
+		config = Config.open(getConfigDirectory(), getConfigFile());
+
+		configWriter = new ConfigWriter(config, 2000);
+		config.setOnChange(configWriter::changed);
+	}
 
+	private void loadPlugins() throws IOException {
 		log.info("Loading plugins");
 		Files.createDirectories(getPluginDirectory());
 		URLClassLoader classLoader = new URLClassLoader(new URL[] { getPluginDirectory().toUri().toURL() });
 		pluginManager = PluginManager.loadPlugins(this, ServiceLoader.load(Plugin.class, classLoader));
+	}
+
+	@Override
+	public void init() throws Exception {
+		Bootstrap bootstrap = new Bootstrap();
+
+		bootstrap.stage("config", this::loadConfig);
+
+		bootstrap.stage("data directory", () -> {
+			Files.createDirectories(getDataDirectory());
+			deadLetterLog = new DeadLetterLog(getDeadLetterFile(), 1024 * 1024);
+		});
+
+		bootstrap.stage("journal", () -> {
+			journalDirectory = config.getAs(String.class, "journal.directory").map(Paths::get)
+					.orElseGet(JournalFiles::defaultDirectory);
+			log.info("Using journal directory {}", journalDirectory);
+
+			if (!Files.isDirectory(journalDirectory)) {
+				log.warn("Journal directory {} does not exist yet, set journal.directory if the game writes elsewhere",
+						journalDirectory);
+			}
+		}, "config");
+
+		bootstrap.stage("journal index", () -> {
+			journalIndex = new JournalIndex(journalDirectory, getJournalIndexFile());
+
+			Thread indexer = new Thread(this::updateJournalIndex);
+			indexer.setDaemon(true);
+			indexer.setName("EDScan Journal Indexer");
+			indexer.start();
+		}, "config", "journal", "data directory");
+
+		bootstrap.stage("checkpoints", () -> {
+			checkpoints = new CheckpointStore(getCheckpointFile());
+
+			Timer checkpointWriter = new Timer("EDScan Checkpoint Writer", true);
+			checkpointWriter.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					saveCheckpoints();
+				}
+			}, 5000, 5000);
+		}, "data directory");
+
+		// the set of plugins must be known before their init stages can be added
+		bootstrap.stage("plugin discovery", this::loadPlugins).join();
+		pluginManager.init(bootstrap);
+
+		bootstrap.await();
 
 		log.info("Initialization complete");
 	}
@@ -242,9 +501,10 @@ public class EDScan extends Application {
 	public void start(Stage primaryStage) throws IOException {
 		controller = new EDScanController();
 
-		pluginManager.init();
 		pluginManager.addViews();
 
+		startEventReader();
+
 		Scene scene = new Scene(controller);
 		scene.getStylesheets().add(EDScan.class.getResource("themes/Elite.css").toExternalForm());
 
@@ -269,6 +529,8 @@ public class EDScan extends Application {
 		primaryStage.requestFocus();
 
 		this.primaryStage = primaryStage;
+
+		if (config.getAsOr(Boolean.class, "edscan.prebuildViews", false)) prebuildViews();
 	}
 
 	@Override
@@ -276,6 +538,14 @@ public class EDScan extends Application {
 		log.info("Cleaning up plugins");
 		pluginManager.cleanup();
 
-		saveConfig();
+		if (eventReader != null) {
+			JournalPosition position = eventReader.getPosition();
+			allMailboxes().forEach(m -> m.markIdleAt(position));
+		}
+
+		saveCheckpoints();
+
+		config.setOnChange(null);
+		configWriter.close();
 	}
 }
@@ -0,0 +1,66 @@
+package me.apemanzilla.edscan;
+
+import java.io.IOException;
+import java.util.function.BiConsumer;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import me.apemanzilla.edjournal.events.JournalEvent;
+import me.apemanzilla.edscan.journal.JournalPosition;
+import me.apemanzilla.edscan.journal.JournalTailer;
+
+/**
+ * Tails the journal and passes events on, restarting the tailer if it fails.
+ * Reading resumes just after the last event that was passed on, so nothing is
+ * delivered twice.
+ */
+@Slf4j
+class EventReader implements Runnable {
+	private static final long restartDelay = 1000;
+	private static final long maxRestartDelay = 60 * 1000;
+
+	private final JournalTailer tailer;
+	private final BiConsumer<JournalPosition, JournalEvent> sink;
+
+	/**
+	 * The position just after the most recently delivered event
+	 */
+	@Getter
+	private volatile JournalPosition position;
+
+	EventReader(JournalTailer tailer, JournalPosition start, BiConsumer<JournalPosition, JournalEvent> sink) {
+		this.tailer = tailer;
+		this.position = start;
+		this.sink = sink;
+	}
+
+	@Override
+	public void run() {
+		long delay = restartDelay;
+
+		while (true) {
+			JournalPosition before = position;
+
+			try {
+				tailer.tail(position, (p, e) -> {
+					sink.accept(p, e);
+					position = p;
+				});
+			} catch (InterruptedException e) {
+				return;
+			} catch (IOException | RuntimeException e) {
+				log.error("Journal reader failed at {}, restarting", position, e);
+			}
+
+			if (!position.equals(before)) delay = restartDelay;
+
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			delay = Math.min(delay * 2, maxRestartDelay);
+		}
+	}
+}
@@ -0,0 +1,318 @@
+package me.apemanzilla.edscan;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import com.google.common.collect.Multimap;
+import com.google.common.collect.MultimapBuilder;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import me.apemanzilla.edjournal.events.JournalEvent;
+import me.apemanzilla.edscan.journal.JournalPosition;
+
+/**
+ * A bounded queue of journal events with its own delivery thread. Each plugin
+ * gets its own mailbox, so that a slow listener only delays events for the
+ * plugin that registered it.<br>
+ * Exceptions thrown by listeners are caught and the failed events are written
+ * to the {@link DeadLetterLog}. A listener which fails
+ * {@value #quarantineThreshold} times in a row is removed.<br>
+ * <br>
+ * Each mailbox records a journal checkpoint after its listeners have handled an
+ * event, and ignores events at or before the checkpoint it resumed from.
+ */
+@Slf4j
+public class Mailbox {
+	/**
+	 * What a mailbox does with a new event when it is already full
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * Wait for the listeners to catch up before queueing the event
+		 */
+		BLOCK,
+
+		/**
+		 * Discard the oldest queued event to make room
+		 */
+		DROP_OLDEST,
+
+		/**
+		 * Discard the oldest queued event of the same class to make room, or the
+		 * oldest queued event if there are none
+		 */
+		COALESCE
+	}
+
+	/**
+	 * The number of consecutive failures after which a listener is removed
+	 */
+	public static final int quarantineThreshold = 5;
+
+	@Value
+	private static class Delivery {
+		JournalPosition position;
+		JournalEvent event;
+	}
+
+	private final EDScan edscan;
+
+	/**
+	 * A stable identifier for this mailbox, used to store its checkpoint
+	 */
+	@Getter
+	private final String id;
+
+	@Getter
+	private final String name;
+
+	@Getter
+	private final int capacity;
+
+	@Getter
+	private final OverflowPolicy overflowPolicy;
+
+	private final ArrayDeque<Delivery> queue;
+
+	/**
+	 * Events at or before this position have already been handled by this
+	 * mailbox, or null if all events should be delivered
+	 */
+	@Setter
+	private volatile JournalPosition resumeFrom;
+
+	private final Multimap<Class<?>, Consumer<? extends JournalEvent>> listeners = MultimapBuilder.hashKeys()
+			.hashSetValues().build();
+
+	/**
+	 * The listeners to invoke for each concrete event class, resolved lazily from
+	 * {@link #listeners} and cleared whenever a listener is added or removed.
+	 */
+	private final Map<Class<?>, Consumer<JournalEvent>[]> dispatchTable = new ConcurrentHashMap<>();
+
+	private long dropped = 0;
+
+	/**
+	 * Whether the delivery thread is currently handling an event
+	 */
+	private boolean delivering = false;
+
+	/**
+	 * Consecutive failure counts, only accessed from the delivery thread
+	 */
+	private final Map<Consumer<JournalEvent>, Integer> failures = new IdentityHashMap<>();
+
+	private volatile long failureCount = 0;
+
+	private volatile int quarantinedCount = 0;
+
+	Mailbox(EDScan edscan, String id, String name, int capacity, OverflowPolicy overflowPolicy) {
+		if (capacity < 1) throw new IllegalArgumentException("Mailbox capacity must be positive");
+
+		this.edscan = edscan;
+		this.id = id;
+		this.name = name;
+		this.capacity = capacity;
+		this.overflowPolicy = overflowPolicy;
+
+		queue = new ArrayDeque<>(Math.min(capacity, 64));
+
+		Thread deliverer = new Thread(this::deliver);
+		deliverer.setDaemon(true);
+		deliverer.setName("EDScan Mailbox [" + name + "]");
+		deliverer.start();
+	}
+
+	<T extends JournalEvent> void addListener(Class<T> cls, Consumer<T> consumer) {
+		synchronized (listeners) {
+			listeners.put(cls, consumer);
+			dispatchTable.clear();
+		}
+	}
+
+	<T extends JournalEvent> void removeListener(Class<T> cls, Consumer<T> consumer) {
+		synchronized (listeners) {
+			listeners.remove(cls, consumer);
+			dispatchTable.clear();
+		}
+	}
+
+	<T extends JournalEvent> void removeListener(Consumer<T> consumer) {
+		synchronized (listeners) {
+			listeners.values().removeIf(c -> c == consumer);
+			dispatchTable.clear();
+		}
+	}
+
+	/**
+	 * Gets the listeners which should receive events of the given concrete class,
+	 * including listeners registered for any of its supertypes.
+	 */
+	@SuppressWarnings("unchecked")
+	Consumer<JournalEvent>[] listenersFor(Class<?> eventClass) {
+		Consumer<JournalEvent>[] table = dispatchTable.get(eventClass);
+
+		if (table == null) {
+			synchronized (listeners) {
+				table = listeners.entries().stream().filter(e -> e.getKey().isAssignableFrom(eventClass))
+						.map(Map.Entry::getValue).toArray(Consumer[]::new);
+
+				dispatchTable.put(eventClass, table);
+			}
+		}
+
+		return table;
+	}
+
+	/**
+	 * Queues an event for delivery, applying the overflow policy if the mailbox
+	 * is full. Only blocks when the policy is {@link OverflowPolicy#BLOCK}.
+	 */
+	void post(JournalPosition position, JournalEvent event) throws InterruptedException {
+		JournalPosition resume = resumeFrom;
+		if (resume != null && position.compareTo(resume) <= 0) return;
+
+		synchronized (queue) {
+			if (queue.size() >= capacity) {
+				switch (overflowPolicy) {
+				case BLOCK:
+					while (queue.size() >= capacity)
+						queue.wait();
+					break;
+				case COALESCE:
+					if (removeOldest(event.getClass())) break;
+					// fall through
+				case DROP_OLDEST:
+					queue.poll();
+					dropped++;
+					break;
+				}
+			}
+
+			queue.add(new Delivery(position, event));
+			queue.notifyAll();
+		}
+	}
+
+	private boolean removeOldest(Class<?> eventClass) {
+		for (Iterator<Delivery> it = queue.iterator(); it.hasNext();) {
+			if (it.next().getEvent().getClass() == eventClass) {
+				it.remove();
+				dropped++;
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * @return The number of events waiting to be delivered
+	 */
+	public int getQueueDepth() {
+		synchronized (queue) {
+			return queue.size();
+		}
+	}
+
+	/**
+	 * @return The number of events discarded because this mailbox was full
+	 */
+	public long getDroppedCount() {
+		synchronized (queue) {
+			return dropped;
+		}
+	}
+
+	/**
+	 * Moves this mailbox's checkpoint up to the given position if it has nothing
+	 * left to deliver. Mailboxes only see the events they have listeners for, so
+	 * this stops a mailbox with rarely used listeners from holding the journal
+	 * reader back on the next launch.
+	 */
+	void markIdleAt(JournalPosition position) {
+		synchronized (queue) {
+			if (!queue.isEmpty() || delivering) return;
+
+			boolean behind = edscan.getCheckpoints().get(id).map(c -> c.compareTo(position) < 0).orElse(true);
+			if (behind) edscan.getCheckpoints().update(id, position);
+		}
+	}
+
+	/**
+	 * @return The total number of exceptions thrown by listeners in this mailbox
+	 */
+	public long getFailureCount() {
+		return failureCount;
+	}
+
+	/**
+	 * @return The number of listeners removed for failing too many times in a row
+	 */
+	public int getQuarantinedCount() {
+		return quarantinedCount;
+	}
+
+	private void handleFailure(Consumer<JournalEvent> listener, JournalEvent event, RuntimeException e) {
+		failureCount++;
+
+		int consecutive = failures.merge(listener, 1, Integer::sum);
+		log.error("Listener {} in mailbox [{}] failed to handle {} ({} in a row)", listener, name,
+				event.getClass().getSimpleName(), consecutive, e);
+
+		edscan.getDeadLetterLog().write(this, listener, event, e);
+
+		if (consecutive >= quarantineThreshold) {
+			log.error("Quarantining listener {} in mailbox [{}]", listener, name);
+
+			edscan.removeEventListener(listener);
+			failures.remove(listener);
+			quarantinedCount++;
+
+			edscan.showErrorMessage("Event listener error",
+					"A listener in " + name + " kept failing and will no longer receive events.", e);
+		}
+	}
+
+	private void deliver() {
+		while (true) {
+			Delivery delivery;
+
+			try {
+				synchronized (queue) {
+					while (queue.isEmpty())
+						queue.wait();
+
+					delivery = queue.poll();
+					delivering = true;
+					queue.notifyAll();
+				}
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			JournalEvent event = delivery.getEvent();
+
+			for (Consumer<JournalEvent> listener : listenersFor(event.getClass())) {
+				try {
+					listener.accept(event);
+					if (!failures.isEmpty()) failures.remove(listener);
+				} catch (RuntimeException e) {
+					handleFailure(listener, event, e);
+				}
+			}
+
+			synchronized (queue) {
+				edscan.getCheckpoints().update(id, delivery.getPosition());
+				delivering = false;
+			}
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package me.apemanzilla.edscan;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import lombok.Getter;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A durable queue of messages waiting to be sent to a remote service. Messages
+ * are appended to a file, one per line, and a separate file records the offset
+ * up to which they have been acknowledged, so nothing is lost if the service is
+ * unreachable or the application exits before everything has been sent.<br>
+ * <br>
+ * Messages are taken from the outbox in order, and several may be taken before
+ * the earlier ones are acknowledged. Once every message has been acknowledged
+ * the file is truncated, so it only grows while messages are waiting. Messages
+ * which were taken but not acknowledged before the application exited are
+ * taken again on the next start.
+ */
+@Slf4j
+public class Outbox implements Closeable {
+	@Value
+	public static class Message {
+		byte[] data;
+
+		/**
+		 * The offset just after this message, which acknowledges it and everything
+		 * before it
+		 */
+		long end;
+	}
+
+	@Getter
+	private final Path file;
+
+	private final Path ackFile;
+
+	private final FileChannel channel;
+
+	private long size;
+
+	private long acked;
+
+	/**
+	 * The offset up to which messages have been taken
+	 */
+	private long taken;
+
+	public Outbox(Path file) throws IOException {
+		this.file = file;
+		this.ackFile = file.resolveSibling(file.getFileName() + ".ack");
+
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		size = channel.size();
+
+		if (Files.exists(ackFile)) {
+			try {
+				acked = Long.parseLong(new String(Files.readAllBytes(ackFile), StandardCharsets.US_ASCII).trim());
+			} catch (NumberFormatException e) {
+				log.warn("Ignoring invalid outbox acknowledgement in {}", ackFile, e);
+			}
+		}
+
+		// the file was truncated but the acknowledgement wasn't reset
+		if (acked > size || acked < 0) acked = 0;
+
+		long end = lastLineEnd();
+		if (end < size) {
+			log.warn("Discarding {} bytes of incomplete message from {}", size - end, file);
+			channel.truncate(end);
+			size = end;
+		}
+
+		taken = acked;
+
+		if (acked < size) log.info("Outbox {} has {} bytes waiting to be sent", file, size - acked);
+	}
+
+	/**
+	 * Finds the end of the last complete message, in case the application exited
+	 * part way through appending one
+	 */
+	private long lastLineEnd() throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(4096);
+		long end = size;
+
+		while (end > acked) {
+			long start = Math.max(acked, end - buf.capacity());
+			buf.clear().limit((int) (end - start));
+
+			while (buf.hasRemaining() && channel.read(buf, start + buf.position()) > 0) {}
+
+			for (int i = buf.position() - 1; i >= 0; i--) {
+				if (buf.get(i) == '\n') return start + i + 1;
+			}
+
+			end = start;
+		}
+
+		return acked;
+	}
+
+	/**
+	 * Adds a message to the end of the outbox. Messages must not contain line
+	 * breaks.
+	 */
+	public void append(byte[] message) throws IOException {
+		append(message, 0, message.length);
+	}
+
+	/**
+	 * Adds a message, stored in part of the given array, to the end of the
+	 * outbox. Messages must not contain line breaks.
+	 */
+	public synchronized void append(byte[] message, int offset, int length) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(length + 1);
+		buf.put(message, offset, length).put((byte) '\n').flip();
+
+		while (buf.hasRemaining()) {
+			size += channel.write(buf, size);
+		}
+
+		notifyAll();
+	}
+
+	/**
+	 * @return The number of bytes waiting to be acknowledged
+	 */
+	public synchronized long getPendingBytes() {
+		return size - acked;
+	}
+
+	/**
+	 * Waits until there is at least one message which hasn't been taken, then
+	 * takes the oldest messages, up to the given limits. At least one message is
+	 * always returned, even if it is larger than <code>maxBytes</code>. Taken
+	 * messages stay in the outbox until they're acknowledged.
+	 */
+	public synchronized List<Message> take(int maxMessages, int maxBytes) throws InterruptedException, IOException {
+		while (taken == size) {
+			wait();
+		}
+
+		List<Message> messages = new ArrayList<>();
+		ByteBuffer buf = ByteBuffer.allocate((int) Math.min(Math.max(maxBytes, 1), size - taken));
+		long offset = taken;
+
+		while (messages.isEmpty()) {
+			while (buf.hasRemaining() && channel.read(buf, offset + buf.position()) > 0) {}
+
+			byte[] bytes = buf.array();
+			int lineStart = 0;
+
+			for (int i = 0; i < buf.position() && messages.size() < maxMessages; i++) {
+				if (bytes[i] != '\n') continue;
+
+				// the buffer may have grown to fit an oversized first message
+				if (!messages.isEmpty() && i + 1 > maxBytes) break;
+
+				messages.add(new Message(Arrays.copyOfRange(bytes, lineStart, i), offset + i + 1));
+				lineStart = i + 1;
+			}
+
+			if (messages.isEmpty()) {
+				if (bytes.length >= size - taken) throw new IOException("Unterminated message in " + file);
+
+				// a single message larger than the limit
+				buf = ByteBuffer.wrap(Arrays.copyOf(bytes, (int) Math.min(bytes.length * 2L, size - taken)));
+				buf.position(bytes.length);
+			}
+		}
+
+		taken = messages.get(messages.size() - 1).getEnd();
+		return messages;
+	}
+
+	/**
+	 * Acknowledges every message before the given offset, so that they won't be
+	 * returned again
+	 */
+	public synchronized void ack(long offset) throws IOException {
+		if (offset <= acked) return;
+		acked = Math.min(offset, taken);
+
+		if (acked == size) {
+			// everything has been sent, so start again with an empty file
+			channel.truncate(0);
+			size = acked = taken = 0;
+		}
+
+		Path temp = ackFile.resolveSibling(ackFile.getFileName() + ".tmp");
+		Files.write(temp, Long.toString(acked).getBytes(StandardCharsets.US_ASCII));
+
+		try {
+			Files.move(temp, ackFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp, ackFile, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		channel.close();
+	}
+}
@@ -1,10 +1,13 @@
 package me.apemanzilla.edscan;
 
 import java.security.CodeSource;
+import java.util.Collections;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.Callable;
 
 import javafx.scene.Node;
+import me.apemanzilla.edscan.Mailbox.OverflowPolicy;
 
 public abstract class Plugin {
 	protected EDScan edscan;
@@ -28,21 +31,70 @@ public abstract class Plugin {
 	}
 
 	/**
-	 * Allows the plugin to perform initialization tasks
+	 * Allows the plugin to perform initialization tasks. Plugins are initialized
+	 * in parallel during startup, once the config is loaded and everything they
+	 * depend on is ready.<br>
+	 * <br>
+	 * This does not run on the JavaFX application thread, so it must not create
+	 * or modify JavaFX nodes. Views should be created by the
+	 * {@link #getViewBuilder() view builder} instead.
+	 *
+	 * @see #requiresJournal()
+	 * @see #getDependencies()
 	 */
 	public void init() throws Exception {
 
 	}
 
+	/**
+	 * @return Whether {@link #init()} uses the journal or journal index, and must
+	 *         wait for them to be ready. The default is true.
+	 */
+	public boolean requiresJournal() {
+		return true;
+	}
+
+	/**
+	 * @return Other plugins which must be initialized before this one. If any of
+	 *         them are missing, disabled, or fail to initialize, this plugin
+	 *         won't be initialized either. The default is none.
+	 */
+	public Set<Class<? extends Plugin>> getDependencies() {
+		return Collections.emptySet();
+	}
+
 	/**
 	 * Gets the view builder for this plugin. This will be invoked after
-	 * {@link #init()}.<br>
+	 * {@link #init()}, but the builder itself is only called when the view is
+	 * first expanded, or shortly after the main window is shown if
+	 * <code>edscan.prebuildViews</code> is enabled. It is always called on the
+	 * JavaFX application thread.<br>
 	 * The default implementation returns an empty optional.
 	 */
 	public Optional<Callable<Node>> getViewBuilder() {
 		return Optional.empty();
 	}
 
+	/**
+	 * @return The maximum number of events which may be queued for this plugin's
+	 *         listeners before the {@link #getOverflowPolicy() overflow policy}
+	 *         applies. The default is 1024.
+	 */
+	public int getMailboxCapacity() {
+		return 1024;
+	}
+
+	/**
+	 * @return What to do with new events when this plugin's listeners have fallen
+	 *         behind and its mailbox is full. The default is
+	 *         {@link OverflowPolicy#DROP_OLDEST}, so that a slow plugin never holds
+	 *         up the journal reader. Plugins which must not lose events, such as
+	 *         uploaders, should return {@link OverflowPolicy#BLOCK}.
+	 */
+	public OverflowPolicy getOverflowPolicy() {
+		return OverflowPolicy.DROP_OLDEST;
+	}
+
 	/**
 	 * Allows the plugin to perform cleanup tasks
 	 */
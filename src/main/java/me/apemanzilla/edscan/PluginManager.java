@@ -1,12 +1,12 @@
 package me.apemanzilla.edscan;
 
 import java.security.CodeSource;
-import java.util.ServiceLoader;
-import java.util.Set;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Stream;
 
 import lombok.AccessLevel;
+import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
@@ -34,36 +34,92 @@ public class PluginManager {
 
 	private final Set<Plugin> plugins;
 
+	@Getter(AccessLevel.NONE)
+	private final Map<Class<?>, Config.Key<Boolean>> enabledKeys = new ConcurrentHashMap<>();
+
+	static String enabledKey(Plugin p) {
+		return "plugins." + p.getClass().getName() + ".enabled";
+	}
+
 	boolean isEnabled(Plugin p) {
-		String key = "plugins." + p.getClass().getName() + ".enabled";
-		return edscan.getConfig().getAsOr(Boolean.class, key, true);
+		Config.Key<Boolean> key = enabledKeys.computeIfAbsent(p.getClass(),
+				c -> Config.key(enabledKey(p), Boolean.class, true));
+
+		return edscan.getConfig().get(key);
 	}
 
 	Stream<Plugin> enabledPlugins() {
 		return plugins.stream().filter(this::isEnabled);
 	}
 
-	public void init() {
-		enabledPlugins().forEach(p -> {
+	private static String stageName(Plugin p) {
+		return "plugin " + p.getClass().getName();
+	}
+
+	/**
+	 * Adds a bootstrap stage to initialize each plugin, which runs once the
+	 * config, the journal index and checkpoints (if required) and the plugin's
+	 * dependencies are ready.
+	 */
+	void init(Bootstrap bootstrap) {
+		plugins.forEach(p -> addInitStage(bootstrap, p, new HashSet<>()));
+	}
+
+	private boolean addInitStage(Bootstrap bootstrap, Plugin p, Set<Plugin> visiting) {
+		if (bootstrap.hasStage(stageName(p))) return true;
+
+		if (!visiting.add(p)) {
+			log.error("Plugin [{}] has a circular dependency", p);
+			return false;
+		}
+
+		List<String> deps = new ArrayList<>();
+		deps.add("config");
+		if (p.requiresJournal()) {
+			deps.add("journal index");
+			deps.add("checkpoints");
+		}
+
+		List<Plugin> required = new ArrayList<>();
+
+		for (Class<? extends Plugin> cls : p.getDependencies()) {
+			Optional<Plugin> dep = plugins.stream().filter(cls::isInstance).findFirst();
+
+			if (dep.isPresent() && addInitStage(bootstrap, dep.get(), visiting)) {
+				deps.add(stageName(dep.get()));
+				required.add(dep.get());
+			} else {
+				log.error("Plugin [{}] depends on {}, which is not available", p, cls.getName());
+				edscan.showErrorMessage("Plugin initialization error", "Plugin " + p + " requires " + cls.getName()
+						+ ", which is not installed or could not be loaded.", new ClassNotFoundException(cls.getName()));
+				return false;
+			}
+		}
+
+		bootstrap.optionalStage(stageName(p), () -> {
+			if (!isEnabled(p)) return;
+
+			Optional<Plugin> disabled = required.stream().filter(d -> !isEnabled(d)).findFirst();
+			if (disabled.isPresent()) {
+				log.warn("Not initializing [{}] because [{}] is disabled", p, disabled.get());
+				return;
+			}
+
 			try {
 				p.init();
 			} catch (Exception e) {
 				log.error("Error calling init for [{}]", p, e);
 				edscan.showErrorMessage("Plugin initialization error", "There was an error initializing plugin " + p,
 						e);
+				throw e;
 			}
-		});
+		}, deps.toArray(new String[0]));
+
+		return true;
 	}
 
 	public void addViews() {
-		enabledPlugins().filter(p -> p.getViewBuilder().isPresent()).forEach(p -> {
-			try {
-				edscan.addView(p.toString(), p.getViewBuilder().get().call());
-			} catch (Exception e) {
-				log.error("Error creating view for [{}]", p, e);
-				edscan.showErrorMessage("Plugin view error", "There was an error creating the view for plugin " + p, e);
-			}
-		});
+		enabledPlugins().forEach(p -> p.getViewBuilder().ifPresent(b -> edscan.addView(p, b)));
 	}
 
 	public void cleanup() {
@@ -28,7 +28,7 @@ public class PluginManagerView extends BorderPane implements Initializable {
 	private TableColumn<Plugin, Boolean> enabledColumn;
 
 	@FXML
-	private TableColumn<Plugin, String> pluginColumn, descriptionColumn;
+	private TableColumn<Plugin, String> pluginColumn, descriptionColumn, eventsColumn;
 
 	@SneakyThrows(IOException.class)
 	public PluginManagerView(EDScan edscan) {
@@ -47,7 +47,7 @@ public class PluginManagerView extends BorderPane implements Initializable {
 		enabledColumn.setCellValueFactory(p -> {
 			SimpleBooleanProperty prop = new SimpleBooleanProperty();
 
-			edscan.getConfig().bindAndSet("plugins." + p.getValue().getClass().getName() + ".enabled", prop, true);
+			edscan.getConfig().bindAndSet(PluginManager.enabledKey(p.getValue()), prop, true);
 
 			return prop;
 		});
@@ -63,6 +63,9 @@ public class PluginManagerView extends BorderPane implements Initializable {
 
 		descriptionColumn.setCellValueFactory(p -> new ReadOnlyStringWrapper(p.getValue().getDescription()));
 
+		eventsColumn.setCellValueFactory(p -> new ReadOnlyStringWrapper(edscan.findMailbox(p.getValue())
+				.map(m -> m.getQueueDepth() + " queued, " + m.getDroppedCount() + " dropped").orElse("")));
+
 		enabledColumn.setCellFactory(c -> new CheckBoxTableCell<>());
 
 		descriptionColumn.setCellFactory(c -> new TableCell<Plugin, String>() {
@@ -0,0 +1,57 @@
+package me.apemanzilla.edscan;
+
+import java.util.concurrent.Callable;
+
+import javafx.scene.Node;
+import javafx.scene.control.Label;
+import javafx.scene.control.TitledPane;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A titled pane for a plugin view which only invokes the plugin's view builder
+ * the first time the pane is expanded, or when it is prebuilt after startup.
+ */
+@Slf4j
+class PluginViewPane extends TitledPane {
+	@Getter
+	private final Plugin plugin;
+
+	private final Callable<Node> builder;
+
+	private boolean built = false;
+
+	PluginViewPane(Plugin plugin, Callable<Node> builder) {
+		super(plugin.toString(), new Label("Loading..."));
+
+		this.plugin = plugin;
+		this.builder = builder;
+
+		getStyleClass().add("plugin-view-wrapper");
+		expandedProperty().addListener((s, o, n) -> {
+			if (n) build();
+		});
+	}
+
+	/**
+	 * Builds the view on the JavaFX application thread, unless it has already
+	 * been built
+	 */
+	void build() {
+		if (built) return;
+		built = true;
+
+		try {
+			setContent(builder.call());
+		} catch (Exception e) {
+			failed(e);
+		}
+	}
+
+	private void failed(Exception e) {
+		log.error("Error creating view for [{}]", plugin, e);
+		setContent(new Label("This view could not be created."));
+		plugin.edscan.showErrorMessage("Plugin view error", "There was an error creating the view for plugin " + plugin,
+				e);
+	}
+}
@@ -0,0 +1,242 @@
+package me.apemanzilla.edscan;
+
+import java.net.URI;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.mashape.unirest.http.HttpResponse;
+import com.mashape.unirest.http.exceptions.UnirestException;
+import com.mashape.unirest.request.BaseRequest;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Paces HTTP requests to each remote host so that they stay within whatever
+ * rate the host will accept.<br>
+ * <br>
+ * Each host has its own allowed request rate, which is adjusted using AIMD:
+ * every successful response raises it slightly, and every throttled response
+ * (HTTP 429 or 503) halves it. <code>Retry-After</code> and
+ * <code>X-Rate-Limit-*</code> headers are honoured when present. Requests
+ * which would exceed the current rate wait their turn, and throttled requests
+ * are retried after waiting rather than failing. A request which is still
+ * throttled after several attempts fails with a {@link ThrottledException}, so
+ * that callers can try again later instead of handling the throttled response
+ * as an error.
+ */
+@Slf4j
+public class RateController {
+	private static final double initialRate = 2;
+	private static final double minRate = 1 / 30.0;
+	private static final double maxRate = 20;
+
+	/**
+	 * How much the rate increases after each successful request, in requests per
+	 * second
+	 */
+	private static final double increase = 0.1;
+
+	private static final double decrease = 0.5;
+
+	/**
+	 * Thrown when a host keeps throttling a request. Nothing is wrong with the
+	 * request, so it should be sent again later, without reporting an error.
+	 */
+	public static class ThrottledException extends UnirestException {
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The status of the last throttled response
+		 */
+		@Getter
+		private final int status;
+
+		ThrottledException(String host, int status, int attempts) {
+			super("Throttled by " + host + " (HTTP " + status + ") after " + attempts + " attempts");
+			this.status = status;
+		}
+	}
+
+	/**
+	 * The pacing state for a single host
+	 */
+	private static class Host {
+		private final String name;
+
+		private double rate = initialRate;
+
+		/**
+		 * The earliest time, in nanoseconds, at which the next request may start
+		 */
+		private long next = System.nanoTime();
+
+		Host(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Reserves the next free slot and waits for it
+		 */
+		void acquire() throws InterruptedException {
+			long wait;
+
+			synchronized (this) {
+				long now = System.nanoTime();
+				long start = Math.max(now, next);
+
+				next = start + (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+				wait = start - now;
+			}
+
+			if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+		}
+
+		synchronized double rate() {
+			return rate;
+		}
+
+		synchronized void succeeded() {
+			rate = Math.min(maxRate, rate + increase);
+		}
+
+		synchronized void throttled(long retryAfter) {
+			rate = Math.max(minRate, rate * decrease);
+			next = Math.max(next, System.nanoTime() + retryAfter);
+
+			log.info("Throttled by {}, slowing down to {} requests/s", name, String.format("%.2f", rate));
+		}
+
+		/**
+		 * Holds back requests until the server's rate limit window resets
+		 */
+		synchronized void exhausted(long reset) {
+			next = Math.max(next, System.nanoTime() + reset);
+		}
+
+		/**
+		 * Caps the rate at what the server says is left in the current window
+		 */
+		synchronized void limit(double serverRate) {
+			if (serverRate < rate) rate = Math.max(minRate, serverRate);
+		}
+	}
+
+	private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+
+	private final int maxAttempts;
+
+	public RateController() {
+		this(8);
+	}
+
+	/**
+	 * @param maxAttempts The number of times a throttled request is sent before
+	 *                    giving up
+	 */
+	RateController(int maxAttempts) {
+		this.maxAttempts = maxAttempts;
+	}
+
+	/**
+	 * @return The number of requests per second currently allowed to the given
+	 *         host
+	 */
+	double getRate(String host) {
+		Host h = hosts.get(host);
+		return h == null ? initialRate : h.rate();
+	}
+
+	private Host host(BaseRequest request) {
+		String host = URI.create(request.getHttpRequest().getUrl()).getHost();
+		return hosts.computeIfAbsent(host == null ? "" : host, Host::new);
+	}
+
+	/**
+	 * Sends a request once the rate limit for its host allows, retrying it while
+	 * the host reports that it is being throttled.
+	 *
+	 * @return The response, which is never a 429 or 503 response
+	 * @throws ThrottledException If the host kept throttling the request after
+	 *                            several attempts
+	 */
+	public HttpResponse<String> execute(BaseRequest request) throws UnirestException, InterruptedException {
+		Host host = host(request);
+
+		for (int attempt = 1;; attempt++) {
+			host.acquire();
+
+			HttpResponse<String> response = request.asString();
+			int status = response.getStatus();
+
+			checkHeaders(host, response);
+
+			if (status != 429 && status != 503) {
+				// errors don't show the host has room for more requests
+				if (status >= 200 && status < 400) host.succeeded();
+				return response;
+			}
+
+			long retryAfter = header(response, "Retry-After").map(RateController::parseRetryAfter)
+					.orElse(TimeUnit.SECONDS.toNanos(1L << Math.min(attempt, 6)));
+			host.throttled(retryAfter);
+
+			if (attempt >= maxAttempts) throw new ThrottledException(host.name, status, attempt);
+		}
+	}
+
+	private static void checkHeaders(Host host, HttpResponse<?> response) {
+		try {
+			Optional<Long> remaining = header(response, "X-Rate-Limit-Remaining").map(Long::parseLong);
+			Optional<Long> reset = header(response, "X-Rate-Limit-Reset").map(Long::parseLong);
+
+			if (!remaining.isPresent() || !reset.isPresent()) return;
+
+			long resetNanos = TimeUnit.SECONDS.toNanos(reset.get());
+
+			if (remaining.get() <= 0) {
+				host.exhausted(resetNanos);
+			} else if (reset.get() > 0) {
+				host.limit(remaining.get() / (double) reset.get());
+			}
+		} catch (NumberFormatException e) {
+			log.debug("Ignoring invalid rate limit headers", e);
+		}
+	}
+
+	private static Optional<String> header(HttpResponse<?> response, String name) {
+		for (Map.Entry<String, List<String>> e : response.getHeaders().entrySet()) {
+			if (e.getKey() != null && e.getKey().equalsIgnoreCase(name) && !e.getValue().isEmpty()) {
+				return Optional.of(e.getValue().get(0).trim());
+			}
+		}
+
+		return Optional.empty();
+	}
+
+	/**
+	 * Parses a <code>Retry-After</code> header, which is either a number of
+	 * seconds or an HTTP date
+	 *
+	 * @return The delay in nanoseconds
+	 */
+	static long parseRetryAfter(String value) {
+		try {
+			return TimeUnit.SECONDS.toNanos(Long.parseLong(value));
+		} catch (NumberFormatException e) {
+			try {
+				Instant at = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+				return TimeUnit.MILLISECONDS.toNanos(Math.max(0, at.toEpochMilli() - System.currentTimeMillis()));
+			} catch (DateTimeParseException ex) {
+				return TimeUnit.SECONDS.toNanos(1);
+			}
+		}
+	}
+}
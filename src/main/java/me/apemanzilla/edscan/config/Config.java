@@ -1,10 +1,9 @@
 package me.apemanzilla.edscan.config;
 
 import java.lang.reflect.Type;
-import java.util.ArrayList;
-import java.util.Map;
-import java.util.Optional;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.BiConsumer;
 
 import com.google.common.collect.Multimap;
@@ -66,26 +65,56 @@ public class Config {
 		return getAs(key, (Type) cls);
 	}
 
+	/**
+	 * Adds a listener which is called with the old and new values of the given
+	 * key, decoded as the listener's type, whenever the key changes
+	 */
+	public void addListener(String key, Listener<?> listener) {
+		listeners.put(key, listener);
+	}
+
+	public void removeListener(String key, Listener<?> listener) {
+		listeners.remove(key, listener);
+	}
+
+	/**
+	 * Notifies the listeners for a key that it has changed. The old and new
+	 * values are decoded once for each distinct listener type rather than once
+	 * per listener, and listeners are called without holding the listener lock,
+	 * so they may add or remove listeners themselves.
+	 */
 	@SuppressWarnings("unchecked")
 	private void invokeListeners(String key, JsonElement from, JsonElement to) {
-		listeners.get(key).forEach(l -> {
-			Object o1 = gson.fromJson(from, l.type);
-			Object o2 = gson.fromJson(to, l.type);
+		List<Listener<?>> snapshot;
+		synchronized (listeners) {
+			if (!listeners.containsKey(key)) return;
+			snapshot = new ArrayList<>(listeners.get(key));
+		}
+
+		Map<Type, Object[]> values = new HashMap<>();
 
-			((Listener<Object>) l).consumer.accept(o1, o2);
-		});
+		for (Listener<?> l : snapshot) {
+			Object[] v = values.computeIfAbsent(l.type,
+					t -> new Object[] { gson.fromJson(from, t), gson.fromJson(to, t) });
+
+			((Listener<Object>) l).consumer.accept(v[0], v[1]);
+		}
 	}
 
 	public void remove(String key) {
-		JsonElement old = getRaw(key).orElse(null);
-		data.remove(key);
+		JsonElement old = data.remove(key);
+		if (old == null) return;
 
 		invokeListeners(key, old, null);
 	}
 
+	/**
+	 * Sets the JSON value of a key, notifying listeners unless the value is
+	 * unchanged
+	 */
 	public void putRaw(String key, JsonElement json) {
-		JsonElement old = getRaw(key).orElse(null);
-		data.put(key, json);
+		JsonElement old = data.put(key, json);
+		if (json.equals(old)) return;
 
 		invokeListeners(key, old, json);
 	}
@@ -94,14 +123,43 @@ public class Config {
 		putRaw(key, gson.toJsonTree(value));
 	}
 
+	/**
+	 * A JavaFX property backed by a config key. The property only listens to the
+	 * config while it has listeners of its own.
+	 */
 	@Value
 	@RequiredArgsConstructor
 	public class ConfigProperty<T> implements Property<T> {
 		Type type;
 		String key;
 
-		ArrayList<ChangeListener<? super T>> changeListeners = new ArrayList<>();
-		ArrayList<InvalidationListener> invalidationListeners = new ArrayList<>();
+		CopyOnWriteArrayList<ChangeListener<? super T>> changeListeners = new CopyOnWriteArrayList<>();
+		CopyOnWriteArrayList<InvalidationListener> invalidationListeners = new CopyOnWriteArrayList<>();
+
+		@NonFinal
+		private Listener<T> configListener;
+
+		private synchronized void listen() {
+			if (configListener == null) {
+				configListener = new Listener<>(type, this::fire);
+				Config.this.addListener(key, configListener);
+			}
+		}
+
+		private synchronized void stopListening() {
+			if (configListener != null && changeListeners.isEmpty() && invalidationListeners.isEmpty()) {
+				Config.this.removeListener(key, configListener);
+				configListener = null;
+			}
+		}
+
+		private void fire(T oldValue, T newValue) {
+			invalidationListeners.forEach(l -> l.invalidated(this));
+
+			if (!Objects.equals(oldValue, newValue)) {
+				changeListeners.forEach(l -> l.changed(this, oldValue, newValue));
+			}
+		}
 
 		@Override
 		public Object getBean() {
@@ -125,26 +183,26 @@ public class Config {
 
 		@Override
 		public void addListener(ChangeListener<? super T> listener) {
-			// TODO Auto-generated method stub
-
+			changeListeners.add(listener);
+			listen();
 		}
 
 		@Override
 		public void removeListener(ChangeListener<? super T> listener) {
-			// TODO Auto-generated method stub
-
+			changeListeners.remove(listener);
+			stopListening();
 		}
 
 		@Override
 		public void addListener(InvalidationListener listener) {
-			// TODO Auto-generated method stub
-
+			invalidationListeners.add(listener);
+			listen();
 		}
 
 		@Override
 		public void removeListener(InvalidationListener listener) {
-			// TODO Auto-generated method stub
-
+			invalidationListeners.remove(listener);
+			stopListening();
 		}
 
 		@NonFinal
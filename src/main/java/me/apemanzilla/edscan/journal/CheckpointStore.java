@@ -0,0 +1,85 @@
+package me.apemanzilla.edscan.journal;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Remembers how far through the journal each consumer has processed, so that
+ * reading can resume from there after a restart.<br>
+ * <br>
+ * Checkpoints are updated in memory as events are processed and written to disk
+ * by {@link #save()}, so a crash may repeat the events processed since the last
+ * save, but a clean shutdown never does.
+ */
+@Slf4j
+public class CheckpointStore {
+	private static final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+	private static final Type mapType = new TypeToken<Map<String, JournalPosition>>() {}.getType();
+
+	@Getter
+	private final Path file;
+
+	private final Map<String, JournalPosition> checkpoints = new ConcurrentHashMap<>();
+
+	private volatile boolean dirty = false;
+
+	public CheckpointStore(Path file) {
+		this.file = file;
+
+		if (Files.exists(file)) {
+			try (Reader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+				Map<String, JournalPosition> loaded = gson.fromJson(r, mapType);
+				if (loaded != null) checkpoints.putAll(loaded);
+			} catch (IOException | JsonParseException e) {
+				log.error("Error loading journal checkpoints from {}", file, e);
+			}
+		}
+	}
+
+	/**
+	 * @return The position just after the last event the given consumer
+	 *         processed, or an empty optional if there is no checkpoint for it
+	 */
+	public Optional<JournalPosition> get(String consumer) {
+		return Optional.ofNullable(checkpoints.get(consumer));
+	}
+
+	/**
+	 * Records that the given consumer has processed everything before the given
+	 * position
+	 */
+	public void update(String consumer, JournalPosition position) {
+		checkpoints.put(consumer, position);
+		dirty = true;
+	}
+
+	/**
+	 * Writes the checkpoints to disk if they have changed since the last save,
+	 * replacing the previous file atomically.
+	 */
+	public synchronized void save() throws IOException {
+		if (!dirty) return;
+		dirty = false;
+
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		Files.write(temp, gson.toJson(checkpoints, mapType).getBytes(StandardCharsets.UTF_8));
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
@@ -0,0 +1,181 @@
+package me.apemanzilla.edscan.journal;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.*;
+import com.google.gson.annotations.SerializedName;
+
+import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
+import me.apemanzilla.edjournal.events.JournalEvent;
+
+/**
+ * Decodes raw journal lines into event objects, for use when lines are read
+ * directly from the journal files rather than through the journal library.<br>
+ * <br>
+ * Event classes are found by name in the journal library's events package. Some
+ * events, like <code>Scan</code>, are modelled as a family of nested
+ * subclasses. These are found by reflection, and each line is decoded as the
+ * subclass for which it has the largest share of the keys only that subclass
+ * has, such as <code>StarType</code> for star scans.
+ */
+@Slf4j
+@UtilityClass
+public class EventDecoder {
+	private final Gson gson = new GsonBuilder().setFieldNamingPolicy(FieldNamingPolicy.UPPER_CAMEL_CASE)
+			.registerTypeAdapter(Instant.class, (JsonDeserializer<Instant>) (j, t, c) -> {
+				return Instant.parse(j.getAsString());
+			}).create();
+
+	private final String eventsPackage = JournalEvent.class.getPackage().getName();
+
+	private final Map<String, Optional<Class<? extends JournalEvent>>> eventClasses = new ConcurrentHashMap<>();
+
+	/**
+	 * For each event class, the keys identifying each of the kinds of event
+	 * nested in it. Lines with none of the keys are decoded as the class itself,
+	 * if it isn't abstract.
+	 */
+	private final Map<Class<? extends JournalEvent>, Map<Class<? extends JournalEvent>, Set<String>>> kinds =
+			new ConcurrentHashMap<>();
+
+	/**
+	 * Lines which couldn't be decoded as any kind of event, by event name, so
+	 * each is only logged once
+	 */
+	private final Set<String> unknownKinds = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Gets the journal event name that events of the given class are written
+	 * under. Kinds of event modelled as nested subclasses, like
+	 * {@code Scan.StarScan}, have the name of the family they belong to.
+	 */
+	public String eventName(Class<? extends JournalEvent> cls) {
+		Class<?> c = cls;
+
+		while (c.getEnclosingClass() != null && JournalEvent.class.isAssignableFrom(c.getEnclosingClass())) {
+			c = c.getEnclosingClass();
+		}
+
+		return c.getSimpleName();
+	}
+
+	/**
+	 * Decodes a raw journal line as the given event class
+	 *
+	 * @throws JsonParseException If the line isn't a valid event of that class
+	 */
+	public <T extends JournalEvent> T decode(String line, Class<T> cls) throws JsonParseException {
+		return gson.fromJson(line, cls);
+	}
+
+	/**
+	 * Decodes a raw journal line as whichever event class matches it
+	 *
+	 * @return The event, or an empty optional if the line is blank or is an event
+	 *         (or kind of event) the journal library doesn't know about
+	 * @throws JsonParseException If the line isn't a valid event
+	 */
+	public Optional<JournalEvent> decode(String line) throws JsonParseException {
+		if (line.trim().isEmpty()) return Optional.empty();
+
+		JsonObject o = new JsonParser().parse(line).getAsJsonObject();
+		if (!o.has("event")) return Optional.empty();
+
+		return eventClasses.computeIfAbsent(o.get("event").getAsString(), EventDecoder::findClass)
+				.flatMap(cls -> kindOf(cls, o)).map(cls -> gson.fromJson(o, cls));
+	}
+
+	private Optional<Class<? extends JournalEvent>> findClass(String event) {
+		try {
+			return Optional.of(Class.forName(eventsPackage + "." + event, true, JournalEvent.class.getClassLoader())
+					.asSubclass(JournalEvent.class));
+		} catch (ClassNotFoundException | ClassCastException e) {
+			return Optional.empty();
+		}
+	}
+
+	/**
+	 * Chooses the class to decode a line as, from the given event class and the
+	 * kinds of event nested in it
+	 */
+	private Optional<Class<? extends JournalEvent>> kindOf(Class<? extends JournalEvent> cls, JsonObject o) {
+		List<Class<? extends JournalEvent>> best = new ArrayList<>();
+		double bestShare = 0;
+
+		for (Map.Entry<Class<? extends JournalEvent>, Set<String>> e : kinds
+				.computeIfAbsent(cls, EventDecoder::findKinds).entrySet()) {
+			if (e.getValue().isEmpty()) continue;
+
+			// optional fields mean a line needn't have every key of its kind
+			double share = (double) e.getValue().stream().filter(o::has).count() / e.getValue().size();
+
+			if (share > bestShare) best.clear();
+			if (share >= bestShare && share > 0) {
+				best.add(e.getKey());
+				bestShare = share;
+			}
+		}
+
+		if (best.size() == 1) return kindOf(best.get(0), o);
+
+		if (best.size() > 1) {
+			if (unknownKinds.add(eventName(cls)))
+				log.warn("Line matches several kinds of {} event: {}", cls.getSimpleName(), o);
+			return Optional.empty();
+		}
+
+		if (Modifier.isAbstract(cls.getModifiers())) {
+			if (unknownKinds.add(eventName(cls)))
+				log.warn("No known kind of {} event for line {}", cls.getSimpleName(), o);
+			return Optional.empty();
+		}
+
+		return Optional.of(cls);
+	}
+
+	/**
+	 * Finds the kinds of event nested in the given class, along with the keys of
+	 * the fields which only that kind has
+	 */
+	private Map<Class<? extends JournalEvent>, Set<String>> findKinds(Class<? extends JournalEvent> cls) {
+		Map<Class<? extends JournalEvent>, Set<String>> found = new LinkedHashMap<>();
+
+		for (Class<?> nested : cls.getDeclaredClasses()) {
+			if (nested == cls || !cls.isAssignableFrom(nested)) continue;
+
+			Set<String> keys = new HashSet<>();
+			for (Class<?> c = nested; c != cls; c = c.getSuperclass()) {
+				for (Field f : c.getDeclaredFields()) {
+					if (Modifier.isStatic(f.getModifiers()) || Modifier.isTransient(f.getModifiers())) continue;
+					keys.addAll(keys(f));
+				}
+			}
+
+			found.put(nested.asSubclass(JournalEvent.class), keys);
+		}
+
+		// keys shared by several kinds don't tell them apart
+		Map<String, Long> uses = new HashMap<>();
+		found.values().forEach(keys -> keys.forEach(k -> uses.merge(k, 1L, Long::sum)));
+		found.values().forEach(keys -> keys.removeIf(k -> uses.get(k) > 1));
+
+		return found;
+	}
+
+	/**
+	 * Gets the keys the given field may be read from
+	 */
+	private List<String> keys(Field f) {
+		SerializedName name = f.getAnnotation(SerializedName.class);
+		if (name == null) return Collections.singletonList(FieldNamingPolicy.UPPER_CAMEL_CASE.translateName(f));
+
+		List<String> keys = new ArrayList<>(Arrays.asList(name.alternate()));
+		keys.add(name.value());
+		return keys;
+	}
+}
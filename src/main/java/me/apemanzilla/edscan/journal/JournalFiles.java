@@ -0,0 +1,100 @@
+package me.apemanzilla.edscan.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import lombok.experimental.UtilityClass;
+
+@UtilityClass
+public class JournalFiles {
+	/**
+	 * Receives complete lines read from a journal file
+	 */
+	@FunctionalInterface
+	public interface LineHandler {
+		/**
+		 * @param bytes  A buffer containing the line, without its line terminator
+		 * @param offset The index of the start of the line in the buffer
+		 * @param length The length of the line in bytes
+		 * @param start  The position of the start of the line in the file
+		 * @param end    The position just after the end of the line in the file
+		 */
+		void line(byte[] bytes, int offset, int length, long start, long end) throws IOException;
+	}
+
+	/**
+	 * @return The directory the game writes journal files to by default
+	 */
+	public Path defaultDirectory() {
+		return Paths.get(System.getProperty("user.home"), "Saved Games", "Frontier Developments", "Elite Dangerous");
+	}
+
+	public boolean isJournalFile(Path file) {
+		String name = file.getFileName().toString();
+		return name.startsWith("Journal.") && name.endsWith(".log");
+	}
+
+	/**
+	 * Lists the journal files in the given directory, oldest first. Journal file
+	 * names contain the time they were created, so name order is creation order.
+	 */
+	public List<Path> list(Path directory) throws IOException {
+		if (!Files.isDirectory(directory)) return Collections.emptyList();
+
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(JournalFiles::isJournalFile).sorted().collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * Reads every complete line from the given position to the end of the file,
+	 * using positional reads so the channel's own position is left alone. A
+	 * trailing line without a line terminator is left for the next read, since
+	 * the game may still be writing it.
+	 *
+	 * @return The position just after the last complete line
+	 */
+	public long readLines(FileChannel ch, long from, LineHandler handler) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+		long bufStart = from;
+		int scanned = 0;
+
+		while (ch.read(buf, bufStart + buf.position()) > 0) {
+			byte[] bytes = buf.array();
+			int end = buf.position(), lineStart = 0;
+
+			for (int i = scanned; i < end; i++) {
+				if (bytes[i] != '\n') continue;
+
+				int length = i - lineStart;
+				if (length > 0 && bytes[i - 1] == '\r') length--;
+
+				handler.line(bytes, lineStart, length, bufStart + lineStart, bufStart + i + 1);
+				lineStart = i + 1;
+			}
+
+			if (lineStart == 0 && end == buf.capacity()) {
+				// a single line longer than the buffer
+				buf = ByteBuffer.wrap(Arrays.copyOf(bytes, bytes.length * 2));
+				buf.position(end);
+				scanned = end;
+			} else {
+				System.arraycopy(bytes, lineStart, bytes, 0, end - lineStart);
+				buf.position(end - lineStart);
+				bufStart += lineStart;
+				scanned = end - lineStart;
+			}
+		}
+
+		return bufStart;
+	}
+}
@@ -0,0 +1,461 @@
+package me.apemanzilla.edscan.journal;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import com.google.common.io.CountingInputStream;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import me.apemanzilla.edjournal.events.JournalEvent;
+
+/**
+ * A persistent index of where each journal event is stored, so that lookups by
+ * event type only need to read the lines they return.<br>
+ * <br>
+ * The index file is an append-only log of records. New journal files and event
+ * types are recorded the first time they're seen, followed by an entry (file,
+ * byte offset, timestamp) for every event, and finally a progress record saying
+ * how much of the journal file has been indexed. Only records up to the last
+ * progress record are trusted when the index is loaded, so an interrupted
+ * update is simply redone.<br>
+ * <br>
+ * Kinds of event which share a journal event name, like star and planet scans,
+ * are looked up through the entries for that name and filtered as they're
+ * read.
+ */
+@Slf4j
+public class JournalIndex {
+	private static final int magic = 0x45445349; // EDSI
+	private static final int version = 1;
+
+	private static final byte fileRecord = 'F', typeRecord = 'T', entryRecord = 'E', progressRecord = 'P';
+
+	/**
+	 * The indexed events of a single type, in journal order
+	 */
+	private static class Entries {
+		int size = 0;
+		int[] files = new int[16];
+		long[] offsets = new long[16];
+		long[] timestamps = new long[16];
+
+		void add(int file, long offset, long timestamp) {
+			if (size == files.length) {
+				files = Arrays.copyOf(files, size * 2);
+				offsets = Arrays.copyOf(offsets, size * 2);
+				timestamps = Arrays.copyOf(timestamps, size * 2);
+			}
+
+			files[size] = file;
+			offsets[size] = offset;
+			timestamps[size] = timestamp;
+			size++;
+		}
+
+		/**
+		 * @return The index of the first entry with a timestamp at or after the
+		 *         given time, or {@link #size} if there is none
+		 */
+		int firstAtOrAfter(long timestamp) {
+			int lo = 0, hi = size;
+
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+
+				if (timestamps[mid] < timestamp)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+
+			return lo;
+		}
+	}
+
+	@Getter
+	private final Path journalDirectory;
+
+	@Getter
+	private final Path indexFile;
+
+	private final List<String> files = new ArrayList<>();
+	private final Map<String, Integer> fileIds = new HashMap<>();
+	private final List<Long> indexedLengths = new ArrayList<>();
+
+	private final List<String> types = new ArrayList<>();
+	private final Map<String, Integer> typeIds = new HashMap<>();
+	private final Map<String, Entries> entries = new HashMap<>();
+
+	/**
+	 * Creates an index of the given journal directory, loading any existing index
+	 * data from the given file.
+	 */
+	public JournalIndex(Path journalDirectory, Path indexFile) throws IOException {
+		this.journalDirectory = journalDirectory;
+		this.indexFile = indexFile;
+
+		if (Files.exists(indexFile)) load();
+	}
+
+	private void load() throws IOException {
+		List<String> newFiles = new ArrayList<>(), newTypes = new ArrayList<>();
+		List<long[]> newEntries = new ArrayList<>();
+		long committed = 0;
+		boolean supported;
+
+		try (CountingInputStream counter = new CountingInputStream(
+				new BufferedInputStream(Files.newInputStream(indexFile)));
+				DataInputStream in = new DataInputStream(counter)) {
+			supported = in.readInt() == magic && in.readInt() == version;
+			committed = counter.getCount();
+
+			int kind;
+			while (supported && (kind = in.read()) >= 0) {
+				switch (kind) {
+				case fileRecord:
+					newFiles.add(in.readUTF());
+					break;
+				case typeRecord:
+					newTypes.add(in.readUTF());
+					break;
+				case entryRecord:
+					newEntries.add(new long[] { in.readInt(), in.readInt(), in.readLong(), in.readLong() });
+					break;
+				case progressRecord:
+					int file = in.readInt();
+					long length = in.readLong();
+
+					newFiles.forEach(this::addFile);
+					newTypes.forEach(this::addType);
+					newEntries.forEach(e -> entries.get(types.get((int) e[1])).add((int) e[0], e[2], e[3]));
+					indexedLengths.set(file, length);
+
+					newFiles.clear();
+					newTypes.clear();
+					newEntries.clear();
+					committed = counter.getCount();
+					break;
+				default:
+					throw new IOException("Unknown record type " + kind);
+				}
+			}
+		} catch (EOFException e) {
+			// an update was interrupted part way through writing a record
+			supported = committed > 0;
+		} catch (IOException e) {
+			log.warn("Journal index {} is corrupt after byte {}", indexFile, committed, e);
+			supported = committed > 0;
+		}
+
+		if (!supported) {
+			log.warn("Journal index {} is not in a supported format, rebuilding it", indexFile);
+			Files.delete(indexFile);
+			return;
+		}
+
+		try (FileChannel ch = FileChannel.open(indexFile, StandardOpenOption.WRITE)) {
+			if (ch.size() > committed) {
+				log.info("Discarding {} uncommitted bytes from journal index", ch.size() - committed);
+				ch.truncate(committed);
+			}
+		}
+
+		log.info("Loaded journal index with {} files and {} event types", files.size(), types.size());
+	}
+
+	private int addFile(String name) {
+		fileIds.put(name, files.size());
+		files.add(name);
+		indexedLengths.add(0L);
+		return files.size() - 1;
+	}
+
+	private int addType(String name) {
+		typeIds.put(name, types.size());
+		types.add(name);
+		entries.put(name, new Entries());
+		return types.size() - 1;
+	}
+
+	/**
+	 * Indexes any journal lines written since the last update. Only the newest
+	 * previously indexed file and any new files are read, and only from where the
+	 * last update stopped.
+	 */
+	public synchronized void update() throws IOException {
+		int lastKnown = files.size() - 1;
+
+		for (Path journalFile : JournalFiles.list(journalDirectory)) {
+			String name = journalFile.getFileName().toString();
+			Integer id = fileIds.get(name);
+
+			if (id != null && id < lastKnown) continue;
+
+			update(journalFile, id);
+		}
+	}
+
+	private void update(Path journalFile, Integer id) throws IOException {
+		long from = id == null ? 0 : indexedLengths.get(id);
+
+		ByteArrayOutputStream records = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(records);
+
+		List<String> newTypes = new ArrayList<>();
+		List<long[]> newEntries = new ArrayList<>();
+		long indexed;
+
+		try (FileChannel ch = FileChannel.open(journalFile, StandardOpenOption.READ)) {
+			if (ch.size() <= from) return;
+
+			int file = id == null ? files.size() : id;
+
+			indexed = JournalFiles.readLines(ch, from, (bytes, offset, length, start, end) -> {
+				String[] header = readHeader(bytes, offset, length);
+				if (header == null) return;
+
+				String type = header[1];
+				Integer typeId = typeIds.get(type);
+
+				if (typeId == null) {
+					int pending = newTypes.indexOf(type);
+
+					if (pending < 0) {
+						pending = newTypes.size();
+						newTypes.add(type);
+
+						out.writeByte(typeRecord);
+						out.writeUTF(type);
+					}
+
+					typeId = types.size() + pending;
+				}
+
+				long timestamp = Instant.parse(header[0]).toEpochMilli();
+				newEntries.add(new long[] { file, typeId, start, timestamp });
+
+				out.writeByte(entryRecord);
+				out.writeInt(file);
+				out.writeInt(typeId);
+				out.writeLong(start);
+				out.writeLong(timestamp);
+			});
+		}
+
+		if (indexed == from) return;
+
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		DataOutputStream headerOut = new DataOutputStream(header);
+
+		if (!Files.exists(indexFile)) {
+			headerOut.writeInt(magic);
+			headerOut.writeInt(version);
+		}
+
+		if (id == null) {
+			headerOut.writeByte(fileRecord);
+			headerOut.writeUTF(journalFile.getFileName().toString());
+		}
+
+		out.writeByte(progressRecord);
+		out.writeInt(id == null ? files.size() : id);
+		out.writeLong(indexed);
+
+		try (FileChannel ch = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND)) {
+			ch.write(new ByteBuffer[] { ByteBuffer.wrap(header.toByteArray()), ByteBuffer.wrap(records.toByteArray()) });
+		}
+
+		int file = id == null ? addFile(journalFile.getFileName().toString()) : id;
+		newTypes.forEach(this::addType);
+		newEntries.forEach(e -> entries.get(types.get((int) e[1])).add((int) e[0], e[2], e[3]));
+		indexedLengths.set(file, indexed);
+
+		log.debug("Indexed {} events from {}", newEntries.size(), journalFile.getFileName());
+	}
+
+	/**
+	 * Reads the timestamp and event name from the start of a journal line without
+	 * parsing the whole line.
+	 *
+	 * @return The timestamp and event name, or null if the line isn't an event
+	 */
+	private static String[] readHeader(byte[] bytes, int offset, int length) {
+		// both fields are always near the start of the line, and are plain ASCII
+		String start = new String(bytes, offset, Math.min(length, 256), StandardCharsets.ISO_8859_1);
+		String timestamp = readField(start, "\"timestamp\":\"");
+		String event = readField(start, "\"event\":\"");
+
+		try {
+			if (timestamp == null || event == null) {
+				String line = new String(bytes, offset, length, StandardCharsets.UTF_8).trim();
+				if (line.isEmpty()) return null;
+
+				JsonObject o = new JsonParser().parse(line).getAsJsonObject();
+				if (!o.has("timestamp") || !o.has("event")) return null;
+
+				timestamp = o.get("timestamp").getAsString();
+				event = o.get("event").getAsString();
+			}
+
+			Instant.parse(timestamp);
+			return new String[] { timestamp, event };
+		} catch (JsonParseException | IllegalStateException | DateTimeParseException e) {
+			log.warn("Skipping unreadable journal line", e);
+			return null;
+		}
+	}
+
+	private static String readField(String s, String prefix) {
+		int start = s.indexOf(prefix);
+		if (start < 0) return null;
+
+		start += prefix.length();
+		int end = s.indexOf('"', start);
+		return end < 0 ? null : s.substring(start, end);
+	}
+
+	/**
+	 * Reads a single line from a journal file, starting at the given offset
+	 */
+	private String readLine(int file, long offset) throws IOException {
+		String name;
+		synchronized (this) {
+			name = files.get(file);
+		}
+
+		try (FileChannel ch = FileChannel.open(journalDirectory.resolve(name), StandardOpenOption.READ)) {
+			ByteBuffer buf = ByteBuffer.allocate(4096);
+			int scanned = 0;
+
+			while (true) {
+				int read = ch.read(buf, offset + buf.position());
+				byte[] bytes = buf.array();
+
+				for (int i = scanned; i < buf.position(); i++) {
+					if (bytes[i] == '\n') return new String(bytes, 0, i, StandardCharsets.UTF_8);
+				}
+
+				scanned = buf.position();
+
+				if (read < 0) return new String(bytes, 0, scanned, StandardCharsets.UTF_8);
+
+				if (!buf.hasRemaining()) {
+					buf = ByteBuffer.wrap(Arrays.copyOf(bytes, bytes.length * 2));
+					buf.position(scanned);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The event at the given place, or null if it can't be read or is a
+	 *         different kind of event from the one asked for
+	 */
+	private <T extends JournalEvent> T readEvent(int file, long offset, Class<T> cls) {
+		try {
+			return EventDecoder.decode(readLine(file, offset)).filter(cls::isInstance).map(cls::cast).orElse(null);
+		} catch (IOException | JsonParseException | IllegalStateException e) {
+			log.warn("Could not read indexed {} at offset {}", cls.getSimpleName(), offset, e);
+			return null;
+		}
+	}
+
+	private synchronized JournalPosition position(int file, long offset) {
+		return new JournalPosition(files.get(file), offset);
+	}
+
+	/**
+	 * Brings the index up to date as far as possible and gets the entries for the
+	 * given event class
+	 */
+	private Entries lookup(Class<? extends JournalEvent> cls) {
+		String name = EventDecoder.eventName(cls);
+
+		try {
+			update();
+		} catch (IOException e) {
+			log.warn("Error updating journal index, results may be out of date", e);
+		}
+
+		synchronized (this) {
+			Entries e = entries.get(name);
+			Entries copy = new Entries();
+
+			if (e != null) {
+				copy.size = e.size;
+				copy.files = e.files;
+				copy.offsets = e.offsets;
+				copy.timestamps = e.timestamps;
+			}
+
+			return copy;
+		}
+	}
+
+	/**
+	 * Gets the most recent event of the given type
+	 */
+	public <T extends JournalEvent> Optional<T> lastEventOfType(Class<T> cls) {
+		return lastEventBefore(cls, null);
+	}
+
+	/**
+	 * Gets the most recent event of the given type which starts before the given
+	 * position, such as a checkpoint
+	 *
+	 * @param before The position to search back from, or null for the end of the
+	 *               journal
+	 */
+	public <T extends JournalEvent> Optional<T> lastEventBefore(Class<T> cls, JournalPosition before) {
+		Entries e = lookup(cls);
+
+		for (int i = e.size - 1; i >= 0; i--) {
+			if (before != null && position(e.files[i], e.offsets[i]).compareTo(before) >= 0) continue;
+
+			T event = readEvent(e.files[i], e.offsets[i], cls);
+			if (event != null) return Optional.of(event);
+		}
+
+		return Optional.empty();
+	}
+
+	/**
+	 * Gets all events of the given type with timestamps in the given range, in
+	 * journal order. Events are read from disk lazily as the stream is consumed.
+	 *
+	 * @param from The earliest timestamp to include, or null for no lower bound
+	 * @param to   The timestamp to stop at (exclusive), or null for no upper bound
+	 */
+	public <T extends JournalEvent> Stream<T> eventsBetween(Class<T> cls, Instant from, Instant to) {
+		Entries e = lookup(cls);
+		int start = from == null ? 0 : e.firstAtOrAfter(from.toEpochMilli());
+		int end = to == null ? e.size : e.firstAtOrAfter(to.toEpochMilli());
+
+		return IntStream.range(start, Math.max(start, end)).mapToObj(i -> readEvent(e.files[i], e.offsets[i], cls))
+				.filter(Objects::nonNull);
+	}
+
+	/**
+	 * Gets all events of the given type with timestamps after the given time
+	 *
+	 * @see #eventsBetween(Class, Instant, Instant)
+	 */
+	public <T extends JournalEvent> Stream<T> eventsAfter(Class<T> cls, Instant after) {
+		return eventsBetween(cls, Instant.ofEpochMilli(after.toEpochMilli() + 1), null);
+	}
+}
@@ -0,0 +1,20 @@
+package me.apemanzilla.edscan.journal;
+
+import lombok.Value;
+
+/**
+ * A position in the journal, as a journal file name and a byte offset into it.
+ * Positions are ordered by file name and then offset, which matches the order
+ * the game writes them in.
+ */
+@Value
+public class JournalPosition implements Comparable<JournalPosition> {
+	String file;
+	long offset;
+
+	@Override
+	public int compareTo(JournalPosition o) {
+		int c = file.compareTo(o.file);
+		return c != 0 ? c : Long.compare(offset, o.offset);
+	}
+}
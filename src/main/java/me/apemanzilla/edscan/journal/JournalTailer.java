@@ -0,0 +1,112 @@
+package me.apemanzilla.edscan.journal;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+
+import com.google.gson.JsonParseException;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import me.apemanzilla.edjournal.events.JournalEvent;
+
+/**
+ * Follows the journal files as the game writes them, starting from any
+ * {@link JournalPosition}. Only the bytes after that position are read, using
+ * positional reads on the journal file.
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class JournalTailer {
+	private static final long pollInterval = 250;
+
+	@Getter
+	private final Path directory;
+
+	/**
+	 * Invoked after new lines have been read, before waiting for more
+	 */
+	@Setter
+	private Runnable onLinesRead = () -> {};
+
+	/**
+	 * @return The position at the current end of the newest journal file
+	 */
+	public JournalPosition endPosition() throws IOException {
+		List<Path> files = JournalFiles.list(directory);
+		if (files.isEmpty()) return new JournalPosition("", 0);
+
+		Path last = files.get(files.size() - 1);
+		return new JournalPosition(last.getFileName().toString(), Files.size(last));
+	}
+
+	private Optional<String> nextFile(String after) throws IOException {
+		return JournalFiles.list(directory).stream().map(p -> p.getFileName().toString())
+				.filter(n -> n.compareTo(after) > 0).findFirst();
+	}
+
+	/**
+	 * Reads the journal from the given position until interrupted, passing each
+	 * event to the sink along with the position just after it. When the current
+	 * file has been read completely and a newer one exists, reading moves on to
+	 * the newer file.
+	 */
+	public void tail(JournalPosition from, BiConsumer<JournalPosition, JournalEvent> sink)
+			throws IOException, InterruptedException {
+		String file = from.getFile();
+		long offset = from.getOffset();
+
+		while (!Thread.currentThread().isInterrupted()) {
+			Path current = directory.resolve(file);
+			long read = offset;
+
+			if (!file.isEmpty() && Files.exists(current)) {
+				final String name = file;
+
+				try (FileChannel ch = FileChannel.open(current, StandardOpenOption.READ)) {
+					read = JournalFiles.readLines(ch, offset, (bytes, off, length, start, end) -> {
+						String line = new String(bytes, off, length, StandardCharsets.UTF_8);
+						Optional<JournalEvent> event;
+
+						// only decoding errors are caught, so failures in the sink aren't
+						// mistaken for unreadable lines and skipped
+						try {
+							event = EventDecoder.decode(line);
+						} catch (JsonParseException | IllegalStateException e) {
+							log.warn("Skipping unreadable journal line at {}:{}", name, start, e);
+							return;
+						}
+
+						event.ifPresent(e -> sink.accept(new JournalPosition(name, end), e));
+					});
+				}
+			}
+
+			if (read > offset) {
+				offset = read;
+				onLinesRead.run();
+				continue;
+			}
+
+			Optional<String> next = nextFile(file);
+
+			if (next.isPresent()) {
+				log.info("Switching to journal file {}", next.get());
+				file = next.get();
+				offset = 0;
+			} else {
+				Thread.sleep(pollInterval);
+			}
+		}
+
+		throw new InterruptedException();
+	}
+}
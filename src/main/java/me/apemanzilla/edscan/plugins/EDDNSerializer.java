@@ -0,0 +1,181 @@
+package me.apemanzilla.edscan.plugins;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.SerializedName;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonWriter;
+
+import lombok.Value;
+import me.apemanzilla.edjournal.events.JournalEvent;
+
+/**
+ * Writes journal events as complete EDDN messages, envelope included, straight
+ * into a reusable buffer.<br>
+ * <br>
+ * The fields to write for each event class are worked out once, the first time
+ * an event of that class is seen, with excluded properties already removed.
+ * Field values are written with the adapters from the given {@link Gson}, so
+ * nested objects follow its rules as before.<br>
+ * <br>
+ * Instances reuse a single buffer and must only be used from one thread at a
+ * time.
+ */
+class EDDNSerializer {
+	/**
+	 * A byte buffer whose contents can be used without copying
+	 */
+	static class Buffer extends ByteArrayOutputStream {
+		byte[] array() {
+			return buf;
+		}
+
+		int length() {
+			return count;
+		}
+	}
+
+	@Value
+	private static class Property {
+		Field field;
+		String name;
+
+		/**
+		 * The adapter for the field's declared type, or <code>null</code> if the
+		 * adapter must be chosen from each value's runtime type
+		 */
+		TypeAdapter<Object> adapter;
+	}
+
+	private final Gson gson;
+
+	private final String schema;
+
+	private final Collection<String> excluded;
+
+	private final Map<Class<?>, Property[]> plans = new ConcurrentHashMap<>();
+
+	private final TypeAdapter<double[]> positionAdapter;
+
+	private final Buffer buffer = new Buffer();
+
+	private final Writer writer = new OutputStreamWriter(buffer, StandardCharsets.UTF_8);
+
+	/**
+	 * @param excluded Names of event properties which must not be sent, compared
+	 *                 case-insensitively
+	 */
+	EDDNSerializer(Gson gson, String schema, Collection<String> excluded) {
+		this.gson = gson;
+		this.schema = schema;
+		this.excluded = excluded;
+
+		positionAdapter = gson.getAdapter(double[].class);
+	}
+
+	private Property[] plan(Class<?> cls) {
+		List<Property> properties = new ArrayList<>();
+
+		for (Class<?> c = cls; c != null && c != Object.class; c = c.getSuperclass()) {
+			for (Field f : c.getDeclaredFields()) {
+				if (Modifier.isStatic(f.getModifiers()) || Modifier.isTransient(f.getModifiers())) continue;
+				if (excluded.stream().anyMatch(f.getName()::equalsIgnoreCase)) continue;
+
+				SerializedName serializedName = f.getAnnotation(SerializedName.class);
+				String name = serializedName != null ? serializedName.value()
+						: FieldNamingPolicy.UPPER_CAMEL_CASE.translateName(f);
+
+				f.setAccessible(true);
+				properties.add(new Property(f, name, adapterFor(f)));
+			}
+		}
+
+		return properties.toArray(new Property[0]);
+	}
+
+	@SuppressWarnings("unchecked")
+	private TypeAdapter<Object> adapterFor(Field f) {
+		Class<?> type = f.getType();
+		if (type == Object.class || type.isInterface() || Modifier.isAbstract(type.getModifiers())) return null;
+
+		Type generic = f.getGenericType();
+		return (TypeAdapter<Object>) gson.getAdapter(TypeToken.get(generic));
+	}
+
+	/**
+	 * Writes an event as an EDDN message. If the event doesn't include its
+	 * system name or position, the given ones are added.
+	 *
+	 * @return The buffer holding the message, which is only valid until the next
+	 *         call
+	 */
+	@SuppressWarnings("unchecked")
+	Buffer serialize(JournalEvent event, String uploaderID, String softwareVersion, String starSystem,
+			double[] starPos) throws IOException {
+		Property[] properties = plans.computeIfAbsent(event.getClass(), this::plan);
+
+		buffer.reset();
+		JsonWriter w = new JsonWriter(writer);
+
+		w.beginObject();
+		w.name("$schemaRef").value(schema);
+
+		w.name("header").beginObject();
+		w.name("uploaderID").value(uploaderID);
+		w.name("softwareName").value("EDScan");
+		w.name("softwareVersion").value(softwareVersion);
+		w.endObject();
+
+		w.name("message").beginObject();
+
+		boolean hasSystem = false, hasPosition = false;
+
+		for (Property p : properties) {
+			Object value;
+			try {
+				value = p.getField().get(event);
+			} catch (IllegalAccessException e) {
+				throw new IllegalStateException(e);
+			}
+
+			if (value == null) continue;
+
+			w.name(p.getName());
+
+			TypeAdapter<Object> adapter = p.getAdapter();
+			if (adapter == null) adapter = (TypeAdapter<Object>) gson.getAdapter(value.getClass());
+			adapter.write(w, value);
+
+			if (p.getName().equals("StarSystem")) hasSystem = true;
+			else if (p.getName().equals("StarPos")) hasPosition = true;
+		}
+
+		if (!hasSystem) w.name("StarSystem").value(starSystem);
+
+		if (!hasPosition) {
+			w.name("StarPos");
+			positionAdapter.write(w, starPos);
+		}
+
+		w.endObject();
+		w.endObject();
+		w.flush();
+
+		return buffer;
+	}
+}
@@ -3,34 +3,40 @@ package me.apemanzilla.edscan.plugins;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.time.Instant;
 import java.util.*;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
-import java.util.concurrent.LinkedBlockingQueue;
 
 import org.controlsfx.control.ToggleSwitch;
 
 import com.google.auto.service.AutoService;
 import com.google.common.collect.ImmutableList;
 import com.google.gson.*;
-import com.mashape.unirest.http.HttpResponse;
-import com.mashape.unirest.http.Unirest;
-import com.mashape.unirest.http.exceptions.UnirestException;
 
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.fxml.Initializable;
 import javafx.scene.Node;
 import javafx.scene.control.CheckBox;
+import javafx.scene.control.Label;
 import javafx.scene.control.TextField;
 import javafx.scene.layout.GridPane;
+import javafx.util.Duration;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import me.apemanzilla.edjournal.JournalUtils;
 import me.apemanzilla.edjournal.events.*;
+import me.apemanzilla.edscan.Config;
 import me.apemanzilla.edscan.EDScan;
+import me.apemanzilla.edscan.Mailbox.OverflowPolicy;
+import me.apemanzilla.edscan.Outbox;
 import me.apemanzilla.edscan.Plugin;
+import me.apemanzilla.edscan.journal.JournalPosition;
 
 @Slf4j
 @AutoService(Plugin.class)
@@ -60,24 +66,38 @@ public class EDDNSync extends Plugin {
 	private static final Gson gson = new GsonBuilder().setFieldNamingPolicy(FieldNamingPolicy.UPPER_CAMEL_CASE)
 			.registerTypeAdapter(Instant.class, instantAdapter).addSerializationExclusionStrategy(excluder).create();
 
+	private static final Config.Key<Boolean> submitKey = Config.key("eddn.submit", Boolean.class, false);
+	private static final Config.Key<Boolean> anonymizeKey = Config.key("eddn.anonymize", Boolean.class, true);
+	private static final Config.Key<String> uuidKey = Config.key("eddn.anonymousUUID", String.class, null);
+	private static final Config.Key<String> uploadUriKey = Config.key("eddn.uploadUri", String.class,
+			apiUri.toString());
+	private static final Config.Key<Integer> concurrencyKey = Config.key("eddn.concurrency", Integer.class, 4);
+	private static final Config.Key<Integer> maxInFlightKey = Config.key("eddn.maxInFlight", Integer.class, 200);
+	private static final Config.Key<Integer> maxInFlightBytesKey = Config.key("eddn.maxInFlightBytes", Integer.class,
+			1024 * 1024);
+
+	private final EDDNSerializer serializer = new EDDNSerializer(gson, schema, blacklistedProperties);
+
 	private String lastSystem;
 	private double[] lastSystemPos;
 
-	private BlockingQueue<JsonObject> journalMessageQueue = new LinkedBlockingQueue<>();
+	private String commanderName;
+
+	private Outbox outbox;
+
+	private EDDNUploader uploader;
+
+	private Thread submitter;
 
 	private String getAnonymousUUID() {
-		if (!edscan.getConfig().hasKey("eddn.anonymousUUID")) {
-			edscan.getConfig().put("eddn.anonymousUUID", UUID.randomUUID().toString());
-			try {
-				edscan.saveConfig();
-			} catch (IOException e) {
-				log.error("Exception saving config", e);
-
-				edscan.showErrorMessage("Config saving error", "There was an error saving the config.", e);
-			}
+		String uuid = edscan.getConfig().get(uuidKey);
+
+		if (uuid == null) {
+			uuid = UUID.randomUUID().toString();
+			edscan.getConfig().put(uuidKey, uuid);
 		}
 
-		return edscan.getConfig().getAs(String.class, "eddn.anonymousUUID").get();
+		return uuid;
 	}
 
 	@Override
@@ -90,6 +110,13 @@ public class EDDNSync extends Plugin {
 		return "Submits limited journal data to EDDN";
 	}
 
+	@Override
+	public OverflowPolicy getOverflowPolicy() {
+		// every event must be uploaded, even if it means holding up the journal reader
+		return OverflowPolicy.BLOCK;
+	}
+
+	@SneakyThrows(IOException.class)
 	private void handle(JournalEvent event) {
 		if (event instanceof FSDJump) {
 			lastSystem = ((FSDJump) event).getStarSystem();
@@ -99,70 +126,54 @@ public class EDDNSync extends Plugin {
 			lastSystemPos = ((Location) event).getStarPos();
 		}
 
-		JsonObject json = gson.toJsonTree(event).getAsJsonObject();
+		if (!edscan.getConfig().get(submitKey)) return;
 
-		if (!json.has("StarSystem")) json.addProperty("StarSystem", lastSystem);
-		if (!json.has("StarPos")) json.add("StarPos", gson.toJsonTree(lastSystemPos, double[].class));
+		// the envelope is written when the message is queued, so the uploader ID
+		// reflects the settings at the time
+		String uploaderID = edscan.getConfig().get(anonymizeKey) ? getAnonymousUUID() : commanderName;
 
-		if (edscan.getConfig().getAsOr(Boolean.class, "eddn.submit", false)) journalMessageQueue.offer(json);
+		EDDNSerializer.Buffer message = serializer.serialize(event, uploaderID, EDScan.getVersion().orElse("unknown"),
+				lastSystem, lastSystemPos);
+		outbox.append(message.array(), 0, message.length());
 	}
 
 	@Override
 	public void init() throws Exception {
-		String commanderName = edscan.getJournal().lastEventOfType(LoadGame.class).map(LoadGame::getCommander)
+		commanderName = edscan.getJournalIndex().lastEventOfType(LoadGame.class).map(LoadGame::getCommander)
 				.orElse("Unknown");
 
-		Optional<FSDJump> lastJump = edscan.getJournal().lastEventOfType(FSDJump.class);
-		if (lastJump.isPresent()) {
+		// events written since the last run are replayed first, so start from
+		// wherever the commander was when they were written
+		JournalPosition resume = edscan.getResumePosition(this).orElse(null);
+
+		Optional<FSDJump> lastJump = edscan.getJournalIndex().lastEventBefore(FSDJump.class, resume);
+		Optional<Location> lastLocation = edscan.getJournalIndex().lastEventBefore(Location.class, resume);
+
+		if (lastLocation.isPresent() && (!lastJump.isPresent()
+				|| lastLocation.get().getTimestamp().isAfter(lastJump.get().getTimestamp()))) {
+			lastSystem = lastLocation.get().getStarSystem();
+			lastSystemPos = lastLocation.get().getStarPos();
+		} else if (lastJump.isPresent()) {
 			lastSystem = lastJump.get().getStarSystem();
 			lastSystemPos = lastJump.get().getStarPos();
-		} else {
-			Location location = edscan.getJournal().lastEventOfType(Location.class).get();
-			lastSystem = location.getStarSystem();
-			lastSystemPos = location.getStarPos();
 		}
 
-		edscan.addEventListener(FSDJump.class, this::handle);
-		edscan.addEventListener(Scan.class, this::handle);
-		edscan.addEventListener(Docked.class, this::handle);
-		edscan.addEventListener(Location.class, this::handle);
-
-		Thread submitter = new Thread(() -> {
-			while (true) {
-				try {
-					JsonObject packet = new JsonObject();
-					packet.add("message", journalMessageQueue.take());
-
-					JsonObject header = new JsonObject();
+		Files.createDirectories(edscan.getDataDirectory());
+		outbox = new Outbox(edscan.getDataDirectory().resolve("eddn-outbox.jsonl"));
 
-					if (edscan.getConfig().getAsOr(Boolean.class, "eddn.anonymize", true)) {
-						header.addProperty("uploaderID", getAnonymousUUID().toString());
-					} else {
-						header.addProperty("uploaderID", commanderName);
-					}
+		edscan.addEventListener(this, FSDJump.class, this::handle);
+		edscan.addEventListener(this, Scan.class, this::handle);
+		edscan.addEventListener(this, Docked.class, this::handle);
+		edscan.addEventListener(this, Location.class, this::handle);
 
-					header.addProperty("softwareName", "EDScan");
-					header.addProperty("softwareVersion", EDScan.getVersion().orElse("unknown"));
-					packet.add("header", header);
+		uploader = new EDDNUploader(outbox, () -> URI.create(edscan.getConfig().get(uploadUriKey)),
+				() -> edscan.getConfig().get(submitKey),
+				(message, reason) -> edscan.getDeadLetterLog().writeRejected(toString(),
+						new String(message, StandardCharsets.UTF_8), reason),
+				edscan.getConfig().get(concurrencyKey), edscan.getConfig().get(maxInFlightKey),
+				edscan.getConfig().get(maxInFlightBytesKey));
 
-					packet.addProperty("$schemaRef", schema);
-
-					log.debug("Submitting packet to EDDN: {}", packet);
-
-					HttpResponse<String> response = Unirest.post(apiUri.toString())
-							.header("Content-Type", "application/json").body(packet.toString()).asString();
-
-					if (response.getStatus() != 200) throw new IllegalStateException(
-							"Got HTTP code " + response.getStatus() + ": " + response.getBody());
-				} catch (InterruptedException e) {
-					return;
-				} catch (UnirestException e) {
-					log.error("Unexpected exception submitting data to EDDN", e);
-					edscan.showErrorMessage("EDDN Submission Error",
-							"There was an unexpected error submitting data to EDDN.", e);
-				}
-			}
-		});
+		submitter = new Thread(uploader);
 
 		submitter.setDaemon(true);
 		submitter.setPriority(Thread.MIN_PRIORITY);
@@ -171,6 +182,16 @@ public class EDDNSync extends Plugin {
 		submitter.start();
 	}
 
+	@Override
+	public void cleanup() throws Exception {
+		if (submitter != null) {
+			submitter.interrupt();
+			submitter.join(1000);
+		}
+
+		if (outbox != null) outbox.close();
+	}
+
 	@Override
 	public Optional<Callable<Node>> getViewBuilder() {
 		return Optional.of(EDDNSyncController::new);
@@ -186,6 +207,18 @@ public class EDDNSync extends Plugin {
 		@FXML
 		private TextField uuidField;
 
+		@FXML
+		private Label queuedLabel;
+
+		@FXML
+		private Label inFlightLabel;
+
+		@FXML
+		private Label sentLabel;
+
+		@FXML
+		private Label latencyLabel;
+
 		@SneakyThrows(IOException.class)
 		public EDDNSyncController() {
 			FXMLLoader loader = new FXMLLoader(EDDNSync.class.getResource("EDDNSync.fxml"));
@@ -198,10 +231,27 @@ public class EDDNSync extends Plugin {
 
 		@Override
 		public void initialize(URL location, ResourceBundle resources) {
-			edscan.getConfig().bindAndSet("eddn.anonymize", anonymousCheckbox.selectedProperty(), true);
-			edscan.getConfig().bindAndSet("eddn.submit", submitSwitch.selectedProperty(), false);
+			edscan.getConfig().bindAndSet(anonymizeKey.getName(), anonymousCheckbox.selectedProperty(), true);
+			edscan.getConfig().bindAndSet(submitKey.getName(), submitSwitch.selectedProperty(), false);
 
 			uuidField.setText(getAnonymousUUID().toString());
+
+			Timeline stats = new Timeline(new KeyFrame(Duration.seconds(1), e -> updateStats()));
+			stats.setCycleCount(Animation.INDEFINITE);
+			stats.play();
+			updateStats();
+		}
+
+		private void updateStats() {
+			if (uploader == null) return;
+
+			queuedLabel.setText(String.format("%.1f KiB", uploader.getQueuedBytes() / 1024.0));
+			inFlightLabel.setText(Integer.toString(uploader.getInFlight()));
+			sentLabel.setText(uploader.getSent() + (uploader.getRejected() > 0 ? " (" + uploader.getRejected()
+					+ " rejected)" : ""));
+
+			double latency = uploader.getAverageLatency();
+			latencyLabel.setText(Double.isNaN(latency) ? "-" : String.format("%.0f ms", latency));
 		}
 	}
 }
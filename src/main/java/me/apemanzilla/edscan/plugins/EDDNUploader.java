@@ -0,0 +1,373 @@
+package me.apemanzilla.edscan.plugins;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.mashape.unirest.http.HttpResponse;
+import com.mashape.unirest.http.Unirest;
+import com.mashape.unirest.http.exceptions.UnirestException;
+
+import lombok.extern.slf4j.Slf4j;
+import me.apemanzilla.edscan.Outbox;
+
+/**
+ * Sends the messages in an {@link Outbox} to an EDDN upload endpoint.<br>
+ * <br>
+ * Messages are taken from the outbox in batches and spread over a number of
+ * lanes, each of which sends one request at a time over Unirest's pooled
+ * keep-alive connections. Messages about the same star system always use the
+ * same lane, so they arrive in the order they happened. The number of messages
+ * and bytes taken but not yet sent is limited, so a slow gateway holds messages
+ * back in the outbox rather than in memory. Messages are acknowledged in
+ * outbox order once everything before them has been sent.<br>
+ * <br>
+ * Each message is sent gzip-compressed (EDDN only accepts a single message per
+ * request). When the endpoint can't be reached or reports a server error, the
+ * same message is retried with exponential backoff and jitter, so nothing is
+ * dropped during an outage. Messages which EDDN rejects with any other client
+ * error are dropped and passed to a rejection handler, since sending them
+ * again would never succeed and would hold up acknowledgement of everything
+ * behind them.
+ */
+@Slf4j
+class EDDNUploader implements Runnable {
+	private static final int batchMessages = 50;
+	private static final int batchBytes = 256 * 1024;
+
+	private static final long minBackoff = TimeUnit.SECONDS.toMillis(1);
+	private static final long maxBackoff = TimeUnit.MINUTES.toMillis(5);
+
+	/**
+	 * A message which has been taken from the outbox but not yet acknowledged
+	 */
+	private static class InFlight {
+		final long end;
+
+		/**
+		 * Whether this is the last message of a batch, and so should be
+		 * acknowledged on disk rather than just in memory
+		 */
+		final boolean last;
+
+		boolean done;
+
+		InFlight(long end, boolean last) {
+			this.end = end;
+			this.last = last;
+		}
+	}
+
+	private final Outbox outbox;
+
+	/**
+	 * The endpoint to upload to, checked before each request so that it can be
+	 * changed without restarting
+	 */
+	private final Supplier<URI> uploadUri;
+
+	/**
+	 * Whether uploading is enabled. Messages are kept in the outbox while it
+	 * isn't.
+	 */
+	private final BooleanSupplier enabled;
+
+	/**
+	 * Called with each message which EDDN rejected, and the reason
+	 */
+	private final BiConsumer<byte[], String> onRejected;
+
+	private final ExecutorService[] lanes;
+
+	private final Semaphore messagePermits;
+
+	private final Semaphore bytePermits;
+
+	private final int maxBytes;
+
+	/**
+	 * Messages which have been taken from the outbox and not acknowledged, in
+	 * outbox order
+	 */
+	private final ArrayDeque<InFlight> inFlight = new ArrayDeque<>();
+
+	private final AtomicLong sent = new AtomicLong();
+
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * Exponentially weighted moving average of request latency, in milliseconds
+	 */
+	private volatile double latency = Double.NaN;
+
+	/**
+	 * @param concurrency The number of requests which may be sent at once
+	 * @param maxMessages The number of messages which may be taken from the
+	 *                    outbox before they're sent
+	 * @param maxBytes    The total size of messages which may be taken from the
+	 *                    outbox before they're sent
+	 */
+	EDDNUploader(Outbox outbox, Supplier<URI> uploadUri, BooleanSupplier enabled,
+			BiConsumer<byte[], String> onRejected, int concurrency, int maxMessages, int maxBytes) {
+		this.outbox = outbox;
+		this.uploadUri = uploadUri;
+		this.enabled = enabled;
+		this.onRejected = onRejected;
+		this.maxBytes = maxBytes;
+
+		messagePermits = new Semaphore(maxMessages);
+		bytePermits = new Semaphore(maxBytes);
+
+		lanes = new ExecutorService[Math.max(concurrency, 1)];
+		for (int i = 0; i < lanes.length; i++) {
+			String name = "EDDN Submitter " + (i + 1);
+
+			lanes[i] = Executors.newSingleThreadExecutor(r -> {
+				Thread t = new Thread(r);
+				t.setDaemon(true);
+				t.setPriority(Thread.MIN_PRIORITY);
+				t.setName(name);
+				return t;
+			});
+		}
+	}
+
+	/**
+	 * @return The size of the messages in the outbox which haven't been
+	 *         acknowledged, in bytes
+	 */
+	long getQueuedBytes() {
+		return outbox.getPendingBytes();
+	}
+
+	/**
+	 * @return The number of messages taken from the outbox which haven't been
+	 *         acknowledged
+	 */
+	int getInFlight() {
+		synchronized (inFlight) {
+			return inFlight.size();
+		}
+	}
+
+	long getSent() {
+		return sent.get();
+	}
+
+	long getRejected() {
+		return rejected.get();
+	}
+
+	/**
+	 * @return The average time taken by recent requests, in milliseconds, or NaN
+	 *         if nothing has been sent yet
+	 */
+	double getAverageLatency() {
+		return latency;
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				while (!enabled.getAsBoolean()) {
+					Thread.sleep(1000);
+				}
+
+				List<Outbox.Message> batch = outbox.take(batchMessages, batchBytes);
+
+				for (int i = 0; i < batch.size(); i++) {
+					dispatch(batch.get(i), i == batch.size() - 1);
+				}
+			}
+		} catch (InterruptedException e) {
+			// stopping
+		} catch (IOException e) {
+			log.error("Error reading EDDN outbox {}", outbox.getFile(), e);
+		} finally {
+			for (ExecutorService lane : lanes) {
+				lane.shutdownNow();
+			}
+		}
+	}
+
+	private void dispatch(Outbox.Message message, boolean last) throws InterruptedException {
+		int size = Math.min(message.getData().length, maxBytes);
+
+		messagePermits.acquire();
+		bytePermits.acquire(size);
+
+		InFlight f = new InFlight(message.getEnd(), last);
+		synchronized (inFlight) {
+			inFlight.add(f);
+		}
+
+		String system = starSystem(message.getData());
+		ExecutorService lane = lanes[system == null ? 0 : (system.hashCode() & Integer.MAX_VALUE) % lanes.length];
+
+		lane.execute(() -> {
+			try {
+				if (deliver(message.getData())) complete(f);
+			} finally {
+				bytePermits.release(size);
+				messagePermits.release();
+			}
+		});
+	}
+
+	/**
+	 * Sends a message, retrying until it succeeds
+	 *
+	 * @return Whether the message was sent or rejected, rather than the lane
+	 *         being stopped
+	 */
+	private boolean deliver(byte[] message) {
+		int failures = 0;
+
+		while (true) {
+			try {
+				send(message);
+				return true;
+			} catch (IOException | UnirestException e) {
+				failures++;
+				log.warn("Error submitting data to EDDN ({} consecutive failures)", failures, e);
+			}
+
+			try {
+				Thread.sleep(backoff(failures));
+			} catch (InterruptedException e) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Marks a message as sent, and acknowledges every message up to the first one
+	 * which is still being sent
+	 */
+	private void complete(InFlight f) {
+		synchronized (inFlight) {
+			f.done = true;
+
+			InFlight acked = null;
+			boolean batchDone = false;
+
+			while (!inFlight.isEmpty() && inFlight.peek().done) {
+				acked = inFlight.poll();
+				batchDone |= acked.last;
+			}
+
+			if (acked == null || !(batchDone || inFlight.isEmpty())) return;
+
+			try {
+				outbox.ack(acked.end);
+			} catch (IOException e) {
+				log.error("Error acknowledging EDDN messages in {}", outbox.getFile(), e);
+			}
+		}
+	}
+
+	/**
+	 * @return A delay which doubles with each consecutive failure up to a limit,
+	 *         randomized so that many clients recovering from the same outage
+	 *         don't retry in lockstep
+	 */
+	private static long backoff(int failures) {
+		long delay = Math.min(maxBackoff, minBackoff << Math.min(failures - 1, 20));
+		return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+	}
+
+	/**
+	 * Sends a single message
+	 *
+	 * @throws IOException If the message should be retried later
+	 */
+	private void send(byte[] message) throws IOException, UnirestException {
+		long start = System.nanoTime();
+
+		HttpResponse<String> response = Unirest.post(uploadUri.get().toString())
+				.header("Content-Type", "application/json").header("Content-Encoding", "gzip").body(gzip(message))
+				.asString();
+
+		double elapsed = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start) / 1000.0;
+		double previous = latency;
+		latency = Double.isNaN(previous) ? elapsed : previous * 0.9 + elapsed * 0.1;
+
+		int status = response.getStatus();
+
+		if (status >= 200 && status < 300) {
+			sent.incrementAndGet();
+		} else if (isPermanent(status)) {
+			log.warn("EDDN rejected message with HTTP code {}: {}", status, response.getBody());
+			rejected.incrementAndGet();
+			onRejected.accept(message, "HTTP " + status + ": " + response.getBody());
+		} else {
+			throw new IOException("Got HTTP code " + status + ": " + response.getBody());
+		}
+	}
+
+	/**
+	 * @return Whether a response status means the message will never be accepted:
+	 *         any client error except 408 (Request Timeout) and 429 (Too Many
+	 *         Requests), which are worth retrying
+	 */
+	private static boolean isPermanent(int status) {
+		return status >= 400 && status < 500 && status != 408 && status != 429;
+	}
+
+	private static byte[] gzip(byte[] data) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+
+		try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+			gz.write(data);
+		}
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * Finds the star system of an EDDN message without decoding all of it
+	 *
+	 * @return The system name, or <code>null</code> if the message doesn't have
+	 *         one
+	 */
+	private static String starSystem(byte[] message) {
+		try (JsonReader r = new JsonReader(
+				new InputStreamReader(new ByteArrayInputStream(message), StandardCharsets.UTF_8))) {
+			r.beginObject();
+
+			while (r.hasNext()) {
+				if (!r.nextName().equals("message")) {
+					r.skipValue();
+					continue;
+				}
+
+				r.beginObject();
+
+				while (r.hasNext()) {
+					if (r.nextName().equals("StarSystem") && r.peek() == JsonToken.STRING) return r.nextString();
+					r.skipValue();
+				}
+
+				return null;
+			}
+		} catch (IOException | IllegalStateException e) {
+			log.debug("Could not read star system from EDDN message", e);
+		}
+
+		return null;
+	}
+}
@@ -6,16 +6,25 @@ import java.net.URL;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
-import java.util.function.Consumer;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 import org.controlsfx.control.ToggleSwitch;
 
 import com.google.auto.service.AutoService;
+import com.google.common.collect.Lists;
 import com.google.gson.*;
+import com.google.gson.reflect.TypeToken;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonWriter;
 import com.mashape.unirest.http.HttpResponse;
@@ -23,19 +32,28 @@ import com.mashape.unirest.http.Unirest;
 import com.mashape.unirest.http.exceptions.UnirestException;
 
 import javafx.application.Platform;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.IntegerProperty;
+import javafx.beans.property.SimpleBooleanProperty;
+import javafx.beans.property.SimpleIntegerProperty;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.fxml.Initializable;
 import javafx.scene.Node;
+import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.control.PasswordField;
 import javafx.scene.control.TextField;
 import javafx.scene.layout.VBox;
 import lombok.SneakyThrows;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import me.apemanzilla.edjournal.events.FSDJump;
+import me.apemanzilla.edscan.Config;
 import me.apemanzilla.edscan.EDScan;
+import me.apemanzilla.edscan.Mailbox.OverflowPolicy;
 import me.apemanzilla.edscan.Plugin;
+import me.apemanzilla.edscan.RateController.ThrottledException;
 
 @Slf4j
 @AutoService(Plugin.class)
@@ -62,8 +80,61 @@ public class EDSMSync extends Plugin {
 		}
 	}).create();
 
+	private static final DateTimeFormatter journalTimestampFormat = DateTimeFormatter
+			.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'").withZone(ZoneOffset.UTC);
+
+	/**
+	 * Serializes events in the same form as the journal, for the journal API
+	 */
+	private static final Gson journalGson = new GsonBuilder().setFieldNamingPolicy(FieldNamingPolicy.UPPER_CAMEL_CASE)
+			.registerTypeAdapter(Instant.class,
+					(JsonSerializer<Instant>) (v, t, c) -> new JsonPrimitive(journalTimestampFormat.format(v)))
+			.create();
+
 	private static final URI apiUri = URI.create("https://www.edsm.net/");
 
+	private static final Config.Key<String> cmdrKey = Config.key("edsm.cmdr", String.class, null);
+	private static final Config.Key<String> apiKeyKey = Config.key("edsm.apiKey", String.class, null);
+	private static final Config.Key<Integer> totalSubmittedKey = Config.key("edsm.totalSubmitted", Integer.class, 0);
+	private static final Config.Key<Integer> totalDiscoveredKey = Config.key("edsm.totalDiscovered", Integer.class,
+			0);
+	private static final Config.Key<Boolean> submitKey = Config.key("edsm.submit", Boolean.class, false);
+	private static final Config.Key<String> apiUriKey = Config.key("edsm.apiUri", String.class, apiUri.toString());
+	private static final Config.Key<Integer> batchSizeKey = Config.key("edsm.batchSize", Integer.class, 100);
+	private static final Config.Key<String> watermarkKey = Config.key("edsm.lastSubmitted", String.class,
+			Instant.EPOCH.toString());
+
+	/**
+	 * The longest range of dates which EDSM will return logs for at once
+	 */
+	private static final Duration reconcileWindow = Duration.ofDays(7);
+
+	private static final long minBackoff = TimeUnit.SECONDS.toMillis(5);
+	private static final long maxBackoff = TimeUnit.MINUTES.toMillis(5);
+
+	private final JsonParser parser = new JsonParser();
+
+	/**
+	 * Jumps which have happened since submission started, waiting to be sent
+	 */
+	private final BlockingQueue<FSDJump> pending = new LinkedBlockingQueue<>();
+
+	private final IntegerProperty submittedCount = new SimpleIntegerProperty();
+
+	/**
+	 * Whether a reconciliation has been requested or is running
+	 */
+	private final BooleanProperty reconciling = new SimpleBooleanProperty();
+
+	/**
+	 * Whether a reconciliation has been requested and not started yet. It's
+	 * cleared before reconciling, so a request made during a reconciliation
+	 * starts another one afterwards.
+	 */
+	private final AtomicBoolean reconcileRequested = new AtomicBoolean();
+
+	private Thread submitter;
+
 	@Override
 	public String getName() {
 		return "EDSM Sync";
@@ -75,100 +146,387 @@ public class EDSMSync extends Plugin {
 	}
 
 	@Override
-	public Optional<Callable<Node>> getViewBuilder() {
-		return Optional.of(EDSMSyncController::new);
+	public OverflowPolicy getOverflowPolicy() {
+		// every jump must be submitted, even if it means holding up the journal reader
+		return OverflowPolicy.BLOCK;
 	}
 
-	public class EDSMSyncController extends VBox implements Initializable, Consumer<FSDJump> {
-		@FXML
-		private TextField username;
+	@Override
+	public void init() throws Exception {
+		submittedCount.set(edscan.getConfig().get(totalSubmittedKey));
 
-		@FXML
-		private PasswordField apiKey;
+		edscan.addEventListener(this, FSDJump.class, pending::offer);
 
-		@FXML
-		private ToggleSwitch submitSwitch;
+		submitter = new Thread(this::submitLoop);
+		submitter.setDaemon(true);
+		submitter.setPriority(Thread.MIN_PRIORITY);
+		submitter.setName("EDSM Submitter");
+		submitter.start();
+	}
 
-		@FXML
-		private Label totalSubmitted;
+	@Override
+	public void cleanup() throws Exception {
+		if (submitter != null) submitter.interrupt();
+	}
+
+	/**
+	 * Submits jumps as they happen. Whenever submission is (re)started, and after
+	 * a failure, the last position EDSM knows about is checked first and any
+	 * jumps it's missing are found using the journal index and sent.
+	 */
+	private void submitLoop() {
+		boolean synced = false;
+		long backoff = minBackoff;
+
+		while (!Thread.currentThread().isInterrupted()) {
+			try {
+				if (!edscan.getConfig().get(submitKey)) {
+					synced = false;
+					pending.clear();
+					Thread.sleep(1000);
+					continue;
+				}
+
+				if (!synced) {
+					catchUp();
+					synced = true;
+				}
 
-		private final Object submitLock = new Object();
+				if (reconcileRequested.getAndSet(false)) {
+					boolean reconciled = false;
 
-		private final TimerTask submitter = new TimerTask() {
-			public void run() {
-				if (!submitSwitch.isSelected()) return;
-				synchronized (submitLock) {
 					try {
-						log.info("Starting EDSM sync");
-						JsonParser parser = new JsonParser();
+						reconcile();
+						reconciled = true;
+					} finally {
+						// try again once submission recovers
+						if (!reconciled) reconcileRequested.set(true);
+					}
 
-						HttpResponse<String> response = Unirest
-								.get(apiUri.resolve("api-logs-v1/get-position").toString())
-								.queryString(getCredentials()).asString();
+					if (!reconcileRequested.get()) Platform.runLater(() -> reconciling.set(false));
+				}
+
+				FSDJump jump = pending.poll(1, TimeUnit.SECONDS);
 
-						JsonObject o = parser.parse(response.getBody()).getAsJsonObject();
-						int status = o.get("msgnum").getAsInt();
-						if (status != 100) throw new IllegalStateException(o.get("msg").getAsString());
+				if (jump != null) {
+					List<FSDJump> batch = new ArrayList<>();
+					batch.add(jump);
+					pending.drainTo(batch, getBatchSize() - 1);
 
-						Instant lastSent = gson.fromJson(o.get("date"), Instant.class);
-						log.info("Last EDSM submission was at {}", lastSent);
+					Instant watermark = getWatermark();
+					batch.removeIf(j -> !j.getTimestamp().isAfter(watermark));
+
+					if (!batch.isEmpty()) submit(batch);
+				}
 
-						List<FSDJump> toSend = edscan.getJournal().events(FSDJump.class)
-								.filter(j -> j.getTimestamp().isAfter(lastSent)).collect(Collectors.toList());
+				backoff = minBackoff;
+			} catch (InterruptedException e) {
+				return;
+			} catch (ThrottledException e) {
+				log.info("EDSM is busy, retrying in {}s", backoff / 1000);
+				synced = false;
+
+				if (!sleep(backoff)) return;
+				backoff = Math.min(backoff * 2, maxBackoff);
+			} catch (UnirestException e) {
+				log.warn("Could not reach EDSM, retrying in {}s", backoff / 1000, e);
+				synced = false;
+
+				if (!sleep(backoff)) return;
+				backoff = Math.min(backoff * 2, maxBackoff);
+			} catch (IllegalStateException | JsonParseException e) {
+				log.error("EDSM sync failed", e);
+				edscan.showErrorMessage("EDSM Sync failed", "There was an error syncing flight logs to EDSM.", e);
+				synced = false;
+
+				if (!sleep(maxBackoff)) return;
+			}
+		}
+	}
 
-						if (toSend.isEmpty()) {
-							log.info("No events to send!");
-						} else {
-							log.info("{} event(s) to send", toSend.size());
+	private static boolean sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+			return true;
+		} catch (InterruptedException e) {
+			return false;
+		}
+	}
 
-							for (FSDJump j : toSend) {
-								HashMap<String, Object> params = getCredentials();
+	private int getBatchSize() {
+		return Math.max(1, edscan.getConfig().get(batchSizeKey));
+	}
 
-								params.put("systemName", j.getStarSystem());
-								params.put("dateVisited", timestampFormat.format(Date.from(j.getTimestamp())));
-								params.put("x", j.getStarPos()[0]);
-								params.put("y", j.getStarPos()[1]);
-								params.put("z", j.getStarPos()[2]);
-								params.put("fromSoftware", "EDScan");
-								params.put("fromSoftwareVersion", EDScan.getVersion().orElse("unknown"));
+	private URI getApiUri() {
+		return URI.create(edscan.getConfig().get(apiUriKey));
+	}
 
-								response = Unirest.get(apiUri.resolve("api-logs-v1/set-log").toString())
-										.queryString(params).asString();
+	/**
+	 * @return The timestamp of the latest jump known to be on EDSM
+	 */
+	private Instant getWatermark() {
+		return Instant.parse(edscan.getConfig().get(watermarkKey));
+	}
 
-								o = parser.parse(response.getBody()).getAsJsonObject();
-								status = o.get("msgnum").getAsInt();
-								if (status != 100) throw new IllegalStateException(o.get("msg").getAsString());
+	/**
+	 * Asks EDSM for the last position it knows about, and sends every jump since
+	 * then, or since the last jump sent from here if that's later
+	 */
+	private void catchUp() throws UnirestException, InterruptedException {
+		log.info("Starting EDSM sync");
 
-								log.debug("Submitted system {}", j.getStarSystem());
+		HttpResponse<String> response = edscan.getRateController().execute(Unirest
+				.get(getApiUri().resolve("api-logs-v1/get-position").toString()).queryString(getCredentials()));
 
-								Integer submitted = edscan.getConfig().getAsOr(Integer.class, "edsm.totalSubmitted", 0);
-								Integer discovered = edscan.getConfig().getAsOr(Integer.class, "edsm.totalDiscovered",
-										0);
+		JsonObject o = readResponse(response);
 
-								submitted++;
-								if (o.has("systemCreated") && o.get("systemCreated").getAsBoolean()) discovered++;
+		Instant remote = o.has("date") && !o.get("date").isJsonNull() ? gson.fromJson(o.get("date"), Instant.class)
+				: Instant.EPOCH;
+		Instant watermark = getWatermark();
+		log.info("Last EDSM submission was at {}, last local submission was at {}", remote, watermark);
 
-								edscan.getConfig().put("edsm.totalSubmitted", submitted.toString());
+		if (remote.isAfter(watermark)) {
+			watermark = remote;
+			edscan.getConfig().put(watermarkKey, watermark.toString());
+		}
 
-								final Integer s = submitted;
+		List<FSDJump> toSend = edscan.getJournalIndex().eventsAfter(FSDJump.class, watermark)
+				.collect(Collectors.toList());
 
-								Platform.runLater(() -> {
-									totalSubmitted.setText(s.toString());
-								});
+		log.info("{} event(s) to send", toSend.size());
 
-							}
-						}
+		submitAll(toSend);
 
-						log.info("EDSM sync complete");
-					} catch (IllegalStateException | JsonParseException | UnirestException e) {
-						log.error("EDSM sync failed", e);
+		log.info("EDSM sync complete");
+	}
 
-						edscan.showErrorMessage("EDSM Sync failed", "There was an error syncing flight logs to EDSM.",
-								e);
-					}
+	/**
+	 * Asks for the local journal to be reconciled with EDSM once submission is
+	 * running
+	 */
+	void requestReconcile() {
+		reconciling.set(true);
+		reconcileRequested.set(true);
+	}
+
+	/**
+	 * A jump recorded in the commander's EDSM flight log
+	 */
+	@Value
+	private static class RemoteLog {
+		String system;
+		Instant date;
+	}
+
+	/**
+	 * Compares the jumps in the local journal with the commander's flight log on
+	 * EDSM and sends any which EDSM is missing, whether they were never sent or
+	 * failed part way through a batch.<br>
+	 * <br>
+	 * The flight log is read one window at a time, since that's the most EDSM
+	 * returns in one request, and merged with the indexed jumps from the same
+	 * window. Both are in date order, so a single pass finds the gaps, and only
+	 * one window of jumps is held in memory. Windows are skipped ahead to the
+	 * next local jump, so long breaks from playing cost nothing.
+	 */
+	void reconcile() throws UnirestException, InterruptedException {
+		log.info("Reconciling local journal with EDSM flight log");
+
+		Instant start = Instant.EPOCH;
+		int checked = 0, missing = 0;
+
+		while (true) {
+			Optional<FSDJump> next = edscan.getJournalIndex().eventsBetween(FSDJump.class, start, null).findFirst();
+			if (!next.isPresent()) break;
+
+			start = next.get().getTimestamp().truncatedTo(ChronoUnit.SECONDS);
+			Instant end = start.plus(reconcileWindow);
+
+			Iterator<RemoteLog> remote = getLogs(start, end).iterator();
+			RemoteLog r = remote.hasNext() ? remote.next() : null;
+
+			List<FSDJump> toSend = new ArrayList<>();
+
+			for (FSDJump j : (Iterable<FSDJump>) edscan.getJournalIndex().eventsBetween(FSDJump.class, start,
+					end)::iterator) {
+				Instant date = j.getTimestamp().truncatedTo(ChronoUnit.SECONDS);
+				checked++;
+
+				while (r != null && r.getDate().isBefore(date)) {
+					r = remote.hasNext() ? remote.next() : null;
+				}
+
+				if (r != null && r.getDate().equals(date)) {
+					r = remote.hasNext() ? remote.next() : null;
+				} else {
+					toSend.add(j);
 				}
 			}
-		};
+
+			submitAll(toSend);
+
+			missing += toSend.size();
+			start = end;
+		}
+
+		log.info("Reconciliation complete, {} of {} jump(s) were missing from EDSM", missing, checked);
+	}
+
+	/**
+	 * Gets the commander's flight log between two dates
+	 *
+	 * @return The logged jumps, oldest first
+	 */
+	private List<RemoteLog> getLogs(Instant from, Instant to) throws UnirestException, InterruptedException {
+		HashMap<String, Object> params = getCredentials();
+		params.put("startDateTime", timestampFormat.format(Date.from(from)));
+		params.put("endDateTime", timestampFormat.format(Date.from(to.minusSeconds(1))));
+
+		HttpResponse<String> response = edscan.getRateController()
+				.execute(Unirest.get(getApiUri().resolve("api-logs-v1/get-logs").toString()).queryString(params));
+
+		JsonObject o = readResponse(response);
+
+		if (!o.has("logs") || o.get("logs").isJsonNull()) return Collections.emptyList();
+
+		List<RemoteLog> logs = gson.fromJson(o.get("logs"), new TypeToken<List<RemoteLog>>() {}.getType());
+		logs.sort(Comparator.comparing(RemoteLog::getDate));
+
+		return logs;
+	}
+
+	/**
+	 * Reads the body of an EDSM API response, checking that the request succeeded
+	 *
+	 * @throws IllegalStateException If EDSM reported an error, or the response
+	 *                               wasn't from the API
+	 */
+	private JsonObject readResponse(HttpResponse<String> response) {
+		JsonElement body = response.getBody() == null ? JsonNull.INSTANCE : parser.parse(response.getBody());
+
+		if (!body.isJsonObject() || !body.getAsJsonObject().has("msgnum")) {
+			throw new IllegalStateException("Unexpected response from EDSM (HTTP " + response.getStatus() + ")");
+		}
+
+		JsonObject o = body.getAsJsonObject();
+		int status = o.get("msgnum").getAsInt();
+		if (status != 100) {
+			throw new IllegalStateException(o.has("msg") ? o.get("msg").getAsString() : "EDSM error " + status);
+		}
+
+		return o;
+	}
+
+	/**
+	 * Sends jumps to EDSM in batches of up to <code>edsm.batchSize</code>
+	 */
+	void submitAll(List<FSDJump> jumps) throws UnirestException, InterruptedException {
+		for (List<FSDJump> batch : Lists.partition(jumps, getBatchSize())) {
+			submit(batch);
+		}
+	}
+
+	/**
+	 * Sends a batch of jumps to EDSM in a single journal API request. Jumps which
+	 * EDSM already has are treated as sent, and jumps which it rejects are
+	 * logged and skipped, since sending them again wouldn't help.
+	 *
+	 * @throws IllegalStateException If EDSM rejected the whole request
+	 */
+	private void submit(List<FSDJump> jumps) throws UnirestException, InterruptedException {
+		JsonArray messages = new JsonArray();
+
+		for (FSDJump j : jumps) {
+			JsonObject event = journalGson.toJsonTree(j).getAsJsonObject();
+			event.addProperty("event", "FSDJump");
+			messages.add(event);
+		}
+
+		Map<String, Object> params = new HashMap<>(getCredentials());
+		params.put("fromSoftware", "EDScan");
+		params.put("fromSoftwareVersion", EDScan.getVersion().orElse("unknown"));
+		params.put("message", messages.toString());
+
+		HttpResponse<String> response = edscan.getRateController()
+				.execute(Unirest.post(getApiUri().resolve("api-journal-v1").toString()).fields(params));
+
+		JsonObject o = readResponse(response);
+
+		JsonArray results = o.has("events") ? o.getAsJsonArray("events") : new JsonArray();
+		int accepted = 0, discovered = 0;
+
+		for (int i = 0; i < jumps.size(); i++) {
+			String system = jumps.get(i).getStarSystem();
+
+			// a missing result means the message was queued
+			JsonObject result = i < results.size() ? results.get(i).getAsJsonObject() : new JsonObject();
+			int code = result.has("msgnum") ? result.get("msgnum").getAsInt() : 100;
+
+			if (code == 100) {
+				accepted++;
+				log.debug("Submitted system {}", system);
+			} else if (code < 200) {
+				log.debug("EDSM already has jump to {}: {}", system, result.get("msg"));
+			} else {
+				log.warn("EDSM rejected jump to {}: {} {}", system, code, result.get("msg"));
+			}
+
+			if (result.has("systemCreated") && result.get("systemCreated").getAsBoolean()) discovered++;
+		}
+
+		log.info("Submitted {} of {} jump(s) to EDSM", accepted, jumps.size());
+
+		int submitted = edscan.getConfig().get(totalSubmittedKey) + accepted;
+		edscan.getConfig().put(totalSubmittedKey, submitted);
+		if (discovered > 0) {
+			edscan.getConfig().put(totalDiscoveredKey, edscan.getConfig().get(totalDiscoveredKey) + discovered);
+		}
+
+		// reconciliation may send jumps older than the watermark
+		Instant last = jumps.get(jumps.size() - 1).getTimestamp();
+		if (last.isAfter(getWatermark())) edscan.getConfig().put(watermarkKey, last.toString());
+
+		showSubmitted(submitted);
+	}
+
+	/**
+	 * Updates the submitted count shown in the view
+	 */
+	void showSubmitted(int submitted) {
+		Platform.runLater(() -> submittedCount.set(submitted));
+	}
+
+	private HashMap<String, Object> getCredentials() {
+		HashMap<String, Object> map = new HashMap<>();
+
+		String cmdr = edscan.getConfig().get(cmdrKey), apiKey = edscan.getConfig().get(apiKeyKey);
+
+		if (cmdr != null) map.put("commanderName", cmdr);
+		if (apiKey != null) map.put("apiKey", apiKey);
+
+		return map;
+	}
+
+	@Override
+	public Optional<Callable<Node>> getViewBuilder() {
+		return Optional.of(EDSMSyncController::new);
+	}
+
+	public class EDSMSyncController extends VBox implements Initializable {
+		@FXML
+		private TextField username;
+
+		@FXML
+		private PasswordField apiKey;
+
+		@FXML
+		private ToggleSwitch submitSwitch;
+
+		@FXML
+		private Label totalSubmitted;
+
+		@FXML
+		private Button reconcileButton;
 
 		@SneakyThrows(IOException.class)
 		public EDSMSyncController() {
@@ -182,32 +540,21 @@ public class EDSMSync extends Plugin {
 
 		@Override
 		public void initialize(URL location, ResourceBundle resources) {
-			edscan.getConfig().bindAndSet("edsm.cmdr", username.textProperty());
-			edscan.getConfig().bindAndSet("edsm.apiKey", apiKey.textProperty(), "");
-			edscan.getConfig().bindAndSet("edsm.submit", submitSwitch.selectedProperty(), false);
+			edscan.getConfig().bindAndSet(cmdrKey.getName(), username.textProperty());
+			edscan.getConfig().bindAndSet(apiKeyKey.getName(), apiKey.textProperty(), "");
+			edscan.getConfig().bindAndSet(submitKey.getName(), submitSwitch.selectedProperty(), false);
 
 			username.disableProperty().bind(submitSwitch.selectedProperty());
 			apiKey.disableProperty().bind(submitSwitch.selectedProperty());
 
-			edscan.addEventListener(FSDJump.class, this);
+			totalSubmitted.textProperty().bind(submittedCount.asString());
 
-			totalSubmitted.setText(edscan.getConfig().getAsOr(Integer.class, "edsm.totalSubmitted", 0).toString());
-
-			Timer t = new Timer("EDSM Submitter", true);
-			t.scheduleAtFixedRate(submitter, 2000, 5 * 60 * 1000);
+			reconcileButton.disableProperty().bind(reconciling.or(submitSwitch.selectedProperty().not()));
 		}
 
-		private HashMap<String, Object> getCredentials() {
-			HashMap<String, Object> map = new HashMap<>();
-
-			edscan.getConfig().getAs(String.class, "edsm.cmdr").ifPresent(c -> map.put("commanderName", c));
-			edscan.getConfig().getAs(String.class, "edsm.apiKey").ifPresent(k -> map.put("apiKey", k));
-
-			return map;
-		}
-
-		public void accept(FSDJump jump) {
-
+		@FXML
+		private void reconcile() {
+			requestReconcile();
 		}
 
 		@FXML
@@ -0,0 +1,196 @@
+package me.apemanzilla.edscan.plugins;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts more records than fit in memory. Records are collected in chunks
+ * which are sorted in memory and written to temporary files as runs, then the
+ * runs are merged.<br>
+ * <br>
+ * Records are byte arrays of up to 65535 bytes. Temporary files are deleted
+ * when the sorter is closed.
+ */
+class ExternalSorter implements Closeable {
+	@FunctionalInterface
+	interface Sink {
+		void accept(byte[] record) throws IOException;
+	}
+
+	private static final int maxRecord = 0xffff;
+
+	private final Path directory;
+
+	private final Comparator<byte[]> order;
+
+	private final long chunkLimit;
+
+	private final List<Path> runs = new ArrayList<>();
+
+	private List<byte[]> chunk = new ArrayList<>();
+
+	private long chunkBytes = 0;
+
+	/**
+	 * @param directory  Where to write runs
+	 * @param chunkLimit The total size of records to sort in memory at once
+	 */
+	ExternalSorter(Path directory, Comparator<byte[]> order, long chunkLimit) {
+		this.directory = directory;
+		this.order = order;
+		this.chunkLimit = chunkLimit;
+	}
+
+	/**
+	 * Adds a record. Records larger than 65535 bytes are ignored.
+	 */
+	void add(byte[] record) throws IOException {
+		if (record.length > maxRecord) return;
+
+		chunk.add(record);
+		chunkBytes += record.length + 16;
+
+		if (chunkBytes >= chunkLimit) writeRun();
+	}
+
+	private void writeRun() throws IOException {
+		chunk.sort(order);
+
+		Path run = Files.createTempFile(directory, "run", ".tmp");
+		runs.add(run);
+
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))) {
+			for (byte[] record : chunk) {
+				out.writeShort(record.length);
+				out.write(record);
+			}
+		}
+
+		chunk = new ArrayList<>();
+		chunkBytes = 0;
+	}
+
+	/**
+	 * Passes every record added so far to the sink, in order. Equal records are
+	 * all passed, in no particular order.
+	 */
+	void merge(Sink sink) throws IOException {
+		if (runs.isEmpty()) {
+			// everything fit in memory
+			chunk.sort(order);
+
+			for (byte[] record : chunk) {
+				sink.accept(record);
+			}
+
+			return;
+		}
+
+		if (!chunk.isEmpty()) writeRun();
+
+		List<RunReader> readers = new ArrayList<>();
+
+		try {
+			PriorityQueue<RunReader> queue = new PriorityQueue<>(runs.size(), (a, b) -> order.compare(a.head, b.head));
+
+			for (Path run : runs) {
+				RunReader r = new RunReader(run);
+				readers.add(r);
+				if (r.advance()) queue.add(r);
+			}
+
+			while (!queue.isEmpty()) {
+				RunReader r = queue.poll();
+				sink.accept(r.head);
+				if (r.advance()) queue.add(r);
+			}
+		} finally {
+			for (RunReader r : readers) {
+				r.close();
+			}
+		}
+	}
+
+	/**
+	 * Writes a file made of a header followed by the contents of other files,
+	 * such as columns written while merging, and moves it into place
+	 * atomically where possible
+	 */
+	static void assemble(Path file, ByteBuffer header, Path... parts) throws IOException {
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+
+		try {
+			try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+				while (header.hasRemaining()) {
+					out.write(header);
+				}
+
+				for (Path part : parts) {
+					try (FileChannel in = FileChannel.open(part, StandardOpenOption.READ)) {
+						long size = in.size();
+
+						for (long position = 0; position < size;) {
+							position += in.transferTo(position, size - position, out);
+						}
+					}
+				}
+
+				out.force(true);
+			}
+
+			try {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static class RunReader implements Closeable {
+		private final DataInputStream in;
+
+		byte[] head;
+
+		RunReader(Path run) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), 1 << 16));
+		}
+
+		boolean advance() throws IOException {
+			int length;
+
+			try {
+				length = in.readUnsignedShort();
+			} catch (EOFException e) {
+				return false;
+			}
+
+			head = new byte[length];
+			in.readFully(head);
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (Path run : runs) {
+			Files.deleteIfExists(run);
+		}
+
+		chunk = new ArrayList<>();
+	}
+}
@@ -19,6 +19,7 @@ import javafx.scene.Node;
 import javafx.scene.control.Label;
 import javafx.scene.layout.VBox;
 import me.apemanzilla.edjournal.events.Scan.StarScan;
+import me.apemanzilla.edscan.Mailbox.OverflowPolicy;
 import me.apemanzilla.edscan.Plugin;
 
 @AutoService(Plugin.class)
@@ -33,6 +34,17 @@ public class HabitableZone extends Plugin {
 		return "Provides an estimation of the habitable range of any scanned stars";
 	}
 
+	@Override
+	public boolean requiresJournal() {
+		return false;
+	}
+
+	@Override
+	public OverflowPolicy getOverflowPolicy() {
+		// only the most recent scan is ever displayed
+		return OverflowPolicy.COALESCE;
+	}
+
 	@Override
 	public Optional<Callable<Node>> getViewBuilder() {
 		return Optional.ofNullable(HabitableZoneView::new);
@@ -58,8 +70,8 @@ public class HabitableZone extends Plugin {
 			habZoneInner.setText("0");
 			habZoneOuter.setText("0");
 
-			edscan.getJournal().lastEventOfType(StarScan.class).ifPresent(this);
-			edscan.addEventListener(StarScan.class, this);
+			edscan.getJournalIndex().lastEventOfType(StarScan.class).ifPresent(this);
+			edscan.addEventListener(HabitableZone.this, StarScan.class, this);
 		}
 
 		private double distForBlackBodyTemp(double radius, double surfaceTemp, double targetTemp) {
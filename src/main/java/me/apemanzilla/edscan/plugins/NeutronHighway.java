@@ -1,19 +1,26 @@
 package me.apemanzilla.edscan.plugins;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URL;
+import java.nio.file.Path;
+import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.Callable;
 import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
-import org.controlsfx.control.textfield.AutoCompletionBinding.ISuggestionRequest;
 import org.controlsfx.control.textfield.TextFields;
 
 import com.google.auto.service.AutoService;
 import com.google.common.primitives.Ints;
 import com.google.gson.*;
+import com.google.gson.annotations.JsonAdapter;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import com.mashape.unirest.http.HttpResponse;
 import com.mashape.unirest.http.Unirest;
 import com.mashape.unirest.http.exceptions.UnirestException;
@@ -33,13 +40,14 @@ import javafx.scene.input.DataFormat;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.GridPane;
 import javafx.scene.text.TextFlow;
-import lombok.Data;
+import javafx.stage.FileChooser;
 import lombok.Getter;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import me.apemanzilla.edjournal.events.FSDJump;
+import me.apemanzilla.edjournal.events.Location;
 import me.apemanzilla.edscan.Plugin;
-import me.apemanzilla.edscan.plugins.NeutronHighway.Route.Jump;
+import me.apemanzilla.edscan.RateController.ThrottledException;
 
 @Slf4j
 @AutoService(Plugin.class)
@@ -61,21 +69,154 @@ public class NeutronHighway extends Plugin {
 
 	private BorderPane viewWrapper;
 
+	private RouteStore routeStore;
+
+	private RouteCache routeCache;
+
+	/**
+	 * The route loaded at startup, shown when the view is built
+	 */
+	private Route savedRoute;
+
+	private SystemNameIndex systemIndex;
+
+	/**
+	 * The catalog used to plot routes offline, if one has been imported
+	 */
+	private volatile StarCatalog catalog;
+
+	/**
+	 * Shared between forms so that completions stay cached when a new route is
+	 * plotted
+	 */
+	private SystemNameCompleter completer;
+
+	private List<String> fetchSystemNames(String prefix) throws UnirestException, InterruptedException {
+		return gson.fromJson(edscan.getRateController()
+				.execute(Unirest.get(api.resolve("systems").toString()).queryString("q", prefix)).getBody(),
+				new TypeToken<List<String>>() {}.getType());
+	}
+
 	private void switchToForm() {
 		log.info("Switching to form");
-		edscan.getConfig().remove("neutronHighway.route");
+
+		try {
+			routeStore.clear();
+		} catch (IOException e) {
+			log.error("Error deleting saved route {}", routeStore.getFile(), e);
+		}
+
 		viewWrapper.setCenter(new FormController());
 	}
 
+	/**
+	 * Shows a newly plotted route and saves it
+	 */
 	private void switchToRoute(Route route) {
+		try {
+			routeStore.save(route);
+		} catch (IOException e) {
+			log.error("Error saving route to {}", routeStore.getFile(), e);
+			edscan.showErrorMessage("Error saving route", "The route couldn't be saved, so it will be lost on exit.", e);
+		}
+
+		showRoute(route);
+	}
+
+	private void showRoute(Route route) {
 		log.info("Switching to route");
-		edscan.getConfig().put("neutronHighway.route", route);
 		viewWrapper.setCenter(new RouteController(route));
-		route.addListener(r -> edscan.getConfig().put("neutronHighway.route", route));
+
+		route.addListener(r -> {
+			try {
+				routeStore.saveProgress(route.getProgress());
+			} catch (IOException e) {
+				log.error("Error saving route progress to {}", routeStore.getFile(), e);
+			}
+		});
+	}
+
+	/**
+	 * Loads the saved route, moving it out of the config if it was saved by an
+	 * older version
+	 */
+	private Optional<Route> loadRoute() {
+		Optional<Route> route = Optional.empty();
+
+		try {
+			route = routeStore.load();
+		} catch (IOException e) {
+			log.warn("Ignoring unreadable saved route {}", routeStore.getFile(), e);
+		}
+
+		if (!route.isPresent()) {
+			route = edscan.getConfig().getAs(Route.class, "neutronHighway.route");
+
+			if (route.isPresent()) {
+				try {
+					routeStore.save(route.get());
+					log.info("Moved saved route from config to {}", routeStore.getFile());
+				} catch (IOException e) {
+					log.error("Error saving route to {}", routeStore.getFile(), e);
+					return route;
+				}
+			}
+		}
+
+		edscan.getConfig().remove("neutronHighway.route");
+		return route;
+	}
+
+	private Path getSystemsDirectory() {
+		return edscan.getDataDirectory().resolve("systems");
+	}
+
+	/**
+	 * Adds every system in the journal to the name index, the first time it's
+	 * used
+	 */
+	private void seedSystemIndex() {
+		Thread t = new Thread(() -> {
+			Set<String> systems = new HashSet<>();
+
+			edscan.getJournalIndex().eventsAfter(Location.class, Instant.EPOCH).map(Location::getStarSystem)
+					.forEach(systems::add);
+			edscan.getJournalIndex().eventsAfter(FSDJump.class, Instant.EPOCH).map(FSDJump::getStarSystem)
+					.forEach(systems::add);
+
+			systemIndex.addAll(systems);
+			log.info("Added {} systems from the journal to the system name index", systems.size());
+		});
+
+		t.setDaemon(true);
+		t.setPriority(Thread.MIN_PRIORITY);
+		t.setName("Neutron Highway Index Seeder");
+		t.start();
 	}
 
 	@Override
 	public void init() throws Exception {
+		systemIndex = new SystemNameIndex(getSystemsDirectory());
+		catalog = StarCatalog.open(getSystemsDirectory()).orElse(null);
+		completer = new SystemNameCompleter(systemIndex, this::fetchSystemNames);
+
+		if (systemIndex.size() == 0) seedSystemIndex();
+
+		edscan.addEventListener(this, FSDJump.class, j -> systemIndex.add(j.getStarSystem()));
+		edscan.addEventListener(this, Location.class, l -> systemIndex.add(l.getStarSystem()));
+
+		routeStore = new RouteStore(edscan.getDataDirectory().resolve("neutron-route.bin"));
+		routeCache = new RouteCache(edscan.getDataDirectory().resolve("route-cache"),
+				edscan.getConfig().getAsOr(Long.class, "neutronHighway.routeCacheBytes", 32L * 1024 * 1024));
+		savedRoute = loadRoute().orElse(null);
+	}
+
+	@Override
+	public Optional<Callable<Node>> getViewBuilder() {
+		return Optional.of(this::buildView);
+	}
+
+	private Node buildView() {
 		viewWrapper = new BorderPane();
 
 		Hyperlink link = new Hyperlink("Spansh's Neutron Plotter");
@@ -85,17 +226,19 @@ public class NeutronHighway extends Plugin {
 
 		viewWrapper.setBottom(credits);
 
-		Optional<Route> route = edscan.getConfig().getAs(Route.class, "neutronHighway.route");
-
-		if (route.isPresent())
-			switchToRoute(route.get());
+		if (savedRoute != null)
+			showRoute(savedRoute);
 		else
 			switchToForm();
+
+		savedRoute = null;
+		return viewWrapper;
 	}
 
 	@Override
-	public Optional<Callable<Node>> getViewBuilder() {
-		return Optional.of(() -> viewWrapper);
+	public void cleanup() throws Exception {
+		if (systemIndex != null) systemIndex.close();
+		if (routeStore != null) routeStore.close();
 	}
 
 	public class FormController extends GridPane implements Initializable {
@@ -112,7 +255,10 @@ public class NeutronHighway extends Plugin {
 		private Slider rangeSlider, effSlider;
 
 		@FXML
-		private Label rangeLabel, effLabel;
+		private Label rangeLabel, effLabel, indexLabel;
+
+		@FXML
+		private Button importBtn;
 
 		@SneakyThrows(IOException.class)
 		public FormController() {
@@ -124,22 +270,6 @@ public class NeutronHighway extends Plugin {
 			loader.load();
 		}
 
-		private List<String> completeSystemName(ISuggestionRequest request) {
-			String s = request.getUserText().trim();
-
-			if (s.length() < 2 || s.isEmpty()) return Collections.emptyList();
-
-			try {
-				return gson.fromJson(
-						Unirest.get(api.resolve("systems").toString()).queryString("q", s).asString().getBody(),
-						new TypeToken<List<String>>() {}.getType());
-
-			} catch (UnirestException e) {
-				log.error("Error fetching system completions for {}", s, e);
-				return Collections.emptyList();
-			}
-		}
-
 		@Override
 		public void initialize(URL location, ResourceBundle resources) {
 			edscan.getConfig().bindAndSet("neutronHighway.jumpRange", rangeSlider.valueProperty(), 30.0);
@@ -148,12 +278,62 @@ public class NeutronHighway extends Plugin {
 			rangeLabel.textProperty().bind(Bindings.format("%.1fly", rangeSlider.valueProperty()));
 			effLabel.textProperty().bind(Bindings.format("%.0f%%", effSlider.valueProperty()));
 
-			TextFields.bindAutoCompletion(fromField, this::completeSystemName);
-			TextFields.bindAutoCompletion(toField, this::completeSystemName);
+			TextFields.bindAutoCompletion(fromField, completer).setDelay(0);
+			TextFields.bindAutoCompletion(toField, completer).setDelay(0);
 
-			edscan.getJournal().lastEventOfType(FSDJump.class).map(FSDJump::getStarSystem)
+			edscan.getJournalIndex().lastEventOfType(FSDJump.class).map(FSDJump::getStarSystem)
 					.ifPresent(fromField::setPromptText);
-			edscan.addEventListener(FSDJump.class, j -> fromField.setPromptText(j.getStarSystem()));
+			edscan.addEventListener(NeutronHighway.this, FSDJump.class,
+					j -> fromField.setPromptText(j.getStarSystem()));
+
+			updateIndexLabel();
+		}
+
+		private void updateIndexLabel() {
+			StarCatalog c = catalog;
+
+			if (c == null) {
+				indexLabel.setText(String.format("%,d systems known offline%s", systemIndex.size(),
+						systemIndex.isComplete() ? "" : " (no dump imported)"));
+			} else {
+				indexLabel.setText(String.format("%,d systems known offline, %,d for offline plotting", systemIndex.size(),
+						c.getSize()));
+			}
+		}
+
+		@FXML
+		private void importSystems() {
+			FileChooser chooser = new FileChooser();
+			chooser.setTitle("Import Systems Dump");
+			chooser.getExtensionFilters().addAll(
+					new FileChooser.ExtensionFilter("System dumps", "*.json", "*.json.gz", "*.txt", "*.txt.gz"),
+					new FileChooser.ExtensionFilter("All files", "*.*"));
+
+			File file = chooser.showOpenDialog(getScene().getWindow());
+			if (file == null) return;
+
+			importBtn.setDisable(true);
+			indexLabel.setText("Importing " + file.getName() + "...");
+
+			Thread t = new Thread(() -> {
+				try {
+					systemIndex.importDump(file.toPath());
+					StarCatalog.build(file.toPath(), getSystemsDirectory()).ifPresent(c -> catalog = c);
+				} catch (IOException e) {
+					log.error("Error importing systems from {}", file, e);
+					edscan.showErrorMessage("Error importing systems", "There was an error importing the systems dump.",
+							e);
+				} finally {
+					Platform.runLater(() -> {
+						importBtn.setDisable(false);
+						updateIndexLabel();
+					});
+				}
+			});
+
+			t.setDaemon(true);
+			t.setName("Neutron Highway Importer");
+			t.start();
 		}
 
 		@FXML
@@ -170,10 +350,35 @@ public class NeutronHighway extends Plugin {
 
 			Thread t = new Thread(() -> {
 				try {
+					String from = (String) params.get("from"), to = (String) params.get("to");
+					double range = (Double) params.get("range"), efficiency = (Double) params.get("efficiency");
+
+					Optional<Route> cached = routeCache.get(from, to, range, efficiency);
+					if (cached.isPresent()) {
+						Platform.runLater(() -> switchToRoute(cached.get()));
+						return;
+					}
+
+					StarCatalog c = catalog;
+
+					if (c != null) {
+						Optional<Route> local = new NeutronPlotter(c,
+								edscan.getConfig().getAsOr(Boolean.class, "neutronHighway.useWhiteDwarfs", false))
+										.plot(from, to, range, efficiency);
+
+						if (local.isPresent()) {
+							routeCache.put(from, to, range, efficiency, local.get());
+							Platform.runLater(() -> switchToRoute(local.get()));
+							return;
+						}
+
+						log.info("Systems not in the star catalog, plotting with Spansh");
+					}
+
 					log.info("Submitting route request, params {}", params.toString());
 
-					HttpResponse<String> response = Unirest.post(api.resolve("route").toString()).queryString(params)
-							.asString();
+					HttpResponse<String> response = edscan.getRateController()
+							.execute(Unirest.post(api.resolve("route").toString()).queryString(params));
 
 					JsonParser parser = new JsonParser();
 					JsonObject o = parser.parse(response.getBody()).getAsJsonObject();
@@ -196,8 +401,8 @@ public class NeutronHighway extends Plugin {
 
 					do {
 						Thread.sleep(1000);
-					} while ((response = Unirest.get(api.resolve("results/" + job.trim()).toString()).asString())
-							.getStatus() == 202);
+					} while ((response = edscan.getRateController()
+							.execute(Unirest.get(api.resolve("results/" + job.trim()).toString()))).getStatus() == 202);
 
 					o = parser.parse(response.getBody()).getAsJsonObject();
 
@@ -217,7 +422,17 @@ public class NeutronHighway extends Plugin {
 					Route route = gson.fromJson(o.get("result"), Route.class);
 					log.info("Route acquired!");
 
+					routeCache.put(from, to, range, efficiency, route);
+
 					Platform.runLater(() -> switchToRoute(route));
+				} catch (ThrottledException e) {
+					log.info("Spansh is busy, not plotting route: {}", e.getMessage());
+
+					Platform.runLater(() -> {
+						new Alert(AlertType.INFORMATION, "Spansh is busy right now. Please try again in a few minutes.")
+								.showAndWait();
+						setDisable(false);
+					});
 				} catch (IllegalStateException | InterruptedException | JsonParseException | UnirestException e) {
 					log.error("Error plotting route params {}:", params, e);
 
@@ -232,46 +447,287 @@ public class NeutronHighway extends Plugin {
 		}
 	}
 
-	@Data
+	/**
+	 * A plotted route, stored as columns so that even very long routes take
+	 * little memory and progress can be tracked without walking the route.<br>
+	 * <br>
+	 * Jump counts are kept as prefix sums, and waypoints are indexed by name, so
+	 * progress queries take constant time and arriving at any waypoint ahead of
+	 * the current one is recognized straight away.<br>
+	 * <br>
+	 * Waypoint coordinates are kept when they're known, with a k-d tree over
+	 * them, so that after jumping somewhere off the route the nearest waypoint
+	 * ahead can be found quickly to rejoin it.
+	 */
+	@JsonAdapter(Route.Adapter.class)
 	public static class Route implements Observable {
-		@Data
-		public static class Jump {
-			String system;
-			int jumps;
-			double distanceLeft;
+		@Getter
+		private final String sourceSystem;
+
+		@Getter
+		private final String destinationSystem;
+
+		/**
+		 * The jump range the route was plotted for, or 0 if it isn't known
+		 */
+		@Getter
+		private final double range;
+
+		private final String[] systems;
+
+		/**
+		 * The number of jumps from the previous waypoint to each waypoint
+		 */
+		private final int[] jumps;
+
+		private final double[] distanceLeft;
+
+		/**
+		 * The number of jumps from the start of the route to each waypoint
+		 */
+		private final int[] jumpsTo;
+
+		/**
+		 * The index of each waypoint by lowercase name, using the first waypoint
+		 * with each name
+		 */
+		private final Map<String, Integer> index;
+
+		/**
+		 * The index of the next waypoint with the same name as each waypoint, or -1
+		 * if there isn't one
+		 */
+		private final int[] sameName;
+
+		/**
+		 * Waypoint coordinates, NaN where they aren't known
+		 */
+		private final float[] xs, ys, zs;
+
+		/**
+		 * The waypoints with known coordinates, arranged as an implicit k-d tree:
+		 * the middle of each range splits the rest of it on the axis for its depth
+		 */
+		private final int[] tree;
+
+		@Getter
+		private int progress;
+
+		private final Set<InvalidationListener> listeners = new HashSet<>();
+
+		/**
+		 * @param xs The waypoints' coordinates, or <code>null</code> if they aren't
+		 *           known
+		 */
+		Route(String sourceSystem, String destinationSystem, double range, String[] systems, int[] jumps,
+				double[] distanceLeft, float[] xs, float[] ys, float[] zs) {
+			int n = systems.length;
+
+			if (jumps.length != n || distanceLeft.length != n
+					|| (xs != null && (xs.length != n || ys.length != n || zs.length != n)))
+				throw new IllegalArgumentException("Route columns have different lengths");
+
+			this.sourceSystem = sourceSystem;
+			this.destinationSystem = destinationSystem;
+			this.range = range;
+			this.systems = systems;
+			this.jumps = jumps;
+			this.distanceLeft = distanceLeft;
+
+			if (xs == null) {
+				xs = new float[n];
+				ys = new float[n];
+				zs = new float[n];
+
+				Arrays.fill(xs, Float.NaN);
+				Arrays.fill(ys, Float.NaN);
+				Arrays.fill(zs, Float.NaN);
+			}
+
+			for (int i = 0; i < n; i++) {
+				// only use complete positions
+				if (Float.isNaN(xs[i]) || Float.isNaN(ys[i]) || Float.isNaN(zs[i])) xs[i] = ys[i] = zs[i] = Float.NaN;
+			}
+
+			this.xs = xs;
+			this.ys = ys;
+			this.zs = zs;
+
+			final float[] x = xs;
+			tree = IntStream.range(0, n).filter(i -> !Float.isNaN(x[i])).toArray();
+			buildTree(0, tree.length, 0);
+
+			jumpsTo = new int[systems.length];
+			index = new HashMap<>(systems.length * 4 / 3 + 1);
+			sameName = new int[systems.length];
+
+			for (int i = 0; i < systems.length; i++) {
+				systems[i] = systems[i].intern();
+				jumpsTo[i] = (i == 0 ? 0 : jumpsTo[i - 1]) + jumps[i];
+			}
+
+			for (int i = systems.length - 1; i >= 0; i--) {
+				Integer later = index.put(systems[i].toLowerCase(Locale.ROOT), i);
+				sameName[i] = later == null ? -1 : later;
+			}
+		}
+
+		/**
+		 * @return The number of waypoints
+		 */
+		public int size() {
+			return systems.length;
 		}
 
-		String destinationSystem;
-		String sourceSystem;
-		List<Jump> systemJumps;
-		int progress;
-		transient Set<InvalidationListener> listeners;
+		public String getSystem(int i) {
+			return systems[i];
+		}
 
-		private Route() {
-			progress = 0;
-			listeners = new HashSet<>();
+		public int getJumps(int i) {
+			return jumps[i];
 		}
 
-		public Optional<Jump> getJump(int i) {
-			if (i < 0 || i >= systemJumps.size())
-				return Optional.empty();
-			else
-				return Optional.of(systemJumps.get(i));
+		public double getDistanceLeft(int i) {
+			return distanceLeft[i];
 		}
 
-		public Optional<Jump> getCurrentJump() {
-			return getJump(progress);
+		/**
+		 * @return The waypoint's coordinates, or an empty optional if they aren't
+		 *         known
+		 */
+		public Optional<double[]> getPosition(int i) {
+			return Float.isNaN(xs[i]) ? Optional.empty() : Optional.of(new double[] { xs[i], ys[i], zs[i] });
 		}
 
-		public Optional<Jump> getNextJump() {
-			return getJump(progress + 1);
+		private float coord(int i, int axis) {
+			return axis == 0 ? xs[i] : axis == 1 ? ys[i] : zs[i];
 		}
 
-		public void changeProgress(int amt) {
-			progress = Ints.constrainToRange(progress + amt, 0, getSystemJumps().size() - 1);
+		private void buildTree(int from, int to, int depth) {
+			if (to - from <= 1) return;
+
+			int mid = (from + to) >>> 1;
+			select(from, to - 1, mid, depth % 3);
+
+			buildTree(from, mid, depth + 1);
+			buildTree(mid + 1, to, depth + 1);
+		}
+
+		/**
+		 * Partially sorts part of the tree so that the waypoint at <code>k</code>
+		 * is in its sorted place, with smaller coordinates before it and larger
+		 * ones after
+		 */
+		private void select(int left, int right, int k, int axis) {
+			while (left < right) {
+				float pivot = coord(tree[(left + right) >>> 1], axis);
+				int i = left, j = right;
+
+				while (i <= j) {
+					while (coord(tree[i], axis) < pivot) i++;
+					while (coord(tree[j], axis) > pivot) j--;
+
+					if (i <= j) {
+						int t = tree[i];
+						tree[i++] = tree[j];
+						tree[j--] = t;
+					}
+				}
+
+				if (k <= j)
+					right = j;
+				else if (k >= i)
+					left = i;
+				else
+					return;
+			}
+		}
+
+		/**
+		 * Finds the nearest waypoint ahead of the current one within a distance of
+		 * a position
+		 *
+		 * @return The waypoint's index, or -1 if there isn't one
+		 */
+		public int nearestAhead(double x, double y, double z, double maxDistance) {
+			double[] p = { x, y, z };
+			double[] best = { maxDistance * maxDistance };
+			int[] found = { -1 };
+
+			searchTree(0, tree.length, 0, p, best, found);
+			return found[0];
+		}
+
+		private void searchTree(int from, int to, int depth, double[] p, double[] best, int[] found) {
+			if (from >= to) return;
+
+			int mid = (from + to) >>> 1, i = tree[mid], axis = depth % 3;
+
+			double dx = xs[i] - p[0], dy = ys[i] - p[1], dz = zs[i] - p[2];
+			double d = dx * dx + dy * dy + dz * dz;
+
+			if (i > progress && (d < best[0] || (d == best[0] && (found[0] < 0 || i < found[0])))) {
+				best[0] = d;
+				found[0] = i;
+			}
+
+			double diff = p[axis] - coord(i, axis);
+
+			if (diff < 0) {
+				searchTree(from, mid, depth + 1, p, best, found);
+				if (diff * diff <= best[0]) searchTree(mid + 1, to, depth + 1, p, best, found);
+			} else {
+				searchTree(mid + 1, to, depth + 1, p, best, found);
+				if (diff * diff <= best[0]) searchTree(from, mid, depth + 1, p, best, found);
+			}
+		}
+
+		/**
+		 * Rejoins the route after jumping somewhere off it, by making the nearest
+		 * waypoint ahead within one jump the next waypoint
+		 *
+		 * @param range The ship's jump range
+		 * @return Whether progress changed
+		 */
+		public boolean rejoin(double x, double y, double z, double range) {
+			int i = nearestAhead(x, y, z, range);
+			if (i - 1 <= progress) return false;
+
+			setProgress(i - 1);
+			return true;
+		}
+
+		public Optional<String> getNextSystem() {
+			return progress + 1 < systems.length ? Optional.of(systems[progress + 1]) : Optional.empty();
+		}
+
+		/**
+		 * @return The distance left from the current waypoint to the destination
+		 */
+		public double getDistanceLeft() {
+			return systems.length == 0 ? 0 : distanceLeft[progress];
+		}
+
+		/**
+		 * Finds a waypoint by name, ignoring case
+		 */
+		public OptionalInt indexOf(String system) {
+			Integer i = system == null ? null : index.get(system.toLowerCase(Locale.ROOT));
+			return i == null ? OptionalInt.empty() : OptionalInt.of(i);
+		}
+
+		public void setProgress(int progress) {
+			progress = Ints.constrainToRange(progress, 0, Math.max(systems.length - 1, 0));
+			if (progress == this.progress) return;
+
+			this.progress = progress;
 			listeners.forEach(l -> l.invalidated(this));
 		}
 
+		public void changeProgress(int amt) {
+			setProgress(progress + amt);
+		}
+
 		public void incrementProgress() {
 			changeProgress(1);
 		}
@@ -280,12 +736,33 @@ public class NeutronHighway extends Plugin {
 			changeProgress(-1);
 		}
 
+		/**
+		 * Moves to the first waypoint with a name which is ahead of the current
+		 * one
+		 *
+		 * @return Whether progress changed
+		 */
+		public boolean advanceTo(String system) {
+			OptionalInt first = indexOf(system);
+			if (!first.isPresent()) return false;
+
+			int i = first.getAsInt();
+			while (i >= 0 && i <= progress) {
+				i = sameName[i];
+			}
+
+			if (i < 0) return false;
+
+			setProgress(i);
+			return true;
+		}
+
 		public int totalJumps() {
-			return systemJumps.stream().mapToInt(Jump::getJumps).sum();
+			return systems.length == 0 ? 0 : jumpsTo[systems.length - 1];
 		}
 
 		public int completedJumps() {
-			return systemJumps.stream().limit(progress + 1).mapToInt(Jump::getJumps).sum();
+			return systems.length == 0 ? 0 : jumpsTo[progress];
 		}
 
 		@Override
@@ -297,6 +774,153 @@ public class NeutronHighway extends Plugin {
 		public void removeListener(InvalidationListener listener) {
 			listeners.remove(listener);
 		}
+
+		/**
+		 * Reads and writes routes in the format returned by Spansh, with progress
+		 * added. Routes saved by older versions, with camel case names, are also
+		 * read.
+		 */
+		static class Adapter extends TypeAdapter<Route> {
+			@Override
+			public void write(JsonWriter out, Route route) throws IOException {
+				if (route == null) {
+					out.nullValue();
+					return;
+				}
+
+				out.beginObject();
+				out.name("source_system").value(route.sourceSystem);
+				out.name("destination_system").value(route.destinationSystem);
+				if (route.range > 0) out.name("range").value(route.range);
+				out.name("progress").value(route.progress);
+
+				out.name("system_jumps").beginArray();
+				for (int i = 0; i < route.systems.length; i++) {
+					out.beginObject();
+					out.name("system").value(route.systems[i]);
+					out.name("jumps").value(route.jumps[i]);
+					out.name("distance_left").value(route.distanceLeft[i]);
+
+					if (!Float.isNaN(route.xs[i])) {
+						out.name("x").value(route.xs[i]);
+						out.name("y").value(route.ys[i]);
+						out.name("z").value(route.zs[i]);
+					}
+
+					out.endObject();
+				}
+				out.endArray();
+
+				out.endObject();
+			}
+
+			@Override
+			public Route read(JsonReader in) throws IOException {
+				if (in.peek() == JsonToken.NULL) {
+					in.nextNull();
+					return null;
+				}
+
+				String source = null, destination = null;
+				int progress = 0;
+				double range = 0;
+
+				List<String> systems = new ArrayList<>();
+				int[] jumps = new int[64];
+				double[] distanceLeft = new double[64];
+				float[][] coords = new float[3][64];
+
+				in.beginObject();
+
+				while (in.hasNext()) {
+					switch (in.nextName()) {
+					case "source_system":
+					case "sourceSystem":
+						source = in.nextString();
+						break;
+					case "destination_system":
+					case "destinationSystem":
+						destination = in.nextString();
+						break;
+					case "progress":
+						progress = in.nextInt();
+						break;
+					case "range":
+						range = in.nextDouble();
+						break;
+					case "system_jumps":
+					case "systemJumps":
+						in.beginArray();
+
+						while (in.hasNext()) {
+							int i = systems.size();
+
+							if (i == jumps.length) {
+								jumps = Arrays.copyOf(jumps, i * 2);
+								distanceLeft = Arrays.copyOf(distanceLeft, i * 2);
+
+								for (int axis = 0; axis < 3; axis++) {
+									coords[axis] = Arrays.copyOf(coords[axis], i * 2);
+								}
+							}
+
+							String system = null;
+							for (int axis = 0; axis < 3; axis++) {
+								coords[axis][i] = Float.NaN;
+							}
+
+							in.beginObject();
+
+							while (in.hasNext()) {
+								switch (in.nextName()) {
+								case "system":
+									system = in.nextString();
+									break;
+								case "jumps":
+									jumps[i] = in.nextInt();
+									break;
+								case "distance_left":
+								case "distanceLeft":
+									distanceLeft[i] = in.nextDouble();
+									break;
+								case "x":
+									coords[0][i] = (float) in.nextDouble();
+									break;
+								case "y":
+									coords[1][i] = (float) in.nextDouble();
+									break;
+								case "z":
+									coords[2][i] = (float) in.nextDouble();
+									break;
+								default:
+									in.skipValue();
+								}
+							}
+
+							in.endObject();
+
+							if (system == null) throw new JsonParseException("Route waypoint has no system name");
+							systems.add(system);
+						}
+
+						in.endArray();
+						break;
+					default:
+						in.skipValue();
+					}
+				}
+
+				in.endObject();
+
+				int n = systems.size();
+				Route route = new Route(source, destination, range, systems.toArray(new String[n]),
+						Arrays.copyOf(jumps, n), Arrays.copyOf(distanceLeft, n), Arrays.copyOf(coords[0], n),
+						Arrays.copyOf(coords[1], n), Arrays.copyOf(coords[2], n));
+				route.setProgress(progress);
+
+				return route;
+			}
+		}
 	}
 
 	public class RouteController extends GridPane implements Initializable, Consumer<FSDJump> {
@@ -329,7 +953,7 @@ public class NeutronHighway extends Plugin {
 
 		@Override
 		public void initialize(URL location, ResourceBundle resources) {
-			edscan.addEventListener(FSDJump.class, this);
+			edscan.addEventListener(NeutronHighway.this, FSDJump.class, this);
 			destLabel.setText(route.getDestinationSystem());
 			edscan.getConfig().bindAndSet("neutronHighway.autoCopy", autoCopy.selectedProperty(), false);
 
@@ -338,7 +962,7 @@ public class NeutronHighway extends Plugin {
 
 		@FXML
 		private void copyNextSystem() {
-			route.getNextJump().map(Jump::getSystem).ifPresent(s -> {
+			route.getNextSystem().ifPresent(s -> {
 				Clipboard.getSystemClipboard().setContent(Collections.singletonMap(DataFormat.PLAIN_TEXT, s));
 				Platform.runLater(() -> {
 					copyBtn.setText("Copied");
@@ -361,17 +985,16 @@ public class NeutronHighway extends Plugin {
 		}
 
 		private void updateProgress() {
-			nextLabel.setText(route.getNextJump().map(Jump::getSystem).orElse("Done!"));
+			nextLabel.setText(route.getNextSystem().orElse("Done!"));
 
-			progress.setProgress((double) route.completedJumps() / route.totalJumps());
+			progress.setProgress(route.totalJumps() == 0 ? 1 : (double) route.completedJumps() / route.totalJumps());
 			// progressLabel.setText(String.format("%d / %d jumps (%.1f ly remaining)",
 			// route.completedJumps(),
 			// route.totalJumps(),
-			// route.getCurrentJump().map(Jump::getDistanceLeft).get()));
+			// route.getDistanceLeft()));
 			currentJumpLabel.setText("" + route.completedJumps());
 			totalJumpsLabel.setText("" + route.totalJumps());
-			distanceRemainingLabel
-					.setText(String.format("%.1f", route.getCurrentJump().map(Jump::getDistanceLeft).orElse(0.0)));
+			distanceRemainingLabel.setText(String.format("%.1f", route.getDistanceLeft()));
 
 			if (autoCopy.isSelected()) copyNextSystem();
 		}
@@ -390,13 +1013,17 @@ public class NeutronHighway extends Plugin {
 
 		@Override
 		public void accept(FSDJump jump) {
-			route.getNextJump().map(Jump::getSystem).ifPresent(s -> {
-				if (s.equalsIgnoreCase(jump.getStarSystem())) {
-					route.incrementProgress();
+			double[] pos = jump.getStarPos();
 
-					Platform.runLater(this::updateProgress);
-				}
-			});
+			if (route.advanceTo(jump.getStarSystem())
+					|| (pos != null && pos.length == 3 && route.rejoin(pos[0], pos[1], pos[2], jumpRange()))) {
+				Platform.runLater(this::updateProgress);
+			}
+		}
+
+		private double jumpRange() {
+			return route.getRange() > 0 ? route.getRange()
+					: edscan.getConfig().getAsOr(Double.class, "neutronHighway.jumpRange", 30.0);
 		}
 	}
 }
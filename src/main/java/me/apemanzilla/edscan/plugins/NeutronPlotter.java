@@ -0,0 +1,339 @@
+package me.apemanzilla.edscan.plugins;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import lombok.extern.slf4j.Slf4j;
+import me.apemanzilla.edscan.plugins.NeutronHighway.Route;
+
+/**
+ * Plots neutron highway routes offline using a {@link StarCatalog}.<br>
+ * <br>
+ * Routes are found with a beam search over the stars which can supercharge the
+ * frame shift drive. Each step expands the most promising partial routes in
+ * parallel, moving to any supercharge star closer to the destination which can
+ * be reached from the current one in a boosted jump plus a few normal jumps,
+ * and keeps the best few hundred by jumps so far plus a lower bound on the jumps
+ * left. Every partial route is also tried with a direct trip to the
+ * destination, so a route is always found.<br>
+ * <br>
+ * Efficiency works as it does for Spansh's plotter: candidates must lie within
+ * a corridor around the direct line, which narrows as efficiency increases
+ * until only stars within one jump of the line are used.
+ */
+@Slf4j
+class NeutronPlotter {
+	private static final double neutronMultiplier = 4;
+	private static final double whiteDwarfMultiplier = 1.5;
+
+	/**
+	 * The number of normal jumps allowed between supercharge stars
+	 */
+	private static final int fillJumps = 2;
+
+	private static final int beamWidth = 256;
+
+	private static class State {
+		/**
+		 * The candidate this state is at, or -1 for the source system
+		 */
+		final int node;
+		final int jumps;
+		final double remaining;
+		final State parent;
+
+		State(int node, int jumps, double remaining, State parent) {
+			this.node = node;
+			this.jumps = jumps;
+			this.remaining = remaining;
+			this.parent = parent;
+		}
+	}
+
+	private final StarCatalog catalog;
+
+	private final byte usable;
+
+	/**
+	 * @param useWhiteDwarfs Whether to boost from white dwarfs as well as neutron
+	 *                       stars
+	 */
+	NeutronPlotter(StarCatalog catalog, boolean useWhiteDwarfs) {
+		this.catalog = catalog;
+		this.usable = useWhiteDwarfs ? (byte) (StarCatalog.neutronStar | StarCatalog.whiteDwarf)
+				: StarCatalog.neutronStar;
+	}
+
+	private double boostMultiplier(byte flags) {
+		if ((flags & usable & StarCatalog.neutronStar) != 0) return neutronMultiplier;
+		if ((flags & usable & StarCatalog.whiteDwarf) != 0) return whiteDwarfMultiplier;
+		return 1;
+	}
+
+	/**
+	 * @return The number of jumps needed to travel a distance, starting with a
+	 *         jump boosted by the given multiplier
+	 */
+	private static int jumps(double multiplier, double distance, double range) {
+		if (distance <= 0) return 0;
+		if (distance <= multiplier * range) return 1;
+		return 1 + (int) Math.ceil((distance - multiplier * range) / range);
+	}
+
+	/**
+	 * Plots a route between two systems
+	 *
+	 * @param range      The ship's jump range in light years
+	 * @param efficiency How closely the route should follow the direct line, from
+	 *                   0 to 100
+	 * @return The route, or an empty optional if either system isn't in the
+	 *         catalog
+	 */
+	Optional<Route> plot(String from, String to, double range, double efficiency) {
+		int source = catalog.find(from), target = catalog.find(to);
+		if (source < 0 || target < 0 || range <= 0) return Optional.empty();
+
+		long start = System.nanoTime();
+
+		Search search = new Search(source, target, range, efficiency);
+		State best = search.run();
+
+		int depth = 0;
+		for (State s = best; s != null; s = s.parent) {
+			depth++;
+		}
+
+		State[] path = new State[depth];
+		for (State s = best; s != null; s = s.parent) {
+			path[--depth] = s;
+		}
+
+		int n = path.length + 1;
+		String[] systems = new String[n];
+		int[] jumps = new int[n];
+		double[] distanceLeft = new double[n];
+		float[] xs = new float[n], ys = new float[n], zs = new float[n];
+
+		systems[0] = catalog.name(source);
+		distanceLeft[0] = search.total;
+		xs[0] = catalog.x(source);
+		ys[0] = catalog.y(source);
+		zs[0] = catalog.z(source);
+
+		for (int i = 1; i < path.length; i++) {
+			State s = path[i];
+
+			int system = catalog.boostSystem(search.nodes[s.node]);
+
+			systems[i] = catalog.name(system);
+			jumps[i] = s.jumps - path[i - 1].jumps;
+			distanceLeft[i] = s.remaining;
+			xs[i] = catalog.x(system);
+			ys[i] = catalog.y(system);
+			zs[i] = catalog.z(system);
+		}
+
+		systems[n - 1] = catalog.name(target);
+		jumps[n - 1] = search.bestJumps - best.jumps;
+		xs[n - 1] = catalog.x(target);
+		ys[n - 1] = catalog.y(target);
+		zs[n - 1] = catalog.z(target);
+
+		log.info("Plotted {} jump route from {} to {} offline in {}ms", search.bestJumps, from, to,
+				(System.nanoTime() - start) / 1000000);
+
+		return Optional.of(new Route(systems[0], systems[n - 1], range, systems, jumps, distanceLeft, xs, ys, zs));
+	}
+
+	private class Search {
+		final double range;
+
+		final double sx, sy, sz, tx, ty, tz;
+
+		final double total;
+
+		final double sourceMultiplier;
+
+		/**
+		 * Indexes into the catalog's supercharge stars of the stars inside the
+		 * corridor
+		 */
+		final int[] nodes;
+
+		final double[] remaining;
+
+		final double[] multipliers;
+
+		final double cell;
+
+		final Map<Long, int[]> grid = new HashMap<>();
+
+		final int[] bestAt;
+
+		int bestJumps;
+
+		State bestEnd;
+
+		Search(int source, int target, double range, double efficiency) {
+			this.range = range;
+
+			sx = catalog.x(source);
+			sy = catalog.y(source);
+			sz = catalog.z(source);
+			tx = catalog.x(target);
+			ty = catalog.y(target);
+			tz = catalog.z(target);
+
+			total = distance(sx, sy, sz, tx, ty, tz);
+			sourceMultiplier = boostMultiplier(catalog.flags(source));
+
+			double corridor = range + Math.max(0, Math.min(100, 100 - efficiency)) / 100 * total / 2;
+
+			nodes = IntStream.range(0, catalog.boostCount()).parallel()
+					.filter(n -> (catalog.boostFlags(n) & usable) != 0)
+					.filter(n -> catalog.boostSystem(n) != source && catalog.boostSystem(n) != target)
+					.filter(n -> distance(catalog.boostX(n), catalog.boostY(n), catalog.boostZ(n), tx, ty, tz) < total)
+					.filter(n -> fromLine(catalog.boostX(n), catalog.boostY(n), catalog.boostZ(n)) <= corridor)
+					.toArray();
+
+			remaining = new double[nodes.length];
+			multipliers = new double[nodes.length];
+			bestAt = new int[nodes.length];
+			Arrays.fill(bestAt, Integer.MAX_VALUE);
+
+			cell = (neutronMultiplier + fillJumps) * range;
+
+			Map<Long, Integer> counts = new HashMap<>();
+			long[] keys = new long[nodes.length];
+
+			for (int i = 0; i < nodes.length; i++) {
+				int n = nodes[i];
+				remaining[i] = distance(catalog.boostX(n), catalog.boostY(n), catalog.boostZ(n), tx, ty, tz);
+				multipliers[i] = boostMultiplier(catalog.boostFlags(n));
+				keys[i] = key(catalog.boostX(n), catalog.boostY(n), catalog.boostZ(n));
+				counts.merge(keys[i], 1, Integer::sum);
+			}
+
+			counts.forEach((k, c) -> grid.put(k, new int[c]));
+
+			Map<Long, Integer> filled = new HashMap<>();
+			for (int i = 0; i < nodes.length; i++) {
+				int slot = filled.merge(keys[i], 1, Integer::sum) - 1;
+				grid.get(keys[i])[slot] = i;
+			}
+		}
+
+		double fromLine(double x, double y, double z) {
+			double dx = tx - sx, dy = ty - sy, dz = tz - sz;
+			double length = dx * dx + dy * dy + dz * dz;
+			double t = length == 0 ? 0 : ((x - sx) * dx + (y - sy) * dy + (z - sz) * dz) / length;
+			t = Math.max(0, Math.min(1, t));
+
+			return distance(x, y, z, sx + t * dx, sy + t * dy, sz + t * dz);
+		}
+
+		long cellOf(double v) {
+			return (long) Math.floor(v / cell) & 0x1fffff;
+		}
+
+		long key(double x, double y, double z) {
+			return cellOf(x) << 42 | cellOf(y) << 21 | cellOf(z);
+		}
+
+		double x(State s) {
+			return s.node < 0 ? sx : catalog.boostX(nodes[s.node]);
+		}
+
+		double y(State s) {
+			return s.node < 0 ? sy : catalog.boostY(nodes[s.node]);
+		}
+
+		double z(State s) {
+			return s.node < 0 ? sz : catalog.boostZ(nodes[s.node]);
+		}
+
+		double multiplier(State s) {
+			return s.node < 0 ? sourceMultiplier : multipliers[s.node];
+		}
+
+		/**
+		 * @return A lower bound on the jumps needed to reach the destination
+		 */
+		double estimate(State s) {
+			return s.jumps + s.remaining / (neutronMultiplier * range);
+		}
+
+		List<State> expand(State s) {
+			List<State> next = new ArrayList<>();
+
+			double x = x(s), y = y(s), z = z(s);
+			double m = multiplier(s);
+			double reach = (m + fillJumps) * range;
+
+			long cx = (long) Math.floor(x / cell), cy = (long) Math.floor(y / cell), cz = (long) Math.floor(z / cell);
+
+			for (long i = cx - 1; i <= cx + 1; i++) {
+				for (long j = cy - 1; j <= cy + 1; j++) {
+					for (long k = cz - 1; k <= cz + 1; k++) {
+						int[] members = grid.get((i & 0x1fffff) << 42 | (j & 0x1fffff) << 21 | (k & 0x1fffff));
+						if (members == null) continue;
+
+						for (int c : members) {
+							if (remaining[c] >= s.remaining) continue;
+
+							int n = nodes[c];
+							double d = distance(x, y, z, catalog.boostX(n), catalog.boostY(n), catalog.boostZ(n));
+							if (d > reach) continue;
+
+							next.add(new State(c, s.jumps + jumps(m, d, range), remaining[c], s));
+						}
+					}
+				}
+			}
+
+			return next;
+		}
+
+		State run() {
+			State start = new State(-1, 0, total, null);
+			List<State> beam = Collections.singletonList(start);
+
+			bestJumps = Integer.MAX_VALUE;
+
+			while (!beam.isEmpty()) {
+				for (State s : beam) {
+					int finish = s.jumps + jumps(multiplier(s), s.remaining, range);
+
+					if (finish < bestJumps) {
+						bestJumps = finish;
+						bestEnd = s;
+					}
+				}
+
+				List<State> candidates = beam.parallelStream().flatMap(s -> expand(s).stream())
+						.filter(s -> Math.ceil(estimate(s)) < bestJumps)
+						.sorted(Comparator.comparingDouble(this::estimate)).collect(Collectors.toList());
+
+				List<State> next = new ArrayList<>(beamWidth);
+
+				for (State s : candidates) {
+					if (next.size() >= beamWidth) break;
+					if (s.jumps >= bestAt[s.node]) continue;
+
+					bestAt[s.node] = s.jumps;
+					next.add(s);
+				}
+
+				beam = next;
+			}
+
+			return bestEnd;
+		}
+	}
+
+	private static double distance(double x1, double y1, double z1, double x2, double y2, double z2) {
+		double dx = x2 - x1, dy = y2 - y1, dz = z2 - z1;
+		return Math.sqrt(dx * dx + dy * dy + dz * dz);
+	}
+}
@@ -0,0 +1,226 @@
+package me.apemanzilla.edscan.plugins;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+
+import com.google.common.hash.Hashing;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import me.apemanzilla.edscan.plugins.NeutronHighway.Route;
+
+/**
+ * A cache of plotted routes on disk, so that plotting the same route again
+ * doesn't need to wait for a plotter.<br>
+ * <br>
+ * Routes are keyed by their plot parameters, with system names compared
+ * ignoring case, the range rounded to hundredths of a light year and the
+ * efficiency rounded to a whole percentage. Each route is stored in its own
+ * file, and the least recently used routes are deleted when the cache grows
+ * beyond its size limit.<br>
+ * <br>
+ * When there's no exact match, a route plotted for the same systems and
+ * efficiency with a slightly shorter range is used instead, since a ship with
+ * a longer range can always follow it.
+ */
+@Slf4j
+class RouteCache {
+	private static final int magic = 0x45445243;
+	private static final int version = 2;
+
+	/**
+	 * How much shorter, as a fraction of the requested range, the range of a
+	 * cached route may be for it to be reused
+	 */
+	private static final double rangeTolerance = 0.05;
+
+	@Value
+	private static class Entry {
+		Path file;
+		int version;
+		String from;
+		String to;
+		double range;
+		int efficiency;
+		long size;
+	}
+
+	private final Path directory;
+
+	private final long maxBytes;
+
+	/**
+	 * Cached routes, least recently used first
+	 */
+	private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	private long totalBytes = 0;
+
+	/**
+	 * @param maxBytes The total size of cached routes to keep
+	 */
+	RouteCache(Path directory, long maxBytes) throws IOException {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+
+		Files.createDirectories(directory);
+
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.route")) {
+			stream.forEach(files::add);
+		}
+
+		Map<Path, FileTime> used = new HashMap<>();
+		for (Path file : files) {
+			used.put(file, Files.getLastModifiedTime(file));
+		}
+
+		files.sort(Comparator.comparing(used::get));
+
+		for (Path file : files) {
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+				int fileVersion;
+				if (in.readInt() != magic || (fileVersion = in.readInt()) < 1 || fileVersion > version)
+					throw new IOException("Not a cached route");
+
+				add(new Entry(file, fileVersion, in.readUTF(), in.readUTF(), in.readDouble(), in.readInt(),
+						Files.size(file)));
+			} catch (IOException e) {
+				log.warn("Deleting unreadable cached route {}", file, e);
+				delete(file);
+			}
+		}
+
+		log.info("Loaded {} cached routes ({} bytes)", entries.size(), totalBytes);
+	}
+
+	private static String normalize(String system) {
+		return system.trim().toLowerCase(Locale.ROOT);
+	}
+
+	private static double normalizeRange(double range) {
+		return Math.round(range * 100) / 100.0;
+	}
+
+	private Path fileFor(String from, String to, double range, int efficiency) {
+		String key = from + '\n' + to + '\n' + range + '\n' + efficiency;
+		return directory.resolve(Hashing.sha256().hashString(key, StandardCharsets.UTF_8).toString() + ".route");
+	}
+
+	/**
+	 * Finds a cached route for the given plot parameters
+	 */
+	synchronized Optional<Route> get(String from, String to, double range, double efficiency) {
+		String f = normalize(from), t = normalize(to);
+		double r = normalizeRange(range);
+		int e = (int) Math.round(efficiency);
+
+		Entry entry = entries.get(fileFor(f, t, r, e));
+
+		if (entry == null) {
+			entry = entries.values().stream()
+					.filter(c -> c.getFrom().equals(f) && c.getTo().equals(t) && c.getEfficiency() == e)
+					.filter(c -> c.getRange() <= r && c.getRange() >= r * (1 - rangeTolerance))
+					.max(Comparator.comparingDouble(Entry::getRange)).orElse(null);
+
+			if (entry == null) return Optional.empty();
+
+			// mark it as used
+			entries.get(entry.getFile());
+		}
+
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(Files.newInputStream(entry.getFile()), 1 << 16))) {
+			// skip the header, which is already in the entry
+			in.readInt();
+			in.readInt();
+			in.readUTF();
+			in.readUTF();
+			in.readDouble();
+			in.readInt();
+
+			Route route = RouteStore.readRoute(in, entry.getVersion());
+
+			Files.setLastModifiedTime(entry.getFile(), FileTime.fromMillis(System.currentTimeMillis()));
+			log.info("Using cached route from {} to {} plotted with range {}", from, to, entry.getRange());
+
+			return Optional.of(route);
+		} catch (IOException ex) {
+			log.warn("Dropping unreadable cached route {}", entry.getFile(), ex);
+			remove(entry);
+			return Optional.empty();
+		}
+	}
+
+	/**
+	 * Adds a route to the cache, removing the least recently used routes if the
+	 * cache is full
+	 */
+	synchronized void put(String from, String to, double range, double efficiency, Route route) {
+		String f = normalize(from), t = normalize(to);
+		double r = normalizeRange(range);
+		int e = (int) Math.round(efficiency);
+
+		Path file = fileFor(f, t, r, e);
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+
+		try {
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+				out.writeInt(magic);
+				out.writeInt(version);
+				out.writeUTF(f);
+				out.writeUTF(t);
+				out.writeDouble(r);
+				out.writeInt(e);
+
+				RouteStore.writeRoute(out, route);
+			}
+
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+
+			Entry old = entries.remove(file);
+			if (old != null) totalBytes -= old.getSize();
+
+			add(new Entry(file, version, f, t, r, e, Files.size(file)));
+		} catch (IOException ex) {
+			log.warn("Error caching route from {} to {}", from, to, ex);
+
+			try {
+				Files.deleteIfExists(temp);
+			} catch (IOException ignored) {}
+		}
+	}
+
+	private void add(Entry entry) {
+		entries.put(entry.getFile(), entry);
+		totalBytes += entry.getSize();
+
+		Iterator<Entry> it = entries.values().iterator();
+
+		while (totalBytes > maxBytes && it.hasNext()) {
+			Entry eldest = it.next();
+			if (eldest == entry) break;
+
+			it.remove();
+			totalBytes -= eldest.getSize();
+			delete(eldest.getFile());
+		}
+	}
+
+	private void remove(Entry entry) {
+		if (entries.remove(entry.getFile()) != null) totalBytes -= entry.getSize();
+		delete(entry.getFile());
+	}
+
+	private static void delete(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			log.warn("Error deleting cached route {}", file, e);
+		}
+	}
+}
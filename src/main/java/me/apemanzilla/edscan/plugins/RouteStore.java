@@ -0,0 +1,184 @@
+package me.apemanzilla.edscan.plugins;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Optional;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import me.apemanzilla.edscan.plugins.NeutronHighway.Route;
+
+/**
+ * Keeps the current Neutron Highway route in its own file.<br>
+ * <br>
+ * The route is written once, when it's plotted, as a compact binary file. The
+ * progress along it is stored at a fixed place in the file's header and
+ * overwritten in place, so recording each jump costs a single four byte
+ * write.
+ */
+@Slf4j
+class RouteStore implements Closeable {
+	private static final int magic = 0x45444E52;
+	private static final int version = 2;
+
+	private static final long progressOffset = 8;
+
+	@Getter
+	private final Path file;
+
+	/**
+	 * The file holding the current route, or <code>null</code> if there isn't one
+	 */
+	private FileChannel channel;
+
+	private final ByteBuffer progressBuffer = ByteBuffer.allocate(4);
+
+	RouteStore(Path file) {
+		this.file = file;
+	}
+
+	/**
+	 * Reads the stored route, if there is one
+	 */
+	synchronized Optional<Route> load() throws IOException {
+		if (!Files.exists(file)) return Optional.empty();
+
+		close();
+		channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(0))));
+
+		int fileVersion;
+		if (in.readInt() != magic || (fileVersion = in.readInt()) < 1 || fileVersion > version)
+			throw new IOException("Not a saved route: " + file);
+
+		int progress = in.readInt();
+
+		Route route = readRoute(in, fileVersion);
+		route.setProgress(progress);
+
+		return Optional.of(route);
+	}
+
+	/**
+	 * Reads a route written by {@link #writeRoute(DataOutput, Route)}
+	 *
+	 * @param version The format version the route was written with. Version 1
+	 *                doesn't have the range or waypoint coordinates.
+	 */
+	static Route readRoute(DataInput in, int version) throws IOException {
+		String source = in.readUTF(), destination = in.readUTF();
+		double range = version >= 2 ? in.readDouble() : 0;
+
+		int n = in.readInt();
+		if (n < 0) throw new IOException("Corrupt saved route");
+
+		String[] systems = new String[n];
+		int[] jumps = new int[n];
+		double[] distanceLeft = new double[n];
+		float[] xs = null, ys = null, zs = null;
+
+		if (version >= 2) {
+			xs = new float[n];
+			ys = new float[n];
+			zs = new float[n];
+		}
+
+		for (int i = 0; i < n; i++) {
+			systems[i] = in.readUTF();
+			jumps[i] = in.readInt();
+			distanceLeft[i] = in.readDouble();
+
+			if (version >= 2) {
+				xs[i] = in.readFloat();
+				ys[i] = in.readFloat();
+				zs[i] = in.readFloat();
+			}
+		}
+
+		return new Route(source, destination, range, systems, jumps, distanceLeft, xs, ys, zs);
+	}
+
+	/**
+	 * Writes a route's waypoints, without its progress, in the current format
+	 */
+	static void writeRoute(DataOutput out, Route route) throws IOException {
+		out.writeUTF(nonNull(route.getSourceSystem()));
+		out.writeUTF(nonNull(route.getDestinationSystem()));
+		out.writeDouble(route.getRange());
+
+		out.writeInt(route.size());
+		for (int i = 0; i < route.size(); i++) {
+			out.writeUTF(route.getSystem(i));
+			out.writeInt(route.getJumps(i));
+			out.writeDouble(route.getDistanceLeft(i));
+
+			double[] pos = route.getPosition(i).orElse(new double[] { Double.NaN, Double.NaN, Double.NaN });
+			out.writeFloat((float) pos[0]);
+			out.writeFloat((float) pos[1]);
+			out.writeFloat((float) pos[2]);
+		}
+	}
+
+	/**
+	 * Replaces the stored route
+	 */
+	synchronized void save(Route route) throws IOException {
+		close();
+
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+			out.writeInt(magic);
+			out.writeInt(version);
+			out.writeInt(route.getProgress());
+			writeRoute(out, route);
+		}
+
+		try {
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		channel = FileChannel.open(file, StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * Records progress along the stored route
+	 */
+	synchronized void saveProgress(int progress) throws IOException {
+		if (channel == null) return;
+
+		progressBuffer.clear();
+		progressBuffer.putInt(progress).flip();
+
+		while (progressBuffer.hasRemaining()) {
+			channel.write(progressBuffer, progressOffset + progressBuffer.position());
+		}
+	}
+
+	/**
+	 * Deletes the stored route
+	 */
+	synchronized void clear() throws IOException {
+		close();
+		Files.deleteIfExists(file);
+	}
+
+	private static String nonNull(String s) {
+		return s == null ? "" : s;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+	}
+}
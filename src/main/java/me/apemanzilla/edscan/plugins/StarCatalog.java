@@ -0,0 +1,416 @@
+package me.apemanzilla.edscan.plugins;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A catalog of star systems with their coordinates, used to plot routes
+ * offline.<br>
+ * <br>
+ * The catalog is a file of columns (coordinates, flags and names) sorted by
+ * name, which is memory-mapped so that any system can be looked up by binary
+ * search without loading the whole catalog. Systems whose main star can
+ * supercharge the frame shift drive (neutron stars and white dwarfs) are also
+ * copied into primitive arrays when the catalog is opened, since the plotter
+ * visits them many times.<br>
+ * <br>
+ * Catalogs are immutable. Importing a dump writes a new catalog file.
+ */
+@Slf4j
+class StarCatalog {
+	static final byte neutronStar = 1;
+	static final byte whiteDwarf = 2;
+
+	private static final int magic = 0x45445343;
+	private static final int version = 1;
+	private static final int headerSize = 16;
+
+	/**
+	 * The size of the fixed part of a record while sorting: three coordinates
+	 * and the flags, followed by the name
+	 */
+	private static final int recordHeader = 13;
+
+	private static final long runBytes = 64 * 1024 * 1024;
+
+	@Getter
+	private final Path file;
+
+	/**
+	 * The number of systems in the catalog
+	 */
+	@Getter
+	private final int size;
+
+	private final IntBuffer nameOffsets;
+	private final FloatBuffer xs, ys, zs;
+	private final ByteBuffer flags;
+	private final ByteBuffer names;
+
+	/**
+	 * Catalog indexes of the systems which can supercharge
+	 */
+	private final int[] boostIndex;
+
+	/**
+	 * Coordinates and flags of the systems which can supercharge, in the same
+	 * order as {@link #boostIndex}
+	 */
+	private final float[] boostX, boostY, boostZ;
+	private final byte[] boostFlags;
+
+	private StarCatalog(Path file) throws IOException {
+		this.file = file;
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long fileSize = channel.size();
+			if (fileSize < headerSize) throw new IOException("Truncated star catalog " + file);
+
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, headerSize);
+			if (header.getInt(0) != magic || header.getInt(4) != version)
+				throw new IOException("Not a star catalog: " + file);
+
+			size = header.getInt(8);
+			int boosts = header.getInt(12);
+
+			long position = headerSize;
+			long namesStart = position + 17L * size + 4L * boosts;
+
+			if (size < 0 || boosts < 0 || boosts > size || namesStart > fileSize
+					|| fileSize - namesStart > Integer.MAX_VALUE)
+				throw new IOException("Corrupt star catalog " + file);
+
+			nameOffsets = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * size).asIntBuffer();
+			position += 4L * size;
+			xs = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * size).asFloatBuffer();
+			position += 4L * size;
+			ys = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * size).asFloatBuffer();
+			position += 4L * size;
+			zs = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * size).asFloatBuffer();
+			position += 4L * size;
+			flags = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+			position += size;
+
+			IntBuffer boostBuffer = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * boosts).asIntBuffer();
+			names = channel.map(FileChannel.MapMode.READ_ONLY, namesStart, fileSize - namesStart);
+
+			boostIndex = new int[boosts];
+			boostBuffer.get(boostIndex);
+
+			boostX = new float[boosts];
+			boostY = new float[boosts];
+			boostZ = new float[boosts];
+			boostFlags = new byte[boosts];
+
+			for (int i = 0; i < boosts; i++) {
+				int s = boostIndex[i];
+				if (s < 0 || s >= size) throw new IOException("Corrupt star catalog " + file);
+
+				boostX[i] = xs.get(s);
+				boostY[i] = ys.get(s);
+				boostZ[i] = zs.get(s);
+				boostFlags[i] = flags.get(s);
+			}
+		}
+	}
+
+	/**
+	 * Opens the newest catalog in a directory
+	 *
+	 * @return The catalog, or an empty optional if there isn't a readable one
+	 */
+	static Optional<StarCatalog> open(Path directory) throws IOException {
+		StarCatalog catalog = null;
+
+		for (Path file : generations(directory)) {
+			if (catalog == null) {
+				try {
+					catalog = new StarCatalog(file);
+					continue;
+				} catch (IOException e) {
+					log.warn("Ignoring unreadable star catalog {}", file, e);
+				}
+			}
+
+			delete(file);
+		}
+
+		if (catalog != null)
+			log.info("Loaded star catalog with {} systems ({} can supercharge)", catalog.size, catalog.boostCount());
+
+		return Optional.ofNullable(catalog);
+	}
+
+	/**
+	 * Builds a new catalog from the systems in a dump which have coordinates,
+	 * replacing the newest catalog in the directory
+	 *
+	 * @return The new catalog, or an empty optional if the dump didn't have any
+	 *         coordinates
+	 * @see SystemDump
+	 */
+	static Optional<StarCatalog> build(Path dump, Path directory) throws IOException {
+		Files.createDirectories(directory);
+
+		List<Path> old = generations(directory);
+		long generation = old.isEmpty() ? 1 : generation(old.get(0)) + 1;
+		Path file = directory.resolve("stars." + generation + ".cat");
+
+		Path[] columns = new Path[7];
+
+		try (ExternalSorter sorter = new ExternalSorter(directory, StarCatalog::compareRecords, runBytes)) {
+			SystemDump.read(dump, e -> {
+				if (e.getCoords() == null) return;
+
+				byte[] name = e.getName().getBytes(StandardCharsets.UTF_8);
+				ByteBuffer record = ByteBuffer.allocate(recordHeader + name.length);
+
+				record.putFloat((float) e.getCoords()[0]).putFloat((float) e.getCoords()[1])
+						.putFloat((float) e.getCoords()[2]).put(flagsFor(e.getMainStar())).put(name);
+
+				sorter.add(record.array());
+			});
+
+			for (int i = 0; i < columns.length; i++) {
+				columns[i] = Files.createTempFile(directory, "column", ".tmp");
+			}
+
+			int[] counts = write(sorter, columns);
+			if (counts[0] == 0) return Optional.empty();
+
+			ByteBuffer header = ByteBuffer.allocate(headerSize);
+			header.putInt(magic).putInt(version).putInt(counts[0]).putInt(counts[1]).flip();
+
+			ExternalSorter.assemble(file, header, columns);
+		} finally {
+			for (Path column : columns) {
+				if (column != null) Files.deleteIfExists(column);
+			}
+		}
+
+		StarCatalog catalog = new StarCatalog(file);
+
+		for (Path f : old) {
+			delete(f);
+		}
+
+		log.info("Built star catalog {} with {} systems ({} can supercharge)", file, catalog.size,
+				catalog.boostCount());
+
+		return Optional.of(catalog);
+	}
+
+	/**
+	 * Writes sorted records as columns, dropping duplicate names. The columns are
+	 * the name offsets, the three coordinates, the flags, the indexes of systems
+	 * which can supercharge, and the names.
+	 *
+	 * @return The number of systems and the number which can supercharge
+	 */
+	private static int[] write(ExternalSorter sorter, Path[] columns) throws IOException {
+		DataOutputStream[] out = new DataOutputStream[columns.length];
+		int[] counts = new int[2];
+
+		try {
+			for (int i = 0; i < columns.length; i++) {
+				out[i] = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(columns[i]), 1 << 16));
+			}
+
+			DataOutputStream offsets = out[0], x = out[1], y = out[2], z = out[3], flags = out[4], boosts = out[5],
+					names = out[6];
+			byte[][] last = { null };
+
+			sorter.merge(record -> {
+				if (record.length == recordHeader || (last[0] != null && compareRecords(last[0], record) == 0)) return;
+
+				if ((long) names.size() + record.length - recordHeader > Integer.MAX_VALUE)
+					throw new IOException("Too many systems for one catalog");
+
+				ByteBuffer r = ByteBuffer.wrap(record);
+				byte f = r.get(12);
+
+				offsets.writeInt(names.size());
+				x.writeFloat(r.getFloat(0));
+				y.writeFloat(r.getFloat(4));
+				z.writeFloat(r.getFloat(8));
+				flags.writeByte(f);
+				names.write(record, recordHeader, record.length - recordHeader);
+
+				if (f != 0) {
+					boosts.writeInt(counts[0]);
+					counts[1]++;
+				}
+
+				counts[0]++;
+				last[0] = record;
+			});
+		} finally {
+			for (DataOutputStream o : out) {
+				if (o != null) o.close();
+			}
+		}
+
+		return counts;
+	}
+
+	/**
+	 * @return The number of systems which can supercharge
+	 */
+	int boostCount() {
+		return boostIndex.length;
+	}
+
+	/**
+	 * Finds a system by name, ignoring ASCII case
+	 *
+	 * @return The system's index, or -1 if it isn't in the catalog
+	 */
+	int find(String name) {
+		byte[] key = name.trim().getBytes(StandardCharsets.UTF_8);
+		int low = 0, high = size;
+
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			int c = compareName(mid, key);
+
+			if (c < 0)
+				low = mid + 1;
+			else if (c > 0)
+				high = mid;
+			else
+				return mid;
+		}
+
+		return -1;
+	}
+
+	private int compareName(int i, byte[] key) {
+		int start = nameOffsets.get(i);
+		int length = (i + 1 < size ? nameOffsets.get(i + 1) : names.capacity()) - start;
+
+		for (int j = 0; j < length && j < key.length; j++) {
+			int c = SystemNameIndex.fold(names.get(start + j)) - SystemNameIndex.fold(key[j]);
+			if (c != 0) return c;
+		}
+
+		return length - key.length;
+	}
+
+	String name(int i) {
+		int start = nameOffsets.get(i);
+		byte[] b = new byte[(i + 1 < size ? nameOffsets.get(i + 1) : names.capacity()) - start];
+
+		for (int j = 0; j < b.length; j++) {
+			b[j] = names.get(start + j);
+		}
+
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	float x(int i) {
+		return xs.get(i);
+	}
+
+	float y(int i) {
+		return ys.get(i);
+	}
+
+	float z(int i) {
+		return zs.get(i);
+	}
+
+	byte flags(int i) {
+		return flags.get(i);
+	}
+
+	/**
+	 * @return The catalog index of the <code>n</code>th system which can
+	 *         supercharge
+	 */
+	int boostSystem(int n) {
+		return boostIndex[n];
+	}
+
+	float boostX(int n) {
+		return boostX[n];
+	}
+
+	float boostY(int n) {
+		return boostY[n];
+	}
+
+	float boostZ(int n) {
+		return boostZ[n];
+	}
+
+	byte boostFlags(int n) {
+		return boostFlags[n];
+	}
+
+	private static byte flagsFor(String mainStar) {
+		if (mainStar == null) return 0;
+		if (mainStar.contains("Neutron")) return neutronStar;
+		if (mainStar.startsWith("White Dwarf")) return whiteDwarf;
+		return 0;
+	}
+
+	/**
+	 * Compares sorting records by name, ignoring ASCII case
+	 */
+	private static int compareRecords(byte[] a, byte[] b) {
+		for (int i = recordHeader; i < a.length && i < b.length; i++) {
+			int c = SystemNameIndex.fold(a[i]) - SystemNameIndex.fold(b[i]);
+			if (c != 0) return c;
+		}
+
+		return a.length - b.length;
+	}
+
+	/**
+	 * @return The catalog files in a directory, newest first
+	 */
+	private static List<Path> generations(Path directory) throws IOException {
+		List<Path> files = new ArrayList<>();
+		if (!Files.isDirectory(directory)) return files;
+
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "stars.*.cat")) {
+			stream.forEach(files::add);
+		}
+
+		files.sort(Comparator.comparingLong(StarCatalog::generation).reversed());
+		return files;
+	}
+
+	private static long generation(Path file) {
+		String name = file.getFileName().toString();
+
+		try {
+			return Long.parseLong(name.substring("stars.".length(), name.length() - ".cat".length()));
+		} catch (NumberFormatException | IndexOutOfBoundsException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Deletes an old catalog. This may fail on some platforms while the file is
+	 * still mapped, in which case it's deleted the next time catalogs are opened.
+	 */
+	private static void delete(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			log.debug("Could not delete old star catalog {} yet", file, e);
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package me.apemanzilla.edscan.plugins;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import lombok.Value;
+import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Reads dumps of star systems, such as the nightly dumps from EDSM and
+ * Spansh.<br>
+ * <br>
+ * Dumps may be plain text with one system name per line, or JSON with one
+ * system object per line, and may be gzip-compressed. System objects are read
+ * for their <code>name</code>, <code>coords</code> and main star type (either
+ * <code>mainStar</code> or <code>primaryStar.type</code>), and any other
+ * fields are skipped. Lines which can't be read are skipped.
+ */
+@Slf4j
+@UtilityClass
+class SystemDump {
+	@Value
+	static class Entry {
+		String name;
+
+		/**
+		 * The system's coordinates, or <code>null</code> if the dump doesn't have
+		 * them
+		 */
+		double[] coords;
+
+		/**
+		 * The type of the system's main star, or <code>null</code> if the dump
+		 * doesn't have it
+		 */
+		String mainStar;
+	}
+
+	@FunctionalInterface
+	interface Handler {
+		void accept(Entry entry) throws IOException;
+	}
+
+	static void read(Path dump, Handler handler) throws IOException {
+		InputStream in = Files.newInputStream(dump);
+		if (dump.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".gz")) in = new GZIPInputStream(in, 1 << 16);
+
+		try (BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16)) {
+			String line;
+			long lineNumber = 0;
+
+			while ((line = r.readLine()) != null) {
+				lineNumber++;
+
+				Entry entry;
+				try {
+					entry = parse(line);
+				} catch (IOException | IllegalStateException | NumberFormatException e) {
+					log.debug("Skipping unreadable line {} of {}", lineNumber, dump, e);
+					continue;
+				}
+
+				if (entry != null && !entry.getName().isEmpty()) handler.accept(entry);
+			}
+		}
+	}
+
+	/**
+	 * @return The system on a line of a dump, or <code>null</code> if the line
+	 *         doesn't have one
+	 */
+	private static Entry parse(String line) throws IOException {
+		line = line.trim();
+		if (line.endsWith(",")) line = line.substring(0, line.length() - 1).trim();
+		if (line.isEmpty() || line.equals("[") || line.equals("]")) return null;
+
+		if (line.startsWith("\"")) {
+			try (JsonReader r = new JsonReader(new StringReader(line))) {
+				return new Entry(r.nextString().trim(), null, null);
+			}
+		}
+
+		if (!line.startsWith("{")) return new Entry(line, null, null);
+
+		String name = null, mainStar = null;
+		double[] coords = null;
+
+		try (JsonReader r = new JsonReader(new StringReader(line))) {
+			r.beginObject();
+
+			while (r.hasNext()) {
+				String key = r.nextName();
+
+				if (key.equals("name") && r.peek() == JsonToken.STRING) {
+					name = r.nextString().trim();
+				} else if (key.equals("coords") && r.peek() == JsonToken.BEGIN_OBJECT) {
+					coords = readCoords(r);
+				} else if (key.equals("mainStar") && r.peek() == JsonToken.STRING) {
+					mainStar = r.nextString();
+				} else if (key.equals("primaryStar") && r.peek() == JsonToken.BEGIN_OBJECT) {
+					r.beginObject();
+
+					while (r.hasNext()) {
+						if (r.nextName().equals("type") && r.peek() == JsonToken.STRING)
+							mainStar = r.nextString();
+						else
+							r.skipValue();
+					}
+
+					r.endObject();
+				} else {
+					r.skipValue();
+				}
+			}
+		}
+
+		return name == null ? null : new Entry(name, coords, mainStar);
+	}
+
+	private static double[] readCoords(JsonReader r) throws IOException {
+		double[] coords = new double[3];
+		int found = 0;
+
+		r.beginObject();
+
+		while (r.hasNext()) {
+			String name = r.nextName();
+			int axis = name.length() == 1 ? "xyz".indexOf(name) : -1;
+
+			if (axis >= 0 && r.peek() == JsonToken.NUMBER) {
+				coords[axis] = r.nextDouble();
+				found |= 1 << axis;
+			} else {
+				r.skipValue();
+			}
+		}
+
+		r.endObject();
+
+		return found == 7 ? coords : null;
+	}
+}
@@ -0,0 +1,126 @@
+package me.apemanzilla.edscan.plugins;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import org.controlsfx.control.textfield.AutoCompletionBinding.ISuggestionRequest;
+
+import javafx.util.Callback;
+import lombok.extern.slf4j.Slf4j;
+import me.apemanzilla.edscan.RateController.ThrottledException;
+
+/**
+ * Suggests star system names as the user types, for use with ControlsFX
+ * autocompletion (which should be bound with no delay of its own).<br>
+ * <br>
+ * The offline {@link SystemNameIndex} is checked first. When it was built from
+ * a systems dump and knows names with the prefix, they're returned straight
+ * away. Otherwise the remote source is asked, and the names it returns are
+ * added to the index. If the source can't be reached, whatever the index knows
+ * is returned instead.<br>
+ * <br>
+ * Remote results are kept in a small LRU cache by prefix. When a shorter prefix has a
+ * cached result which is known to be complete, longer prefixes are answered by
+ * filtering it, so after the first few characters most keystrokes are answered
+ * without a request. A result is known to be complete when it's smaller than
+ * the largest result seen, since the server cuts results off at a fixed
+ * size.<br>
+ * <br>
+ * Requests are only sent once typing pauses, and are abandoned if the text
+ * changes again before they complete.
+ */
+@Slf4j
+class SystemNameCompleter implements Callback<ISuggestionRequest, Collection<String>> {
+	@FunctionalInterface
+	interface Source {
+		List<String> fetch(String prefix) throws Exception;
+	}
+
+	private static final int minLength = 2;
+
+	private static final long debounce = 200;
+
+	private static final int cacheSize = 256;
+
+	private static final int maxResults = 20;
+
+	private final SystemNameIndex index;
+
+	private final Source source;
+
+	private final Map<String, List<String>> cache = new LinkedHashMap<String, List<String>>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, List<String>> eldest) {
+			return size() > cacheSize;
+		}
+	};
+
+	/**
+	 * The size of the largest result seen so far
+	 */
+	private int largestResult = 0;
+
+	SystemNameCompleter(SystemNameIndex index, Source source) {
+		this.index = index;
+		this.source = source;
+	}
+
+	@Override
+	public Collection<String> call(ISuggestionRequest request) {
+		String text = request.getUserText().trim();
+		if (text.length() < minLength) return Collections.emptyList();
+
+		List<String> local = index.complete(text, maxResults);
+		if (index.isComplete() && !local.isEmpty()) return local;
+
+		String key = text.toLowerCase(Locale.ROOT);
+
+		Optional<List<String>> cached = lookup(key);
+		if (cached.isPresent()) return cached.get();
+
+		try {
+			Thread.sleep(debounce);
+			if (request.isCancelled()) return Collections.emptyList();
+
+			List<String> result = Collections.unmodifiableList(new ArrayList<>(source.fetch(text)));
+			store(key, result);
+			index.addAll(result);
+
+			return request.isCancelled() ? Collections.emptyList() : result;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return Collections.emptyList();
+		} catch (ThrottledException e) {
+			log.debug("Not fetching system completions for {}: {}", text, e.getMessage());
+			return local;
+		} catch (Exception e) {
+			log.error("Error fetching system completions for {}", text, e);
+			return local;
+		}
+	}
+
+	private synchronized Optional<List<String>> lookup(String key) {
+		List<String> hit = cache.get(key);
+		if (hit != null) return Optional.of(hit);
+
+		for (int length = key.length() - 1; length >= minLength; length--) {
+			List<String> shorter = cache.get(key.substring(0, length));
+			if (shorter == null || shorter.size() >= largestResult) continue;
+
+			List<String> filtered = Collections.unmodifiableList(shorter.stream()
+					.filter(s -> s.toLowerCase(Locale.ROOT).startsWith(key)).collect(Collectors.toList()));
+
+			cache.put(key, filtered);
+			return Optional.of(filtered);
+		}
+
+		return Optional.empty();
+	}
+
+	private synchronized void store(String key, List<String> result) {
+		cache.put(key, result);
+		largestResult = Math.max(largestResult, result.size());
+	}
+}
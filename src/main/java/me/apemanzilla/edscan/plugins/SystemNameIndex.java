@@ -0,0 +1,443 @@
+package me.apemanzilla.edscan.plugins;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * An offline index of star system names, used to complete names without
+ * asking a remote service.<br>
+ * <br>
+ * Most names are kept in a file sorted by name (ignoring ASCII case), which is
+ * memory-mapped and binary searched. Lookups take microseconds, and the memory
+ * used doesn't grow with the number of names since the operating system pages
+ * the file in as needed. The file is built with an external merge sort, so
+ * importing a dump of every known system doesn't need to fit in memory
+ * either.<br>
+ * <br>
+ * Names seen since the file was built, such as systems visited in the journal
+ * and completions returned by a remote service, are kept in a small set in
+ * memory and logged to a text file. Once there are enough of them they are
+ * merged into a new index file. Index files are never changed once written:
+ * each rebuild writes a new generation and deletes the old one.
+ */
+@Slf4j
+class SystemNameIndex implements Closeable {
+	private static final int magic = 0x4544534E;
+	private static final int version = 1;
+	private static final int headerSize = 16;
+
+	/**
+	 * Set on indexes built from a systems dump, which should know every system
+	 */
+	private static final int flagComplete = 1;
+
+	/**
+	 * The amount of name data sorted in memory at once while building an index
+	 */
+	private static final int runBytes = 16 * 1024 * 1024;
+
+	/**
+	 * The number of recently added names which causes them to be merged into the
+	 * index file
+	 */
+	private static final int compactThreshold = 10000;
+
+	@Value
+	private static class Segment {
+		Path file;
+		int count;
+		IntBuffer offsets;
+		ByteBuffer data;
+		boolean complete;
+
+		int start(int i) {
+			return offsets.get(i);
+		}
+
+		int end(int i) {
+			return i + 1 < count ? offsets.get(i + 1) : data.capacity();
+		}
+
+		byte[] bytes(int i) {
+			int start = start(i);
+			byte[] b = new byte[end(i) - start];
+
+			for (int j = 0; j < b.length; j++) {
+				b[j] = data.get(start + j);
+			}
+
+			return b;
+		}
+
+		String name(int i) {
+			return new String(bytes(i), StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * Compares the name at the given index to a key
+		 *
+		 * @param prefix Whether names starting with the key count as equal to it
+		 */
+		int compare(int i, byte[] key, boolean prefix) {
+			int start = start(i), length = end(i) - start;
+
+			for (int j = 0; j < length && j < key.length; j++) {
+				int c = fold(data.get(start + j)) - fold(key[j]);
+				if (c != 0) return c;
+			}
+
+			return prefix && length >= key.length ? 0 : length - key.length;
+		}
+
+		/**
+		 * @return The index of the first name which isn't before the key
+		 */
+		int lowerBound(byte[] key) {
+			int low = 0, high = count;
+
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+
+				if (compare(mid, key, false) < 0)
+					low = mid + 1;
+				else
+					high = mid;
+			}
+
+			return low;
+		}
+
+		boolean contains(byte[] key) {
+			int i = lowerBound(key);
+			return i < count && compare(i, key, false) == 0;
+		}
+	}
+
+	private final Path directory;
+
+	private final Path recentFile;
+
+	private volatile Segment segment;
+
+	/**
+	 * Names which aren't in the index file yet
+	 */
+	private final NavigableSet<String> recent = new ConcurrentSkipListSet<>(String.CASE_INSENSITIVE_ORDER);
+
+	private Writer recentWriter;
+
+	private final Object rebuildLock = new Object();
+
+	private final AtomicBoolean compacting = new AtomicBoolean();
+
+	SystemNameIndex(Path directory) throws IOException {
+		this.directory = directory;
+		this.recentFile = directory.resolve("recent.txt");
+
+		Files.createDirectories(directory);
+
+		List<Path> generations;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "names.*.idx")) {
+			generations = new ArrayList<>();
+			files.forEach(generations::add);
+		}
+
+		generations.sort(Comparator.comparingLong(SystemNameIndex::generation).reversed());
+
+		for (Path file : generations) {
+			if (segment == null) {
+				try {
+					segment = map(file);
+					continue;
+				} catch (IOException e) {
+					log.warn("Ignoring unreadable system name index {}", file, e);
+				}
+			}
+
+			delete(file);
+		}
+
+		if (segment == null) segment = new Segment(null, 0, IntBuffer.allocate(0), ByteBuffer.allocate(0), false);
+
+		if (Files.exists(recentFile)) {
+			for (String name : Files.readAllLines(recentFile, StandardCharsets.UTF_8)) {
+				name = name.trim();
+				if (!name.isEmpty() && !segment.contains(name.getBytes(StandardCharsets.UTF_8))) recent.add(name);
+			}
+		}
+
+		recentWriter = Files.newBufferedWriter(recentFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+				StandardOpenOption.APPEND);
+
+		log.info("Loaded system name index with {} names ({} recent)", segment.getCount(), recent.size());
+	}
+
+	/**
+	 * @return The number of names in the index
+	 */
+	int size() {
+		return segment.getCount() + recent.size();
+	}
+
+	/**
+	 * @return Whether the index was built from a systems dump, so a name missing
+	 *         from it is probably not a known system
+	 */
+	boolean isComplete() {
+		return segment.isComplete();
+	}
+
+	/**
+	 * Finds names starting with the given prefix, ignoring case
+	 *
+	 * @return Up to <code>limit</code> names, in order
+	 */
+	List<String> complete(String prefix, int limit) {
+		byte[] key = prefix.getBytes(StandardCharsets.UTF_8);
+		Segment s = segment;
+
+		TreeSet<String> found = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+		for (int i = s.lowerBound(key); i < s.getCount() && found.size() < limit; i++) {
+			if (s.compare(i, key, true) != 0) break;
+			found.add(s.name(i));
+		}
+
+		int fromRecent = 0;
+		for (String name : recent.tailSet(prefix, true)) {
+			if (fromRecent++ >= limit || !name.regionMatches(true, 0, prefix, 0, prefix.length())) break;
+			found.add(name);
+		}
+
+		return found.stream().limit(limit).collect(Collectors.toList());
+	}
+
+	boolean contains(String name) {
+		return recent.contains(name) || segment.contains(name.getBytes(StandardCharsets.UTF_8));
+	}
+
+	void add(String name) {
+		addAll(Collections.singleton(name));
+	}
+
+	/**
+	 * Adds names to the index, if they aren't already in it
+	 */
+	void addAll(Collection<String> names) {
+		boolean added = false;
+
+		synchronized (this) {
+			for (String name : names) {
+				if (name == null || (name = name.trim()).isEmpty() || name.indexOf('\n') >= 0) continue;
+				if (contains(name) || !recent.add(name)) continue;
+
+				try {
+					recentWriter.write(name);
+					recentWriter.write('\n');
+					added = true;
+				} catch (IOException e) {
+					log.warn("Error saving system name {}", name, e);
+				}
+			}
+
+			if (added) {
+				try {
+					recentWriter.flush();
+				} catch (IOException e) {
+					log.warn("Error saving system names to {}", recentFile, e);
+				}
+			}
+		}
+
+		if (added && recent.size() >= compactThreshold) compact();
+	}
+
+	/**
+	 * Merges recently added names into the index file in the background
+	 */
+	private void compact() {
+		if (!compacting.compareAndSet(false, true)) return;
+
+		Thread t = new Thread(() -> {
+			try {
+				rebuild(null);
+			} catch (IOException e) {
+				log.error("Error merging recent system names into {}", directory, e);
+			} finally {
+				compacting.set(false);
+			}
+		});
+
+		t.setDaemon(true);
+		t.setPriority(Thread.MIN_PRIORITY);
+		t.setName("EDScan System Name Index");
+		t.start();
+	}
+
+	/**
+	 * Adds every system in a dump to the index
+	 *
+	 * @see SystemDump
+	 */
+	void importDump(Path dump) throws IOException {
+		rebuild(dump);
+	}
+
+	private void rebuild(Path dump) throws IOException {
+		synchronized (rebuildLock) {
+			Segment old = segment;
+			List<String> added = new ArrayList<>(recent);
+
+			Path file = directory.resolve("names." + (generation(old.getFile()) + 1) + ".idx");
+
+			try (ExternalSorter sorter = new ExternalSorter(directory, SystemNameIndex::compare, runBytes)) {
+				if (dump != null) SystemDump.read(dump, e -> sorter.add(e.getName().getBytes(StandardCharsets.UTF_8)));
+
+				for (int i = 0; i < old.getCount(); i++) {
+					sorter.add(old.bytes(i));
+				}
+
+				for (String name : added) {
+					sorter.add(name.getBytes(StandardCharsets.UTF_8));
+				}
+
+				write(sorter, file, old.isComplete() || dump != null);
+			}
+
+			Segment built = map(file);
+
+			synchronized (this) {
+				segment = built;
+				recent.removeAll(added);
+
+				// start the log again with only the names added while rebuilding
+				recentWriter.close();
+				Files.write(recentFile, recent, StandardCharsets.UTF_8);
+				recentWriter = Files.newBufferedWriter(recentFile, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+			}
+
+			if (old.getFile() != null) delete(old.getFile());
+
+			log.info("Built system name index {} with {} names", file, built.getCount());
+		}
+	}
+
+	/**
+	 * Writes sorted names to an index file, dropping duplicates
+	 */
+	private void write(ExternalSorter sorter, Path file, boolean complete) throws IOException {
+		Path offsetsFile = Files.createTempFile(directory, "offsets", ".tmp");
+		Path dataFile = Files.createTempFile(directory, "data", ".tmp");
+
+		try {
+			int[] count = { 0 };
+
+			try (DataOutputStream offsets = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(offsetsFile), 1 << 16));
+					DataOutputStream data = new DataOutputStream(
+							new BufferedOutputStream(Files.newOutputStream(dataFile), 1 << 16))) {
+				byte[][] last = { null };
+
+				sorter.merge(name -> {
+					if (name.length == 0 || (last[0] != null && compare(last[0], name) == 0)) return;
+
+					if ((long) data.size() + name.length > Integer.MAX_VALUE)
+						throw new IOException("Too many system names for one index");
+
+					offsets.writeInt(data.size());
+					data.write(name);
+
+					count[0]++;
+					last[0] = name;
+				});
+			}
+
+			ByteBuffer header = ByteBuffer.allocate(headerSize);
+			header.putInt(magic).putInt(version).putInt(complete ? flagComplete : 0).putInt(count[0]).flip();
+
+			ExternalSorter.assemble(file, header, offsetsFile, dataFile);
+		} finally {
+			Files.deleteIfExists(offsetsFile);
+			Files.deleteIfExists(dataFile);
+		}
+	}
+
+	private static Segment map(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < headerSize) throw new IOException("Truncated system name index " + file);
+
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, headerSize);
+			if (header.getInt(0) != magic || header.getInt(4) != version)
+				throw new IOException("Not a system name index: " + file);
+
+			int flags = header.getInt(8), count = header.getInt(12);
+			long dataStart = headerSize + 4L * count;
+
+			if (count < 0 || dataStart > size || size - dataStart > Integer.MAX_VALUE)
+				throw new IOException("Corrupt system name index " + file);
+
+			IntBuffer offsets = channel.map(FileChannel.MapMode.READ_ONLY, headerSize, 4L * count).asIntBuffer();
+			ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, dataStart, size - dataStart);
+
+			return new Segment(file, count, offsets, data, (flags & flagComplete) != 0);
+		}
+	}
+
+	private static long generation(Path file) {
+		if (file == null) return 0;
+
+		String name = file.getFileName().toString();
+
+		try {
+			return Long.parseLong(name.substring("names.".length(), name.length() - ".idx".length()));
+		} catch (NumberFormatException | IndexOutOfBoundsException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Deletes an old index file. This may fail on some platforms while the file
+	 * is still mapped, in which case it's deleted on the next start instead.
+	 */
+	private static void delete(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			log.debug("Could not delete old system name index {} yet", file, e);
+		}
+	}
+
+	static int fold(byte b) {
+		int c = b & 0xff;
+		return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+	}
+
+	/**
+	 * Compares UTF-8 encoded names, ignoring ASCII case
+	 */
+	static int compare(byte[] a, byte[] b) {
+		for (int i = 0; i < a.length && i < b.length; i++) {
+			int c = fold(a[i]) - fold(b[i]);
+			if (c != 0) return c;
+		}
+
+		return a.length - b.length;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		recentWriter.close();
+	}
+}
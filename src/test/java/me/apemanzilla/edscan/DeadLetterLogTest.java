@@ -0,0 +1,108 @@
+package me.apemanzilla.edscan;
+
+import static me.apemanzilla.edscan.MailboxTest.jump;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import me.apemanzilla.edjournal.events.FSDJump;
+import me.apemanzilla.edscan.Mailbox.OverflowPolicy;
+
+public class DeadLetterLogTest {
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	private Path file;
+
+	private Mailbox mailbox;
+
+	@Before
+	public void setUp() {
+		file = temp.getRoot().toPath().resolve("dead-letters.jsonl");
+		mailbox = new Mailbox(new EDScan(), "test", "Test", 1, OverflowPolicy.BLOCK);
+	}
+
+	private static List<String> replay(DeadLetterLog log) throws IOException {
+		List<String> systems = new ArrayList<>();
+		log.replay(e -> systems.add(((FSDJump) e).getStarSystem()));
+		return systems;
+	}
+
+	private void fail(DeadLetterLog log, String... systems) {
+		for (String system : systems) {
+			log.write(mailbox, this, jump(system), new IllegalStateException("test"));
+		}
+	}
+
+	@Test
+	public void replaysEventsInOrderAndClears() throws IOException {
+		DeadLetterLog log = new DeadLetterLog(file, 1024 * 1024);
+		fail(log, "A", "B");
+		log.writeRejected("EDDN", "{\"message\":{}}", "HTTP 400");
+		fail(log, "C");
+
+		// rejected outgoing messages are recorded but not replayed
+		assertEquals(4, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+		assertEquals(Arrays.asList("A", "B", "C"), replay(log));
+
+		assertFalse(Files.exists(file));
+		assertEquals(Collections.emptyList(), replay(log));
+	}
+
+	@Test
+	public void keepsOnlyOneBackupWhenFull() throws IOException {
+		DeadLetterLog log = new DeadLetterLog(file, 1);
+		fail(log, "A", "B", "C", "D");
+
+		// each letter fills the log, so only the last two are kept
+		assertEquals(1, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+		assertEquals(1, Files.readAllLines(file.resolveSibling(file.getFileName() + ".old"), StandardCharsets.UTF_8)
+				.size());
+
+		assertEquals(Arrays.asList("C", "D"), replay(log));
+	}
+
+	@Test
+	public void staysWithinTwiceTheLimit() throws IOException {
+		long limit = 2048;
+		DeadLetterLog log = new DeadLetterLog(file, limit);
+		Path backup = file.resolveSibling(file.getFileName() + ".old");
+
+		fail(log, "System 0");
+		long letter = Files.size(file);
+
+		for (int i = 1; i < 100; i++) {
+			fail(log, "System " + i);
+
+			// each file can pass the limit by one letter, which may be a little longer
+			// than the first
+			long total = Files.size(file) + (Files.exists(backup) ? Files.size(backup) : 0);
+			assertTrue("Dead letters took " + total + " bytes", total <= 2 * (limit + 2 * letter));
+		}
+
+		// the newest letters survive
+		List<String> replayed = replay(log);
+		assertEquals("System 99", replayed.get(replayed.size() - 1));
+	}
+
+	@Test
+	public void skipsUnreadableLetters() throws IOException {
+		DeadLetterLog log = new DeadLetterLog(file, 1024 * 1024);
+		fail(log, "A");
+		Files.write(file, "{\"eventClass\":\"not.a.Class\",\"event\":{}}\n".getBytes(StandardCharsets.UTF_8),
+				StandardOpenOption.APPEND);
+		fail(log, "B");
+
+		assertEquals(Arrays.asList("A", "B"), replay(log));
+	}
+}
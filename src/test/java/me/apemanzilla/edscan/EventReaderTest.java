@@ -0,0 +1,76 @@
+package me.apemanzilla.edscan;
+
+import static me.apemanzilla.edscan.MailboxTest.waitFor;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import me.apemanzilla.edjournal.events.FSDJump;
+import me.apemanzilla.edjournal.events.JournalEvent;
+import me.apemanzilla.edscan.journal.JournalPosition;
+import me.apemanzilla.edscan.journal.JournalTailer;
+
+public class EventReaderTest {
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void restartsWithoutRedelivering() throws Exception {
+		Path journal = temp.newFolder("journal").toPath();
+		Path file = journal.resolve("Journal.2017-10-01T000000.01.log");
+
+		StringBuilder lines = new StringBuilder();
+		for (String system : new String[] { "A", "B", "C", "D" }) {
+			lines.append("{ \"timestamp\":\"2017-10-01T00:00:00Z\", \"event\":\"FSDJump\", \"StarSystem\":\"")
+					.append(system).append("\", \"StarPos\":[0.0,0.0,0.0] }\r\n");
+		}
+		Files.write(file, lines.toString().getBytes(StandardCharsets.UTF_8));
+
+		AtomicInteger tails = new AtomicInteger();
+
+		// fails once, just after the second event has been passed on
+		JournalTailer tailer = new JournalTailer(journal) {
+			@Override
+			public void tail(JournalPosition from, BiConsumer<JournalPosition, JournalEvent> sink)
+					throws IOException, InterruptedException {
+				boolean fail = tails.incrementAndGet() == 1;
+				AtomicInteger passed = new AtomicInteger();
+
+				super.tail(from, (p, e) -> {
+					sink.accept(p, e);
+					if (fail && passed.incrementAndGet() == 2) throw new UncheckedIOException(new IOException("test"));
+				});
+			}
+		};
+
+		List<String> systems = Collections.synchronizedList(new ArrayList<>());
+		EventReader reader = new EventReader(tailer, new JournalPosition("", 0),
+				(p, e) -> systems.add(((FSDJump) e).getStarSystem()));
+
+		Thread thread = new Thread(reader);
+		thread.start();
+
+		try {
+			waitFor("the reader to restart", () -> tails.get() == 2);
+			waitFor("every event to be delivered", () -> systems.size() >= 4);
+			Thread.sleep(500);
+		} finally {
+			thread.interrupt();
+			thread.join();
+		}
+
+		assertEquals(Arrays.asList("A", "B", "C", "D"), systems);
+		assertEquals(new JournalPosition(file.getFileName().toString(), Files.size(file)), reader.getPosition());
+	}
+}
@@ -0,0 +1,258 @@
+package me.apemanzilla.edscan;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import me.apemanzilla.edjournal.events.FSDJump;
+import me.apemanzilla.edjournal.events.JournalEvent;
+import me.apemanzilla.edjournal.events.Location;
+import me.apemanzilla.edscan.Mailbox.OverflowPolicy;
+import me.apemanzilla.edscan.journal.CheckpointStore;
+import me.apemanzilla.edscan.journal.EventDecoder;
+import me.apemanzilla.edscan.journal.JournalPosition;
+
+public class MailboxTest {
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+
+	private CheckpointStore checkpoints;
+
+	private DeadLetterLog deadLetters;
+
+	private EDScan app;
+
+	@Before
+	public void setUp() throws IOException {
+		checkpoints = new CheckpointStore(temp.getRoot().toPath().resolve("checkpoints.json"));
+		deadLetters = new DeadLetterLog(temp.getRoot().toPath().resolve("dead-letters.jsonl"), 1024 * 1024);
+
+		app = new EDScan() {
+			@Override
+			public CheckpointStore getCheckpoints() {
+				return checkpoints;
+			}
+
+			@Override
+			public DeadLetterLog getDeadLetterLog() {
+				return deadLetters;
+			}
+
+			@Override
+			public void showErrorMessage(String title, String header, Throwable t) {
+				errors.add(header);
+			}
+		};
+	}
+
+	static FSDJump jump(String system) {
+		return EventDecoder.decode("{\"timestamp\":\"2017-10-01T00:00:00Z\",\"event\":\"FSDJump\",\"StarSystem\":\""
+				+ system + "\",\"StarPos\":[0,0,0]}", FSDJump.class);
+	}
+
+	static Location location(String system) {
+		return EventDecoder.decode("{\"timestamp\":\"2017-10-01T00:00:00Z\",\"event\":\"Location\",\"StarSystem\":\""
+				+ system + "\",\"StarPos\":[0,0,0]}", Location.class);
+	}
+
+	static JournalPosition at(long offset) {
+		return new JournalPosition("Journal.2017-10-01T000000.01.log", offset);
+	}
+
+	static String system(JournalEvent event) {
+		return event instanceof FSDJump ? ((FSDJump) event).getStarSystem() : ((Location) event).getStarSystem();
+	}
+
+	static void waitFor(String what, BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+		while (!condition.getAsBoolean()) {
+			assertTrue("Timed out waiting for " + what, System.nanoTime() < deadline);
+			Thread.sleep(10);
+		}
+	}
+
+	@Test
+	public void quarantinesListenerWhichKeepsFailing() throws Exception {
+		AtomicInteger calls = new AtomicInteger();
+		Consumer<FSDJump> failing = j -> {
+			calls.incrementAndGet();
+			throw new IllegalStateException("test");
+		};
+
+		app.addEventListener(FSDJump.class, failing);
+		Mailbox[] routed = app.mailboxesFor(FSDJump.class);
+		assertEquals(1, routed.length);
+
+		for (int i = 1; i <= Mailbox.quarantineThreshold + 2; i++) {
+			routed[0].post(at(i), jump("System " + i));
+		}
+
+		waitFor("the listener to be quarantined", () -> routed[0].getQuarantinedCount() == 1);
+		waitFor("the remaining events to be delivered", () -> routed[0].getQueueDepth() == 0);
+		Thread.sleep(100);
+
+		assertEquals(Mailbox.quarantineThreshold, calls.get());
+		assertEquals(Mailbox.quarantineThreshold, routed[0].getFailureCount());
+		assertEquals(1, errors.size());
+
+		// events aren't routed to the mailbox any more
+		assertEquals(0, routed[0].listenersFor(FSDJump.class).length);
+		assertEquals(0, app.mailboxesFor(FSDJump.class).length);
+
+		assertEquals(Mailbox.quarantineThreshold,
+				Files.readAllLines(deadLetters.getFile(), StandardCharsets.UTF_8).size());
+	}
+
+	@Test
+	public void onlyQuarantinesConsecutiveFailures() throws Exception {
+		Mailbox mailbox = new Mailbox(app, "test", "Test", 100, OverflowPolicy.BLOCK);
+		List<String> handled = Collections.synchronizedList(new ArrayList<>());
+
+		mailbox.addListener(FSDJump.class, j -> {
+			handled.add(j.getStarSystem());
+			if (!j.getStarSystem().equals("OK")) throw new IllegalStateException("test");
+		});
+
+		List<String> systems = new ArrayList<>();
+		for (int i = 0; i < Mailbox.quarantineThreshold - 1; i++) {
+			systems.add("Fail");
+		}
+		systems.add("OK");
+		systems.addAll(systems);
+
+		for (int i = 0; i < systems.size(); i++) {
+			mailbox.post(at(i + 1), jump(systems.get(i)));
+		}
+
+		waitFor("the events to be delivered", () -> handled.size() == systems.size());
+
+		assertEquals(0, mailbox.getQuarantinedCount());
+		assertEquals(2 * (Mailbox.quarantineThreshold - 1), mailbox.getFailureCount());
+		assertTrue(errors.isEmpty());
+	}
+
+	@Test
+	public void skipsEventsBeforeResumePosition() throws Exception {
+		Mailbox mailbox = new Mailbox(app, "test", "Test", 100, OverflowPolicy.BLOCK);
+		List<String> handled = Collections.synchronizedList(new ArrayList<>());
+		mailbox.addListener(FSDJump.class, j -> handled.add(j.getStarSystem()));
+
+		mailbox.setResumeFrom(at(2));
+		mailbox.post(at(1), jump("A"));
+		mailbox.post(at(2), jump("B"));
+		mailbox.post(at(3), jump("C"));
+
+		waitFor("the event to be delivered", () -> checkpoints.get("test").equals(Optional.of(at(3))));
+		assertEquals(Arrays.asList("C"), handled);
+	}
+
+	/**
+	 * Posts events to a mailbox while its listener is busy with the first one
+	 *
+	 * @return The events the listener handled
+	 */
+	private List<String> postWhileBusy(Mailbox mailbox, JournalEvent... events) throws Exception {
+		List<String> handled = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch busy = new CountDownLatch(1), release = new CountDownLatch(1);
+
+		Consumer<JournalEvent> listener = e -> {
+			handled.add(system(e));
+			busy.countDown();
+
+			try {
+				release.await();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		};
+		mailbox.addListener(JournalEvent.class, listener);
+
+		mailbox.post(at(1), events[0]);
+		assertTrue(busy.await(10, TimeUnit.SECONDS));
+
+		for (int i = 1; i < events.length; i++) {
+			mailbox.post(at(i + 1), events[i]);
+		}
+
+		release.countDown();
+		waitFor("the events to be delivered", () -> mailbox.getQueueDepth() == 0);
+		waitFor("the last event to be handled", () -> checkpoints.get(mailbox.getId()).isPresent()
+				&& checkpoints.get(mailbox.getId()).get().getOffset() == events.length);
+
+		return new ArrayList<>(handled);
+	}
+
+	@Test
+	public void dropsOldestEventWhenFull() throws Exception {
+		Mailbox mailbox = new Mailbox(app, "test", "Test", 2, OverflowPolicy.DROP_OLDEST);
+
+		assertEquals(Arrays.asList("A", "C", "D"), postWhileBusy(mailbox, jump("A"), jump("B"), jump("C"), jump("D")));
+		assertEquals(1, mailbox.getDroppedCount());
+	}
+
+	@Test
+	public void coalescesEventsOfSameClassWhenFull() throws Exception {
+		Mailbox mailbox = new Mailbox(app, "test", "Test", 2, OverflowPolicy.COALESCE);
+
+		assertEquals(Arrays.asList("A", "Here", "C"),
+				postWhileBusy(mailbox, jump("A"), jump("B"), location("Here"), jump("C")));
+		assertEquals(1, mailbox.getDroppedCount());
+	}
+
+	@Test
+	public void blocksUntilThereIsRoom() throws Exception {
+		Mailbox mailbox = new Mailbox(app, "test", "Test", 1, OverflowPolicy.BLOCK);
+		CountDownLatch release = new CountDownLatch(1);
+		List<String> handled = Collections.synchronizedList(new ArrayList<>());
+
+		mailbox.addListener(FSDJump.class, j -> {
+			handled.add(j.getStarSystem());
+
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+
+		mailbox.post(at(1), jump("A"));
+		waitFor("the first event to be taken", () -> handled.size() == 1);
+		mailbox.post(at(2), jump("B"));
+
+		Thread poster = new Thread(() -> {
+			try {
+				mailbox.post(at(3), jump("C"));
+			} catch (InterruptedException e) {
+				// stopped
+			}
+		});
+		poster.start();
+
+		Thread.sleep(200);
+		assertTrue(poster.isAlive());
+
+		release.countDown();
+		poster.join(10000);
+		assertFalse(poster.isAlive());
+
+		waitFor("the events to be delivered", () -> handled.size() == 3);
+		assertEquals(Arrays.asList("A", "B", "C"), handled);
+		assertEquals(0, mailbox.getDroppedCount());
+	}
+}
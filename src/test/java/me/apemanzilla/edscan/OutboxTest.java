@@ -0,0 +1,151 @@
+package me.apemanzilla.edscan;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OutboxTest {
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	private Path file;
+
+	private Outbox outbox;
+
+	@Before
+	public void setUp() throws IOException {
+		file = temp.getRoot().toPath().resolve("outbox.jsonl");
+		outbox = new Outbox(file);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		outbox.close();
+	}
+
+	private void reopen() throws IOException {
+		outbox.close();
+		outbox = new Outbox(file);
+	}
+
+	private void append(String... messages) throws IOException {
+		for (String m : messages) {
+			outbox.append(m.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	private static List<String> text(List<Outbox.Message> messages) {
+		return messages.stream().map(m -> new String(m.getData(), StandardCharsets.UTF_8))
+				.collect(Collectors.toList());
+	}
+
+	@Test
+	public void takesMessagesInOrderWithinLimits() throws Exception {
+		append("{\"a\":1}", "{\"b\":2}", "{\"c\":3}");
+
+		assertEquals(Arrays.asList("{\"a\":1}", "{\"b\":2}"), text(outbox.take(2, 1024)));
+		assertEquals(Arrays.asList("{\"c\":3}"), text(outbox.take(2, 1024)));
+	}
+
+	@Test
+	public void takesOneMessageLargerThanLimit() throws Exception {
+		append("{\"a\":\"a long message\"}", "{\"b\":2}");
+
+		assertEquals(Arrays.asList("{\"a\":\"a long message\"}"), text(outbox.take(10, 4)));
+		assertEquals(Arrays.asList("{\"b\":2}"), text(outbox.take(10, 4)));
+	}
+
+	@Test
+	public void takesUnacknowledgedMessagesAgainAfterReopening() throws Exception {
+		append("{\"a\":1}", "{\"b\":2}", "{\"c\":3}");
+
+		List<Outbox.Message> taken = outbox.take(3, 1024);
+		outbox.ack(taken.get(0).getEnd());
+		reopen();
+
+		assertEquals(Arrays.asList("{\"b\":2}", "{\"c\":3}"), text(outbox.take(3, 1024)));
+	}
+
+	@Test
+	public void discardsHalfWrittenMessageWhenReopening() throws Exception {
+		append("{\"a\":1}", "{\"b\":2}");
+		long complete = Files.size(file);
+
+		// the application exited part way through appending
+		outbox.close();
+		Files.write(file, "{\"c\":".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+		outbox = new Outbox(file);
+
+		assertEquals(complete, Files.size(file));
+		assertEquals(complete, outbox.getPendingBytes());
+
+		append("{\"d\":4}");
+		assertEquals(Arrays.asList("{\"a\":1}", "{\"b\":2}", "{\"d\":4}"), text(outbox.take(10, 1024)));
+	}
+
+	@Test
+	public void discardsHalfWrittenMessageAfterAcknowledged() throws Exception {
+		append("{\"a\":1}", "{\"b\":2}");
+		outbox.ack(outbox.take(1, 1024).get(0).getEnd());
+
+		outbox.close();
+		Files.write(file, "{\"c\":".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+		outbox = new Outbox(file);
+
+		append("{\"d\":4}");
+		assertEquals(Arrays.asList("{\"b\":2}", "{\"d\":4}"), text(outbox.take(10, 1024)));
+	}
+
+	@Test
+	public void truncatesOnceEverythingIsAcknowledged() throws Exception {
+		append("{\"a\":1}", "{\"b\":2}");
+
+		List<Outbox.Message> taken = outbox.take(10, 1024);
+		outbox.ack(taken.get(0).getEnd());
+		assertTrue(Files.size(file) > 0);
+
+		outbox.ack(taken.get(1).getEnd());
+		assertEquals(0, Files.size(file));
+		assertEquals(0, outbox.getPendingBytes());
+
+		// starting again from the beginning of the file
+		append("{\"c\":3}");
+		reopen();
+		assertEquals(Arrays.asList("{\"c\":3}"), text(outbox.take(10, 1024)));
+	}
+
+	@Test
+	public void acknowledgesOnlyWhatWasTaken() throws Exception {
+		append("{\"a\":1}", "{\"b\":2}");
+
+		List<Outbox.Message> taken = outbox.take(1, 1024);
+		outbox.ack(Files.size(file));
+
+		assertEquals(Files.size(file) - taken.get(0).getEnd(), outbox.getPendingBytes());
+		assertEquals(Arrays.asList("{\"b\":2}"), text(outbox.take(10, 1024)));
+	}
+
+	@Test
+	public void ignoresAcknowledgementBeyondEndOfFile() throws Exception {
+		append("{\"a\":1}");
+		outbox.close();
+
+		Files.write(file.resolveSibling(file.getFileName() + ".ack"), "1000".getBytes(StandardCharsets.US_ASCII));
+		outbox = new Outbox(file);
+
+		assertEquals(Arrays.asList("{\"a\":1}"), text(outbox.take(10, 1024)));
+	}
+}
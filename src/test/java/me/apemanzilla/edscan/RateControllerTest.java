@@ -0,0 +1,210 @@
+package me.apemanzilla.edscan;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mashape.unirest.http.HttpResponse;
+import com.mashape.unirest.http.Unirest;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import me.apemanzilla.edscan.RateController.ThrottledException;
+
+public class RateControllerTest {
+	/**
+	 * The status and headers the fake server gives for each request, in order.
+	 * Once these run out every request succeeds.
+	 */
+	private final Queue<Map<String, String>> responses = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * The time each request was received, in nanoseconds
+	 */
+	private final List<Long> requests = Collections.synchronizedList(new ArrayList<>());
+
+	private HttpServer server;
+
+	private String url;
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", this::handle);
+		server.start();
+
+		url = "http://localhost:" + server.getAddress().getPort() + "/test";
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		requests.add(System.nanoTime());
+
+		Map<String, String> response = responses.poll();
+		int status = 200;
+
+		if (response != null) {
+			for (Map.Entry<String, String> e : response.entrySet()) {
+				if (e.getKey().equals("status")) status = Integer.parseInt(e.getValue());
+				else exchange.getResponseHeaders().add(e.getKey(), e.getValue());
+			}
+		}
+
+		byte[] body = Integer.toString(status).getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private static Map<String, String> respond(int status, String... headers) {
+		Map<String, String> response = new HashMap<>();
+		response.put("status", Integer.toString(status));
+
+		for (int i = 0; i < headers.length; i += 2) {
+			response.put(headers[i], headers[i + 1]);
+		}
+
+		return response;
+	}
+
+	private static double seconds(long nanos) {
+		return nanos / (double) TimeUnit.SECONDS.toNanos(1);
+	}
+
+	@Test
+	public void raisesRateAfterSuccess() throws Exception {
+		RateController controller = new RateController();
+		double initial = controller.getRate("localhost");
+
+		assertEquals(200, controller.execute(Unirest.get(url)).getStatus());
+		assertEquals(200, controller.execute(Unirest.get(url)).getStatus());
+
+		assertEquals(initial + 0.2, controller.getRate("localhost"), 1e-9);
+	}
+
+	@Test
+	public void leavesRateAloneAfterErrors() throws Exception {
+		RateController controller = new RateController();
+		double initial = controller.getRate("localhost");
+
+		responses.add(respond(404));
+		responses.add(respond(500));
+
+		assertEquals(404, controller.execute(Unirest.get(url)).getStatus());
+		assertEquals(500, controller.execute(Unirest.get(url)).getStatus());
+
+		assertEquals(initial, controller.getRate("localhost"), 1e-9);
+	}
+
+	@Test
+	public void halvesRateAndRetriesWhenThrottled() throws Exception {
+		RateController controller = new RateController();
+		double initial = controller.getRate("localhost");
+
+		responses.add(respond(429, "Retry-After", "0"));
+		responses.add(respond(503, "Retry-After", "0"));
+
+		HttpResponse<String> response = controller.execute(Unirest.get(url));
+
+		assertEquals(200, response.getStatus());
+		assertEquals(3, requests.size());
+		assertEquals(initial / 4 + 0.1, controller.getRate("localhost"), 1e-9);
+
+		// the retries are paced at the lowered rates
+		assertTrue(seconds(requests.get(2) - requests.get(1)) >= 1 / (initial / 2) * 0.9);
+	}
+
+	@Test
+	public void throwsWhenStillThrottled() throws Exception {
+		RateController controller = new RateController(3);
+
+		for (int i = 0; i < 3; i++) {
+			responses.add(respond(429, "Retry-After", "0"));
+		}
+
+		try {
+			controller.execute(Unirest.get(url));
+			fail("Throttled request wasn't reported");
+		} catch (ThrottledException e) {
+			assertEquals(429, e.getStatus());
+		}
+
+		assertEquals(3, requests.size());
+	}
+
+	@Test
+	public void waitsForRetryAfter() throws Exception {
+		RateController controller = new RateController();
+		responses.add(respond(429, "Retry-After", "2"));
+
+		controller.execute(Unirest.get(url));
+
+		assertEquals(2, requests.size());
+		assertTrue(seconds(requests.get(1) - requests.get(0)) >= 1.9);
+	}
+
+	@Test
+	public void parsesRetryAfter() {
+		assertEquals(TimeUnit.SECONDS.toNanos(5), RateController.parseRetryAfter("5"));
+
+		String date = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(30));
+		long delay = RateController.parseRetryAfter(date);
+		assertTrue(delay > TimeUnit.SECONDS.toNanos(25) && delay <= TimeUnit.SECONDS.toNanos(30));
+
+		String past = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).minusHours(1));
+		assertEquals(0, RateController.parseRetryAfter(past));
+
+		assertEquals(TimeUnit.SECONDS.toNanos(1), RateController.parseRetryAfter("soon"));
+	}
+
+	@Test
+	public void waitsForRateLimitReset() throws Exception {
+		RateController controller = new RateController();
+		responses.add(respond(200, "X-Rate-Limit-Remaining", "0", "X-Rate-Limit-Reset", "2"));
+
+		controller.execute(Unirest.get(url));
+		controller.execute(Unirest.get(url));
+
+		assertTrue(seconds(requests.get(1) - requests.get(0)) >= 1.9);
+	}
+
+	@Test
+	public void slowsToRemainingRateLimit() throws Exception {
+		RateController controller = new RateController();
+		responses.add(respond(200, "X-Rate-Limit-Remaining", "10", "X-Rate-Limit-Reset", "100"));
+
+		controller.execute(Unirest.get(url));
+
+		// capped at 10 requests in 100 seconds, before the increase for succeeding
+		assertEquals(0.1 + 0.1, controller.getRate("localhost"), 1e-9);
+	}
+
+	@Test
+	public void ignoresInvalidRateLimitHeaders() throws Exception {
+		RateController controller = new RateController();
+		double initial = controller.getRate("localhost");
+		responses.add(respond(200, "X-Rate-Limit-Remaining", "lots", "X-Rate-Limit-Reset", "100"));
+
+		controller.execute(Unirest.get(url));
+
+		assertEquals(initial + 0.1, controller.getRate("localhost"), 1e-9);
+	}
+}
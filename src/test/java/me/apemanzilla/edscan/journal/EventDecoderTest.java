@@ -0,0 +1,98 @@
+package me.apemanzilla.edscan.journal;
+
+import static org.junit.Assert.*;
+
+import java.time.Instant;
+
+import org.junit.Test;
+
+import me.apemanzilla.edjournal.events.*;
+
+public class EventDecoderTest {
+	private static JournalEvent decode(String line) {
+		return EventDecoder.decode(line).orElseThrow(() -> new AssertionError("Line wasn't decoded: " + line));
+	}
+
+	@Test
+	public void decodesJump() {
+		FSDJump jump = (FSDJump) decode("{ \"timestamp\":\"2017-10-01T00:01:00Z\", \"event\":\"FSDJump\", "
+				+ "\"StarSystem\":\"Alpha Centauri\", \"StarPos\":[3.03125,-0.09375,3.15625], \"JumpDist\":4.377 }");
+
+		assertEquals(Instant.parse("2017-10-01T00:01:00Z"), jump.getTimestamp());
+		assertEquals("Alpha Centauri", jump.getStarSystem());
+		assertArrayEquals(new double[] { 3.03125, -0.09375, 3.15625 }, jump.getStarPos(), 0);
+	}
+
+	@Test
+	public void decodesLocation() {
+		Location location = (Location) decode("{ \"timestamp\":\"2017-10-01T00:00:00Z\", \"event\":\"Location\", "
+				+ "\"Docked\":true, \"StarSystem\":\"Sol\", \"StarPos\":[0.0,0.0,0.0] }");
+
+		assertEquals("Sol", location.getStarSystem());
+		assertArrayEquals(new double[] { 0, 0, 0 }, location.getStarPos(), 0);
+	}
+
+	@Test
+	public void decodesDocked() {
+		JournalEvent docked = decode("{ \"timestamp\":\"2017-10-01T00:02:00Z\", \"event\":\"Docked\", "
+				+ "\"StationName\":\"Abraham Lincoln\", \"StationType\":\"Orbis\", \"StarSystem\":\"Sol\" }");
+
+		assertTrue(docked instanceof Docked);
+		assertEquals(Instant.parse("2017-10-01T00:02:00Z"), docked.getTimestamp());
+	}
+
+	@Test
+	public void decodesLoadGame() {
+		LoadGame load = (LoadGame) decode("{ \"timestamp\":\"2017-10-01T00:00:00Z\", \"event\":\"LoadGame\", "
+				+ "\"Commander\":\"Jameson\", \"Ship\":\"CobraMkIII\", \"GameMode\":\"Solo\" }");
+
+		assertEquals("Jameson", load.getCommander());
+	}
+
+	@Test
+	public void decodesStarScanAsStar() {
+		JournalEvent scan = decode("{ \"timestamp\":\"2017-10-01T00:03:00Z\", \"event\":\"Scan\", "
+				+ "\"BodyName\":\"Sol\", \"DistanceFromArrivalLS\":0.0, \"StarType\":\"G\", \"StellarMass\":1.0, "
+				+ "\"Radius\":695700000.0, \"SurfaceTemperature\":5778.0 }");
+
+		assertTrue(scan instanceof Scan.StarScan);
+		Scan.StarScan star = (Scan.StarScan) scan;
+		assertEquals("Sol", star.getBodyName());
+		assertEquals("G", star.getStarType());
+		assertEquals(5778, star.getSurfaceTemperature(), 0);
+	}
+
+	@Test
+	public void decodesPlanetScanAsAnotherKind() {
+		JournalEvent scan = decode("{ \"timestamp\":\"2017-10-01T00:04:00Z\", \"event\":\"Scan\", "
+				+ "\"BodyName\":\"Earth\", \"DistanceFromArrivalLS\":499.0, \"TidalLock\":false, "
+				+ "\"TerraformState\":\"\", \"PlanetClass\":\"Earthlike body\", \"Atmosphere\":\"\", "
+				+ "\"Radius\":6371000.0, \"SurfaceTemperature\":288.0, \"Landable\":false }");
+
+		assertTrue(scan instanceof Scan);
+		assertFalse(scan instanceof Scan.StarScan);
+		assertEquals("Earth", ((Scan) scan).getBodyName());
+	}
+
+	@Test
+	public void doesNotDecodeBeltScanAsStar() {
+		String belt = "{ \"timestamp\":\"2017-10-01T00:05:00Z\", \"event\":\"Scan\", "
+				+ "\"BodyName\":\"Sol A Belt Cluster 1\", \"DistanceFromArrivalLS\":520.0 }";
+
+		assertFalse(EventDecoder.decode(belt).filter(Scan.StarScan.class::isInstance).isPresent());
+	}
+
+	@Test
+	public void skipsUnknownEvents() {
+		assertFalse(EventDecoder.decode("{ \"timestamp\":\"2017-10-01T00:00:00Z\", \"event\":\"NotAnEvent\" }")
+				.isPresent());
+		assertFalse(EventDecoder.decode("{ \"timestamp\":\"2017-10-01T00:00:00Z\" }").isPresent());
+		assertFalse(EventDecoder.decode("  ").isPresent());
+	}
+
+	@Test
+	public void namesKindsAfterTheirFamily() {
+		assertEquals("Scan", EventDecoder.eventName(Scan.StarScan.class));
+		assertEquals("FSDJump", EventDecoder.eventName(FSDJump.class));
+	}
+}
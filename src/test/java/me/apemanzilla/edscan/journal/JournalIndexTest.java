@@ -0,0 +1,219 @@
+package me.apemanzilla.edscan.journal;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import me.apemanzilla.edjournal.events.FSDJump;
+import me.apemanzilla.edjournal.events.Scan;
+
+public class JournalIndexTest {
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	private Path journal;
+
+	private Path indexFile;
+
+	@Before
+	public void setUp() throws IOException {
+		journal = temp.newFolder("journal").toPath();
+		indexFile = temp.getRoot().toPath().resolve("journal.idx");
+	}
+
+	static String jump(String timestamp, String system) {
+		return "{ \"timestamp\":\"" + timestamp + "\", \"event\":\"FSDJump\", \"StarSystem\":\"" + system
+				+ "\", \"StarPos\":[1.0,2.0,3.0] }";
+	}
+
+	static void append(Path file, String... lines) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (String line : lines) {
+			sb.append(line).append("\r\n");
+		}
+
+		Files.write(file, sb.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE,
+				StandardOpenOption.APPEND);
+	}
+
+	private static List<String> systems(JournalIndex index, Instant from, Instant to) {
+		return index.eventsBetween(FSDJump.class, from, to).map(FSDJump::getStarSystem).collect(Collectors.toList());
+	}
+
+	private void writeJournal() throws IOException {
+		append(journal.resolve("Journal.2017-10-01T000000.01.log"),
+				"{ \"timestamp\":\"2017-10-01T00:00:00Z\", \"event\":\"Fileheader\", \"part\":1 }",
+				jump("2017-10-01T00:01:00Z", "Sol"),
+				"{ \"timestamp\":\"2017-10-01T00:02:00Z\", \"event\":\"Docked\", \"StationName\":\"Abraham Lincoln\" }",
+				jump("2017-10-01T00:03:00Z", "Alpha Centauri"));
+		append(journal.resolve("Journal.2017-10-02T000000.01.log"), jump("2017-10-02T00:01:00Z", "Barnard's Star"));
+	}
+
+	@Test
+	public void indexesEveryJournalFile() throws IOException {
+		writeJournal();
+
+		JournalIndex index = new JournalIndex(journal, indexFile);
+
+		assertEquals(Arrays.asList("Sol", "Alpha Centauri", "Barnard's Star"), systems(index, null, null));
+		assertEquals("Barnard's Star", index.lastEventOfType(FSDJump.class).get().getStarSystem());
+		assertTrue(Files.size(indexFile) > 0);
+	}
+
+	@Test
+	public void reloadsInsteadOfRebuilding() throws IOException {
+		writeJournal();
+		new JournalIndex(journal, indexFile).update();
+
+		// rewrite the first file with the same lengths but a later year, so a
+		// rebuilt index would have different timestamps to the saved one
+		Path first = journal.resolve("Journal.2017-10-01T000000.01.log");
+		Files.write(first, new String(Files.readAllBytes(first), StandardCharsets.UTF_8).replace("2017", "2018")
+				.getBytes(StandardCharsets.UTF_8));
+
+		byte[] saved = Files.readAllBytes(indexFile);
+		JournalIndex reloaded = new JournalIndex(journal, indexFile);
+
+		assertEquals(Arrays.asList("Sol", "Alpha Centauri"),
+				systems(reloaded, Instant.parse("2017-10-01T00:00:00Z"), Instant.parse("2017-10-02T00:00:00Z")));
+		assertArrayEquals(saved, Files.readAllBytes(indexFile));
+	}
+
+	@Test
+	public void indexesOnlyNewLines() throws IOException {
+		writeJournal();
+		new JournalIndex(journal, indexFile).update();
+		byte[] before = Files.readAllBytes(indexFile);
+
+		append(journal.resolve("Journal.2017-10-02T000000.01.log"), jump("2017-10-02T00:02:00Z", "Wolf 359"));
+
+		JournalIndex reloaded = new JournalIndex(journal, indexFile);
+		assertEquals(Arrays.asList("Sol", "Alpha Centauri", "Barnard's Star", "Wolf 359"),
+				systems(reloaded, null, null));
+
+		// the new line is appended to the index, leaving what was there alone
+		byte[] after = Files.readAllBytes(indexFile);
+		assertTrue(after.length > before.length);
+		assertArrayEquals(before, Arrays.copyOf(after, before.length));
+	}
+
+	@Test
+	public void discardsTruncatedTail() throws IOException {
+		writeJournal();
+		new JournalIndex(journal, indexFile).update();
+
+		byte[] complete = Files.readAllBytes(indexFile);
+
+		// lose the end of the last update, as if the write was interrupted
+		try (FileChannel ch = FileChannel.open(indexFile, StandardOpenOption.WRITE)) {
+			ch.truncate(complete.length - 5);
+		}
+
+		JournalIndex reloaded = new JournalIndex(journal, indexFile);
+		assertTrue(Files.size(indexFile) < complete.length - 5);
+
+		assertEquals(Arrays.asList("Sol", "Alpha Centauri", "Barnard's Star"), systems(reloaded, null, null));
+		assertArrayEquals(complete, Files.readAllBytes(indexFile));
+	}
+
+	@Test
+	public void discardsGarbageTail() throws IOException {
+		writeJournal();
+		new JournalIndex(journal, indexFile).update();
+
+		byte[] complete = Files.readAllBytes(indexFile);
+		Files.write(indexFile, new byte[] { 'X', 1, 2, 3 }, StandardOpenOption.APPEND);
+
+		JournalIndex reloaded = new JournalIndex(journal, indexFile);
+
+		assertArrayEquals(complete, Files.readAllBytes(indexFile));
+		assertEquals(Arrays.asList("Sol", "Alpha Centauri", "Barnard's Star"), systems(reloaded, null, null));
+	}
+
+	@Test
+	public void rebuildsUnsupportedIndex() throws IOException {
+		writeJournal();
+		Files.write(indexFile, "not an index".getBytes(StandardCharsets.UTF_8));
+
+		JournalIndex index = new JournalIndex(journal, indexFile);
+
+		assertEquals(Arrays.asList("Sol", "Alpha Centauri", "Barnard's Star"), systems(index, null, null));
+	}
+
+	@Test
+	public void eventsBetweenIncludesStartAndExcludesEnd() throws IOException {
+		append(journal.resolve("Journal.2017-10-01T000000.01.log"), jump("2017-10-01T00:00:00Z", "A"),
+				jump("2017-10-01T00:01:00Z", "B"), jump("2017-10-01T00:01:00Z", "C"),
+				jump("2017-10-01T00:02:00Z", "D"));
+
+		JournalIndex index = new JournalIndex(journal, indexFile);
+		Instant t0 = Instant.parse("2017-10-01T00:00:00Z"), t1 = Instant.parse("2017-10-01T00:01:00Z"),
+				t2 = Instant.parse("2017-10-01T00:02:00Z");
+
+		assertEquals(Arrays.asList("B", "C"), systems(index, t1, t2));
+		assertEquals(Arrays.asList("A", "B", "C"), systems(index, null, t2));
+		assertEquals(Arrays.asList("B", "C", "D"), systems(index, t1, null));
+		assertEquals(Arrays.asList("A", "B", "C", "D"), systems(index, t0.minusSeconds(60), t2.plusMillis(1)));
+		assertEquals(Arrays.asList("D"), systems(index, t1.plusMillis(1), null));
+
+		assertTrue(systems(index, t1, t1).isEmpty());
+		assertTrue(systems(index, t2, t1).isEmpty());
+		assertTrue(systems(index, t2.plusMillis(1), null).isEmpty());
+
+		assertEquals(Arrays.asList("D"), index.eventsAfter(FSDJump.class, t1).map(FSDJump::getStarSystem)
+				.collect(Collectors.toList()));
+	}
+
+	@Test
+	public void lastEventBeforePosition() throws IOException {
+		Path file = journal.resolve("Journal.2017-10-01T000000.01.log");
+		append(file, jump("2017-10-01T00:00:00Z", "A"));
+		long afterA = Files.size(file);
+		append(file, jump("2017-10-01T00:01:00Z", "B"));
+
+		JournalIndex index = new JournalIndex(journal, indexFile);
+		String name = file.getFileName().toString();
+
+		assertEquals("A", index.lastEventBefore(FSDJump.class, new JournalPosition(name, afterA)).get()
+				.getStarSystem());
+		assertEquals("B", index.lastEventBefore(FSDJump.class, new JournalPosition(name, afterA + 1)).get()
+				.getStarSystem());
+		assertFalse(index.lastEventBefore(FSDJump.class, new JournalPosition(name, 0)).isPresent());
+		assertEquals("B", index.lastEventBefore(FSDJump.class, null).get().getStarSystem());
+	}
+
+	@Test
+	public void looksUpKindsOfEvent() throws IOException {
+		append(journal.resolve("Journal.2017-10-01T000000.01.log"),
+				"{ \"timestamp\":\"2017-10-01T00:00:00Z\", \"event\":\"Scan\", \"BodyName\":\"Sol\", \"StarType\":\"G\" }",
+				"{ \"timestamp\":\"2017-10-01T00:01:00Z\", \"event\":\"Scan\", \"BodyName\":\"Earth\", \"PlanetClass\":\"Earthlike body\" }");
+
+		JournalIndex index = new JournalIndex(journal, indexFile);
+
+		assertEquals("G", index.lastEventOfType(Scan.StarScan.class).get().getStarType());
+		assertEquals(1, index.eventsBetween(Scan.StarScan.class, null, null).count());
+		assertEquals(2, index.eventsBetween(Scan.class, null, null).count());
+	}
+
+	@Test
+	public void emptyJournalHasNoEvents() throws IOException {
+		JournalIndex index = new JournalIndex(journal.resolve("missing"), indexFile);
+
+		assertFalse(index.lastEventOfType(FSDJump.class).isPresent());
+		assertEquals(0, index.eventsBetween(FSDJump.class, null, null).count());
+	}
+}
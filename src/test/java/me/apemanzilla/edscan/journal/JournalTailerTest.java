@@ -0,0 +1,205 @@
+package me.apemanzilla.edscan.journal;
+
+import static me.apemanzilla.edscan.journal.JournalIndexTest.append;
+import static me.apemanzilla.edscan.journal.JournalIndexTest.jump;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import me.apemanzilla.edjournal.events.FSDJump;
+
+public class JournalTailerTest {
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	private Path journal;
+
+	private Path checkpointFile;
+
+	@Before
+	public void setUp() throws IOException {
+		journal = temp.newFolder("journal").toPath();
+		checkpointFile = temp.getRoot().toPath().resolve("checkpoints.json");
+	}
+
+	/**
+	 * Tails the journal from the given position until it has read everything
+	 * there is to read, recording each jump's system and updating the consumer's
+	 * checkpoint as it goes, then saves the checkpoints
+	 */
+	private List<String> read(JournalPosition from, CheckpointStore checkpoints) throws Exception {
+		List<String> systems = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch caughtUp = new CountDownLatch(1);
+
+		JournalTailer tailer = new JournalTailer(journal);
+		tailer.setOnLinesRead(() -> {
+			// the tailer only stops reading once there are no newer files either
+			try {
+				if (!tailer.endPosition().equals(checkpoints.get("test").orElse(null))) return;
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+
+			caughtUp.countDown();
+		});
+
+		Thread reader = new Thread(() -> {
+			try {
+				tailer.tail(from, (position, event) -> {
+					if (event instanceof FSDJump) systems.add(((FSDJump) event).getStarSystem());
+					checkpoints.update("test", position);
+				});
+			} catch (InterruptedException | ClosedByInterruptException e) {
+				// done
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+
+		// with nothing new to read, give the tailer time to deliver anything it
+		// shouldn't
+		boolean upToDate = from.equals(tailer.endPosition());
+
+		reader.start();
+		try {
+			if (upToDate) Thread.sleep(1000);
+			else assertTrue("Journal wasn't read", caughtUp.await(10, TimeUnit.SECONDS));
+		} finally {
+			reader.interrupt();
+			reader.join();
+		}
+
+		checkpoints.save();
+		return new ArrayList<>(systems);
+	}
+
+	/**
+	 * Reads the journal from the saved checkpoint, as happens on startup
+	 */
+	private List<String> resume() throws Exception {
+		CheckpointStore checkpoints = new CheckpointStore(checkpointFile);
+		return read(checkpoints.get("test").get(), checkpoints);
+	}
+
+	@Test
+	public void resumesWithoutRedelivering() throws Exception {
+		Path file = journal.resolve("Journal.2017-10-01T000000.01.log");
+		append(file, jump("2017-10-01T00:01:00Z", "Sol"), jump("2017-10-01T00:02:00Z", "Alpha Centauri"));
+
+		assertEquals(Arrays.asList("Sol", "Alpha Centauri"),
+				read(new JournalPosition("", 0), new CheckpointStore(checkpointFile)));
+
+		append(file, jump("2017-10-01T00:03:00Z", "Barnard's Star"));
+
+		assertEquals(Arrays.asList("Barnard's Star"), resume());
+		assertEquals(new JournalPosition(file.getFileName().toString(), Files.size(file)),
+				new CheckpointStore(checkpointFile).get("test").get());
+
+		// nothing new, so nothing is delivered
+		assertEquals(Collections.emptyList(), resume());
+	}
+
+	@Test
+	public void readsOnlyAfterCheckpoint() throws Exception {
+		Path file = journal.resolve("Journal.2017-10-01T000000.01.log");
+		append(file, jump("2017-10-01T00:01:00Z", "Sol"), jump("2017-10-01T00:02:00Z", "Alpha Centauri"));
+		read(new JournalPosition("", 0), new CheckpointStore(checkpointFile));
+
+		// change what was already read without moving anything, so reading it again
+		// would deliver the new names
+		Files.write(file, new String(Files.readAllBytes(file), StandardCharsets.UTF_8).replace("Sol", "Xyz")
+				.replace("Alpha Centauri", "Sigma Draconis").getBytes(StandardCharsets.UTF_8));
+		append(file, jump("2017-10-01T00:03:00Z", "Barnard's Star"));
+
+		assertEquals(Arrays.asList("Barnard's Star"), resume());
+	}
+
+	@Test
+	public void resumesIntoNewerFiles() throws Exception {
+		append(journal.resolve("Journal.2017-10-01T000000.01.log"), jump("2017-10-01T00:01:00Z", "Sol"));
+		read(new JournalPosition("", 0), new CheckpointStore(checkpointFile));
+
+		append(journal.resolve("Journal.2017-10-01T000000.01.log"), jump("2017-10-01T00:02:00Z", "Alpha Centauri"));
+		append(journal.resolve("Journal.2017-10-02T000000.01.log"), jump("2017-10-02T00:01:00Z", "Barnard's Star"),
+				jump("2017-10-02T00:02:00Z", "Wolf 359"));
+
+		assertEquals(Arrays.asList("Alpha Centauri", "Barnard's Star", "Wolf 359"), resume());
+	}
+
+	@Test
+	public void leavesIncompleteLineForLater() throws Exception {
+		Path file = journal.resolve("Journal.2017-10-01T000000.01.log");
+		append(file, jump("2017-10-01T00:01:00Z", "Sol"));
+		long complete = Files.size(file);
+
+		String next = jump("2017-10-01T00:02:00Z", "Alpha Centauri");
+		Files.write(file, next.substring(0, 20).getBytes(StandardCharsets.UTF_8),
+				StandardOpenOption.APPEND);
+
+		CheckpointStore checkpoints = new CheckpointStore(checkpointFile);
+		JournalTailer tailer = new JournalTailer(journal);
+		List<String> systems = new ArrayList<>();
+
+		Thread reader = new Thread(() -> {
+			try {
+				tailer.tail(new JournalPosition("", 0), (position, event) -> {
+					systems.add(((FSDJump) event).getStarSystem());
+					checkpoints.update("test", position);
+				});
+			} catch (InterruptedException | IOException e) {
+				// done
+			}
+		});
+
+		reader.start();
+		Thread.sleep(1000);
+		reader.interrupt();
+		reader.join();
+
+		assertEquals(Arrays.asList("Sol"), systems);
+		assertEquals(complete, checkpoints.get("test").get().getOffset());
+
+		Files.write(file, (next.substring(20) + "\r\n").getBytes(StandardCharsets.UTF_8),
+				StandardOpenOption.APPEND);
+		checkpoints.save();
+
+		assertEquals(Arrays.asList("Alpha Centauri"), resume());
+	}
+
+	@Test
+	public void passesOnSinkFailures() throws Exception {
+		append(journal.resolve("Journal.2017-10-01T000000.01.log"), jump("2017-10-01T00:01:00Z", "Sol"));
+
+		AtomicReference<Throwable> thrown = new AtomicReference<>();
+		Thread reader = new Thread(() -> {
+			try {
+				new JournalTailer(journal).tail(new JournalPosition("", 0), (position, event) -> {
+					throw new IllegalStateException("test");
+				});
+			} catch (Throwable t) {
+				thrown.set(t);
+			}
+		});
+
+		reader.start();
+		reader.join(5000);
+		reader.interrupt();
+		reader.join();
+
+		assertTrue(thrown.get() instanceof IllegalStateException);
+	}
+}
@@ -0,0 +1,246 @@
+package me.apemanzilla.edscan.plugins;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.gson.*;
+import com.sun.net.httpserver.HttpServer;
+
+import me.apemanzilla.edjournal.events.JournalEvent;
+import me.apemanzilla.edscan.Config;
+import me.apemanzilla.edscan.EDScan;
+import me.apemanzilla.edscan.Plugin;
+import me.apemanzilla.edscan.journal.*;
+
+public class EDDNSyncTest {
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	/**
+	 * The listeners EDDNSync registered, for each event class
+	 */
+	private final Map<Class<?>, List<Consumer<JournalEvent>>> listeners = new HashMap<>();
+
+	private HttpServer server;
+
+	private Path journal;
+
+	private Path data;
+
+	private Path journalFile;
+
+	private CheckpointStore checkpoints;
+
+	private EDScan app;
+
+	private EDDNSync sync;
+
+	@Before
+	public void setUp() throws IOException {
+		// keeps every upload queued, so the outbox can be inspected
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", exchange -> {
+			exchange.sendResponseHeaders(503, -1);
+			exchange.close();
+		});
+		server.start();
+
+		journal = temp.newFolder("journal").toPath();
+		data = temp.newFolder("data").toPath();
+		journalFile = journal.resolve("Journal.2017-10-01T000000.01.log");
+		checkpoints = new CheckpointStore(data.resolve("checkpoints.json"));
+
+		Config config = new Config();
+		config.put("eddn.submit", true);
+		config.put("eddn.uploadUri", "http://localhost:" + server.getAddress().getPort() + "/upload/");
+
+		JournalIndex index = new JournalIndex(journal, data.resolve("journal.idx"));
+
+		app = new EDScan() {
+			@Override
+			public Config getConfig() {
+				return config;
+			}
+
+			@Override
+			public Path getDataDirectory() {
+				return data;
+			}
+
+			@Override
+			public JournalIndex getJournalIndex() {
+				return index;
+			}
+
+			@Override
+			public CheckpointStore getCheckpoints() {
+				return checkpoints;
+			}
+
+			@Override
+			@SuppressWarnings("unchecked")
+			public <T extends JournalEvent> void addEventListener(Plugin plugin, Class<T> cls,
+					Consumer<T> consumer) {
+				listeners.computeIfAbsent(cls, c -> new ArrayList<>()).add((Consumer<JournalEvent>) consumer);
+			}
+		};
+
+		sync = new EDDNSync() {
+			{
+				edscan = app;
+			}
+		};
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		sync.cleanup();
+		server.stop(0);
+	}
+
+	private static String jump(String timestamp, String system, String pos) {
+		return "{ \"timestamp\":\"" + timestamp + "\", \"event\":\"FSDJump\", \"StarSystem\":\"" + system
+				+ "\", \"StarPos\":" + pos + " }";
+	}
+
+	private static String location(String timestamp, String system, String pos) {
+		return "{ \"timestamp\":\"" + timestamp + "\", \"event\":\"Location\", \"StarSystem\":\"" + system
+				+ "\", \"StarPos\":" + pos + " }";
+	}
+
+	private static String scan(String timestamp, String body) {
+		return "{ \"timestamp\":\"" + timestamp + "\", \"event\":\"Scan\", \"BodyName\":\"" + body
+				+ "\", \"StarType\":\"G\", \"Radius\":1.0, \"SurfaceTemperature\":5000.0 }";
+	}
+
+	/**
+	 * Appends lines to the journal
+	 *
+	 * @return The position after the last line
+	 */
+	private JournalPosition append(String... lines) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (String line : lines) {
+			sb.append(line).append("\r\n");
+		}
+
+		Files.write(journalFile, sb.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE,
+				StandardOpenOption.APPEND);
+
+		return new JournalPosition(journalFile.getFileName().toString(), Files.size(journalFile));
+	}
+
+	/**
+	 * Sends the given number of events after the position to EDDNSync's
+	 * listeners, as the journal reader does when it resumes
+	 */
+	private void replay(JournalPosition from, int events) throws Exception {
+		CountDownLatch remaining = new CountDownLatch(events);
+		Thread reader = new Thread(() -> {
+			try {
+				new JournalTailer(journal).tail(from, (position, event) -> {
+					listeners.entrySet().stream().filter(e -> e.getKey().isInstance(event))
+							.forEach(e -> e.getValue().forEach(l -> l.accept(event)));
+					remaining.countDown();
+				});
+			} catch (InterruptedException | ClosedByInterruptException e) {
+				// done
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+
+		reader.start();
+		try {
+			assertTrue("Events weren't replayed", remaining.await(10, TimeUnit.SECONDS));
+		} finally {
+			reader.interrupt();
+			reader.join();
+		}
+	}
+
+	/**
+	 * @return The message of each queued upload, by body or system name
+	 */
+	private Map<String, JsonObject> queued() throws IOException {
+		Map<String, JsonObject> messages = new HashMap<>();
+		for (String line : Files.readAllLines(data.resolve("eddn-outbox.jsonl"), StandardCharsets.UTF_8)) {
+			JsonObject message = new JsonParser().parse(line).getAsJsonObject().getAsJsonObject("message");
+			JsonElement name = message.has("BodyName") ? message.get("BodyName") : message.get("StarSystem");
+			messages.put(name.getAsString(), message);
+		}
+
+		return messages;
+	}
+
+	private static void assertSystem(String system, double[] pos, JsonObject message) {
+		assertEquals(system, message.get("StarSystem").getAsString());
+
+		JsonArray starPos = message.getAsJsonArray("StarPos");
+		assertEquals(pos.length, starPos.size());
+		for (int i = 0; i < pos.length; i++) {
+			assertEquals(pos[i], starPos.get(i).getAsDouble(), 0);
+		}
+	}
+
+	@Test
+	public void replayedEventsUseSystemTheyWereWrittenIn() throws Exception {
+		append(jump("2017-10-01T00:00:00Z", "Sol", "[0.0,0.0,0.0]"), scan("2017-10-01T00:01:00Z", "Sol A"));
+		JournalPosition checkpoint = append(location("2017-10-01T00:02:00Z", "Sol", "[0.0,0.0,0.0]"));
+		append(scan("2017-10-01T00:03:00Z", "Sol B"), jump("2017-10-01T00:04:00Z", "Alpha Centauri",
+				"[3.03125,-0.09375,3.15625]"), scan("2017-10-01T00:05:00Z", "Alpha Centauri A"));
+
+		app.getCheckpoints().update(app.getMailbox(sync).getId(), checkpoint);
+
+		sync.init();
+		replay(checkpoint, 3);
+
+		Map<String, JsonObject> messages = queued();
+		assertEquals(new HashSet<>(Arrays.asList("Sol B", "Alpha Centauri", "Alpha Centauri A")), messages.keySet());
+
+		assertSystem("Sol", new double[] { 0, 0, 0 }, messages.get("Sol B"));
+		assertSystem("Alpha Centauri", new double[] { 3.03125, -0.09375, 3.15625 },
+				messages.get("Alpha Centauri A"));
+	}
+
+	@Test
+	public void newEventsUseLatestSystem() throws Exception {
+		append(jump("2017-10-01T00:00:00Z", "Sol", "[0.0,0.0,0.0]"));
+		JournalPosition end = append(
+				location("2017-10-01T00:01:00Z", "Alpha Centauri", "[3.03125,-0.09375,3.15625]"));
+
+		sync.init();
+		append(scan("2017-10-01T00:02:00Z", "Alpha Centauri A"));
+		replay(end, 1);
+
+		assertSystem("Alpha Centauri", new double[] { 3.03125, -0.09375, 3.15625 },
+				queued().get("Alpha Centauri A"));
+	}
+
+	@Test
+	public void startsWithoutKnownSystem() throws Exception {
+		sync.init();
+
+		append(jump("2017-10-01T00:00:00Z", "Sol", "[0.0,0.0,0.0]"), scan("2017-10-01T00:01:00Z", "Sol A"));
+		replay(new JournalPosition(journalFile.getFileName().toString(), 0), 2);
+
+		assertSystem("Sol", new double[] { 0, 0, 0 }, queued().get("Sol A"));
+	}
+}
@@ -0,0 +1,246 @@
+package me.apemanzilla.edscan.plugins;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BooleanSupplier;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import me.apemanzilla.edscan.Outbox;
+
+public class EDDNUploaderTest {
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	/**
+	 * The status the fake EDDN gives for each request, in order. Once these run
+	 * out every request is accepted.
+	 */
+	private final Queue<Integer> statuses = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * The decompressed body of each request received, in order
+	 */
+	private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+
+	/**
+	 * The <code>Content-Encoding</code> of each request received
+	 */
+	private final List<String> encodings = Collections.synchronizedList(new ArrayList<>());
+
+	/**
+	 * Each message passed to the rejection handler, with its reason
+	 */
+	private final List<String> rejections = Collections.synchronizedList(new ArrayList<>());
+
+	/**
+	 * Released to let requests for the held system be answered
+	 */
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	private volatile String heldSystem;
+
+	private HttpServer server;
+
+	private Path file;
+
+	private Outbox outbox;
+
+	private EDDNUploader uploader;
+
+	private Thread thread;
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/upload/", this::handle);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+
+		file = temp.getRoot().toPath().resolve("outbox.jsonl");
+		outbox = new Outbox(file);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		release.countDown();
+		if (thread != null) {
+			thread.interrupt();
+			thread.join();
+		}
+
+		server.stop(0);
+		outbox.close();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		String body;
+		try (GZIPInputStream in = new GZIPInputStream(exchange.getRequestBody())) {
+			body = new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+		}
+
+		encodings.add(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+		requests.add(body);
+
+		if (heldSystem != null && body.contains("\"" + heldSystem + "\"")) {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		Integer status = statuses.poll();
+		byte[] response = (status == null || status == 200 ? "OK" : "Error").getBytes(StandardCharsets.UTF_8);
+
+		exchange.sendResponseHeaders(status == null ? 200 : status, response.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(response);
+		}
+	}
+
+	private void start(int concurrency) {
+		uploader = new EDDNUploader(outbox,
+				() -> URI.create("http://localhost:" + server.getAddress().getPort() + "/upload/"), () -> true,
+				(message, reason) -> rejections.add(new String(message, StandardCharsets.UTF_8) + " " + reason),
+				concurrency, 100, 1024 * 1024);
+
+		thread = new Thread(uploader);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private static String message(String system) {
+		return "{\"$schemaRef\":\"https://eddn.edcd.io/schemas/journal/1\",\"header\":{\"uploaderID\":\"test\"},"
+				+ "\"message\":{\"event\":\"FSDJump\",\"StarSystem\":\"" + system + "\"}}";
+	}
+
+	private void append(String... systems) throws IOException {
+		for (String system : systems) {
+			outbox.append(message(system).getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	private static void waitFor(String what, BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+
+		while (!condition.getAsBoolean()) {
+			assertTrue("Timed out waiting for " + what, System.nanoTime() < deadline);
+			Thread.sleep(10);
+		}
+	}
+
+	@Test
+	public void sendsEachMessageGzipped() throws Exception {
+		append("Sol", "Alpha Centauri");
+		start(1);
+
+		waitFor("messages to be sent", () -> uploader.getSent() == 2);
+
+		assertEquals(Arrays.asList(message("Sol"), message("Alpha Centauri")), requests);
+		assertEquals(Arrays.asList("gzip", "gzip"), encodings);
+		assertEquals(0, uploader.getRejected());
+	}
+
+	@Test
+	public void retriesTransientErrors() throws Exception {
+		// each message fails once before it's accepted
+		statuses.addAll(Arrays.asList(500, 200, 503, 200, 408, 200, 429, 200));
+		append("Sol", "Alpha Centauri", "Barnard's Star", "Wolf 359");
+		start(1);
+
+		waitFor("messages to be sent", () -> uploader.getSent() == 4);
+
+		assertEquals(Arrays.asList(message("Sol"), message("Sol"), message("Alpha Centauri"),
+				message("Alpha Centauri"), message("Barnard's Star"), message("Barnard's Star"), message("Wolf 359"),
+				message("Wolf 359")), requests);
+		assertEquals(0, uploader.getRejected());
+		assertTrue(rejections.isEmpty());
+		waitFor("messages to be acknowledged", () -> uploader.getQueuedBytes() == 0);
+	}
+
+	@Test
+	public void dropsRejectedMessages() throws Exception {
+		statuses.addAll(Arrays.asList(400, 200, 413));
+		append("Sol", "Alpha Centauri", "Barnard's Star");
+		start(1);
+
+		waitFor("messages to be handled", () -> uploader.getSent() + uploader.getRejected() == 3);
+
+		// rejected messages aren't retried
+		assertEquals(Arrays.asList(message("Sol"), message("Alpha Centauri"), message("Barnard's Star")), requests);
+		assertEquals(1, uploader.getSent());
+		assertEquals(2, uploader.getRejected());
+
+		assertEquals(2, rejections.size());
+		assertTrue(rejections.get(0).startsWith(message("Sol")));
+		assertTrue(rejections.get(0).contains("HTTP 400"));
+		assertTrue(rejections.get(1).startsWith(message("Barnard's Star")));
+		assertTrue(rejections.get(1).contains("HTTP 413"));
+
+		// they don't hold up acknowledgement
+		waitFor("messages to be acknowledged", () -> uploader.getQueuedBytes() == 0);
+		assertEquals(0, Files.size(file));
+	}
+
+	@Test
+	public void acknowledgesOnlyUpToFirstUnsentMessage() throws Exception {
+		// systems which use different lanes
+		String first = "A", second = "B";
+		assertNotEquals((first.hashCode() & Integer.MAX_VALUE) % 2, (second.hashCode() & Integer.MAX_VALUE) % 2);
+
+		heldSystem = first;
+		append(first, second);
+		long size = Files.size(file);
+		start(2);
+
+		waitFor("the later message to be sent", () -> uploader.getSent() == 1);
+
+		// the earlier message is still being sent, so nothing is acknowledged
+		assertEquals(size, uploader.getQueuedBytes());
+		assertEquals(2, uploader.getInFlight());
+		assertTrue(requests.contains(message(second)));
+
+		release.countDown();
+
+		waitFor("the earlier message to be sent", () -> uploader.getSent() == 2);
+		waitFor("messages to be acknowledged", () -> uploader.getQueuedBytes() == 0);
+		assertEquals(0, uploader.getInFlight());
+	}
+
+	@Test
+	public void keepsUnacknowledgedMessagesForNextStart() throws Exception {
+		statuses.addAll(Arrays.asList(503, 503, 503, 503, 503, 503, 503, 503));
+		append("Sol");
+		start(1);
+
+		waitFor("a request to be attempted", () -> !requests.isEmpty());
+
+		thread.interrupt();
+		thread.join();
+		thread = null;
+
+		outbox.close();
+		outbox = new Outbox(file);
+
+		assertEquals(1, outbox.take(10, 1024).size());
+	}
+}
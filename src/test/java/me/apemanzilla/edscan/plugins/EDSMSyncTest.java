@@ -0,0 +1,326 @@
+package me.apemanzilla.edscan.plugins;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.ByteStreams;
+import com.google.gson.*;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import me.apemanzilla.edjournal.events.FSDJump;
+import me.apemanzilla.edscan.Config;
+import me.apemanzilla.edscan.EDScan;
+import me.apemanzilla.edscan.journal.EventDecoder;
+import me.apemanzilla.edscan.journal.JournalIndex;
+
+public class EDSMSyncTest {
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	/**
+	 * The per-item result the fake EDSM gives for each system
+	 */
+	private final Map<String, Integer> results = new ConcurrentHashMap<>();
+
+	/**
+	 * The systems in each request received, in order
+	 */
+	private final List<List<String>> requests = Collections.synchronizedList(new ArrayList<>());
+
+	/**
+	 * Every value written to <code>edsm.totalSubmitted</code>, in order
+	 */
+	private final List<JsonElement> totals = Collections.synchronizedList(new ArrayList<>());
+
+	/**
+	 * The jumps in the fake EDSM flight log, by date
+	 */
+	private final Map<Instant, String> flightLog = new ConcurrentHashMap<>();
+
+	/**
+	 * The date range of each flight log request received, in order
+	 */
+	private final List<String> logRequests = Collections.synchronizedList(new ArrayList<>());
+
+	private final JsonParser parser = new JsonParser();
+
+	private HttpServer server;
+
+	private Config config;
+
+	private EDSMSync sync;
+
+	private JournalIndex index;
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/api-journal-v1", this::handle);
+		server.createContext("/api-logs-v1/get-logs", this::handleLogs);
+		server.start();
+
+		config = new Config() {
+			@Override
+			public <T> void put(String key, T value) {
+				if (key.equals("edsm.totalSubmitted")) totals.add(new Gson().toJsonTree(value));
+				super.put(key, value);
+			}
+		};
+
+		config.put("edsm.apiUri", "http://localhost:" + server.getAddress().getPort() + "/");
+		config.put("edsm.batchSize", 2);
+
+		EDScan app = new EDScan() {
+			@Override
+			public Config getConfig() {
+				return config;
+			}
+
+			@Override
+			public JournalIndex getJournalIndex() {
+				return index;
+			}
+		};
+
+		sync = new EDSMSync() {
+			{
+				edscan = app;
+			}
+
+			@Override
+			void showSubmitted(int submitted) {}
+		};
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		String body = new String(ByteStreams.toByteArray(exchange.getRequestBody()), StandardCharsets.UTF_8);
+
+		JsonArray messages = new JsonArray();
+		for (String field : body.split("&")) {
+			String[] pair = field.split("=", 2);
+			if (URLDecoder.decode(pair[0], "UTF-8").equals("message"))
+				messages = parser.parse(URLDecoder.decode(pair[1], "UTF-8")).getAsJsonArray();
+		}
+
+		List<String> systems = new ArrayList<>();
+		JsonArray events = new JsonArray();
+
+		for (JsonElement m : messages) {
+			String system = m.getAsJsonObject().get("StarSystem").getAsString();
+			systems.add(system);
+
+			JsonObject result = new JsonObject();
+			result.addProperty("msgnum", results.getOrDefault(system, 100));
+			result.addProperty("msg", "test");
+			events.add(result);
+		}
+
+		requests.add(systems);
+
+		JsonObject response = new JsonObject();
+		response.addProperty("msgnum", results.getOrDefault("*", 100));
+		response.addProperty("msg", "test");
+		response.add("events", events);
+
+		byte[] bytes = response.toString().getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(200, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	private static Map<String, String> query(HttpExchange exchange) throws UnsupportedEncodingException {
+		Map<String, String> params = new HashMap<>();
+
+		for (String field : exchange.getRequestURI().getRawQuery().split("&")) {
+			String[] pair = field.split("=", 2);
+			params.put(URLDecoder.decode(pair[0], "UTF-8"), URLDecoder.decode(pair[1], "UTF-8"));
+		}
+
+		return params;
+	}
+
+	private void handleLogs(HttpExchange exchange) throws IOException {
+		Map<String, String> params = query(exchange);
+		String start = params.get("startDateTime"), end = params.get("endDateTime");
+		logRequests.add(start + " - " + end);
+
+		JsonArray logs = new JsonArray();
+
+		try {
+			Date from = EDSMSync.timestampFormat.parse(start), to = EDSMSync.timestampFormat.parse(end);
+
+			// EDSM's order isn't relied on, so give the logs newest first
+			flightLog.entrySet().stream().filter(e -> !e.getKey().isBefore(from.toInstant())
+					&& !e.getKey().isAfter(to.toInstant())).sorted(Map.Entry.comparingByKey(Comparator.reverseOrder()))
+					.forEach(e -> {
+						JsonObject log = new JsonObject();
+						log.addProperty("system", e.getValue());
+						log.addProperty("date", EDSMSync.timestampFormat.format(Date.from(e.getKey())));
+						logs.add(log);
+					});
+		} catch (ParseException e) {
+			throw new IOException(e);
+		}
+
+		JsonObject response = new JsonObject();
+		response.addProperty("msgnum", 100);
+		response.addProperty("msg", "OK");
+		response.add("logs", logs);
+
+		byte[] bytes = response.toString().getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(200, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * Writes the given jumps to a journal file and indexes them
+	 */
+	private void writeJournal(String... jumps) throws IOException {
+		Path journal = temp.newFolder("journal").toPath();
+
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < jumps.length; i += 2) {
+			sb.append("{ \"timestamp\":\"").append(jumps[i + 1]).append("\", \"event\":\"FSDJump\", \"StarSystem\":\"")
+					.append(jumps[i]).append("\", \"StarPos\":[0.0,0.0,0.0] }\r\n");
+		}
+
+		Files.write(journal.resolve("Journal.2017-10-01T000000.01.log"), sb.toString().getBytes(StandardCharsets.UTF_8));
+		index = new JournalIndex(journal, temp.getRoot().toPath().resolve("journal.idx"));
+	}
+
+	private void logged(String system, String timestamp) {
+		flightLog.put(Instant.parse(timestamp), system);
+	}
+
+	private static FSDJump jump(String system, String timestamp) {
+		return EventDecoder.decode("{\"timestamp\":\"" + timestamp + "\",\"event\":\"FSDJump\",\"StarSystem\":\""
+				+ system + "\",\"StarPos\":[0,0,0]}", FSDJump.class);
+	}
+
+	@Test
+	public void sendsOneRequestPerBatch() throws Exception {
+		sync.submitAll(Arrays.asList(jump("A", "2017-10-01T00:00:00Z"), jump("B", "2017-10-01T00:01:00Z"),
+				jump("C", "2017-10-01T00:02:00Z"), jump("D", "2017-10-01T00:03:00Z"),
+				jump("E", "2017-10-01T00:04:00Z")));
+
+		assertEquals(Arrays.asList(Arrays.asList("A", "B"), Arrays.asList("C", "D"), Arrays.asList("E")), requests);
+		assertEquals(3, totals.size());
+		assertEquals(5, (int) config.getAs(Integer.class, "edsm.totalSubmitted").get());
+	}
+
+	@Test
+	public void countsOnlyAcceptedJumps() throws Exception {
+		// already known, then rejected
+		results.put("B", 101);
+		results.put("D", 204);
+
+		sync.submitAll(Arrays.asList(jump("A", "2017-10-01T00:00:00Z"), jump("B", "2017-10-01T00:01:00Z"),
+				jump("C", "2017-10-01T00:02:00Z"), jump("D", "2017-10-01T00:03:00Z")));
+
+		assertEquals(2, requests.size());
+		assertEquals(Arrays.asList(new JsonPrimitive(1), new JsonPrimitive(2)), totals);
+		assertEquals(Instant.parse("2017-10-01T00:03:00Z").toString(),
+				config.getAs(String.class, "edsm.lastSubmitted").get());
+	}
+
+	@Test
+	public void advancesWatermarkToLatestJump() throws Exception {
+		sync.submitAll(Arrays.asList(jump("A", "2017-10-01T00:00:00Z"), jump("B", "2017-10-01T00:01:00Z"),
+				jump("C", "2017-10-01T00:02:00Z")));
+
+		assertEquals(Instant.parse("2017-10-01T00:02:00Z").toString(),
+				config.getAs(String.class, "edsm.lastSubmitted").get());
+
+		// jumps older than the watermark don't move it back
+		sync.submitAll(Arrays.asList(jump("Z", "2017-09-01T00:00:00Z")));
+
+		assertEquals(Instant.parse("2017-10-01T00:02:00Z").toString(),
+				config.getAs(String.class, "edsm.lastSubmitted").get());
+	}
+
+	@Test
+	public void keepsWatermarkWhenRequestIsRejected() throws Exception {
+		results.put("*", 203);
+
+		try {
+			sync.submitAll(Arrays.asList(jump("A", "2017-10-01T00:00:00Z")));
+			fail("Rejected request wasn't reported");
+		} catch (IllegalStateException e) {}
+
+		assertTrue(totals.isEmpty());
+		assertFalse(config.hasKey("edsm.lastSubmitted"));
+	}
+
+	@Test
+	public void reconcileSendsOnlyMissingJumps() throws Exception {
+		writeJournal("A", "2017-10-01T00:00:00Z", "B", "2017-10-01T00:01:00Z", "C", "2017-10-07T23:59:59Z",
+				"D", "2017-10-08T00:00:00Z", "E", "2017-11-20T12:00:00Z", "F", "2017-11-20T12:05:00Z");
+
+		logged("A", "2017-10-01T00:00:00Z");
+		logged("C", "2017-10-07T23:59:59Z");
+		logged("E", "2017-11-20T12:00:00Z");
+		logged("F", "2017-11-20T12:05:00Z");
+
+		// sent from elsewhere, so not in the local journal
+		logged("X", "2017-10-03T00:00:00Z");
+		logged("Y", "2017-11-25T00:00:00Z");
+
+		sync.reconcile();
+
+		assertEquals(Arrays.asList(Arrays.asList("B"), Arrays.asList("D")), requests);
+
+		// a window per week with local jumps, skipping the weeks in between
+		assertEquals(Arrays.asList("2017-10-01 00:00:00 - 2017-10-07 23:59:59",
+				"2017-10-08 00:00:00 - 2017-10-14 23:59:59", "2017-11-20 12:00:00 - 2017-11-27 11:59:59"), logRequests);
+	}
+
+	@Test
+	public void reconcileMatchesJumpsToTheSecond() throws Exception {
+		writeJournal("A", "2017-10-01T00:00:00Z", "A", "2017-10-01T00:00:01Z", "B", "2017-10-01T00:00:02Z");
+
+		logged("A", "2017-10-01T00:00:01Z");
+		logged("B", "2017-10-01T00:00:02Z");
+
+		sync.reconcile();
+
+		assertEquals(Arrays.asList(Arrays.asList("A")), requests);
+	}
+
+	@Test
+	public void reconcileSendsNothingWhenUpToDate() throws Exception {
+		writeJournal("A", "2017-10-01T00:00:00Z", "B", "2017-10-09T00:00:00Z");
+
+		logged("A", "2017-10-01T00:00:00Z");
+		logged("B", "2017-10-09T00:00:00Z");
+
+		sync.reconcile();
+
+		assertTrue(requests.isEmpty());
+		assertEquals(2, logRequests.size());
+	}
+}
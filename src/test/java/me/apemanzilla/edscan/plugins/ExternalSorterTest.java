@@ -0,0 +1,130 @@
+package me.apemanzilla.edscan.plugins;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ExternalSorterTest {
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	private static final Comparator<byte[]> byText = Comparator
+			.comparing(b -> new String(b, StandardCharsets.UTF_8));
+
+	private Path directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = temp.newFolder("sort").toPath();
+	}
+
+	private long tempFiles() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.count();
+		}
+	}
+
+	private static List<String> sort(ExternalSorter sorter, List<String> records) throws IOException {
+		for (String r : records) {
+			sorter.add(r.getBytes(StandardCharsets.UTF_8));
+		}
+
+		List<String> sorted = new ArrayList<>();
+		sorter.merge(r -> sorted.add(new String(r, StandardCharsets.UTF_8)));
+		return sorted;
+	}
+
+	private static List<String> randomRecords(int count) {
+		Random random = new Random(42);
+		List<String> records = new ArrayList<>();
+
+		for (int i = 0; i < count; i++) {
+			// plenty of duplicates
+			records.add(String.format("System %04d", random.nextInt(count / 2)));
+		}
+
+		return records;
+	}
+
+	@Test
+	public void sortsInMemory() throws IOException {
+		List<String> records = randomRecords(100);
+
+		try (ExternalSorter sorter = new ExternalSorter(directory, byText, 1024 * 1024)) {
+			List<String> sorted = sort(sorter, records);
+			assertEquals(0, tempFiles());
+
+			Collections.sort(records);
+			assertEquals(records, sorted);
+		}
+	}
+
+	@Test
+	public void mergesSeveralRuns() throws IOException {
+		List<String> records = randomRecords(1000);
+
+		// about ten records to a run
+		try (ExternalSorter sorter = new ExternalSorter(directory, byText, 256)) {
+			List<String> sorted = sort(sorter, records);
+			assertTrue("Only " + tempFiles() + " runs were written", tempFiles() >= 50);
+
+			Collections.sort(records);
+			assertEquals(records, sorted);
+		}
+
+		assertEquals(0, tempFiles());
+	}
+
+	@Test
+	public void mergesLastPartialRun() throws IOException {
+		// two full runs and a few records left in memory
+		List<String> records = randomRecords(25);
+
+		try (ExternalSorter sorter = new ExternalSorter(directory, byText, 10 * ("System 0000".length() + 16))) {
+			List<String> sorted = sort(sorter, records);
+			assertEquals(3, tempFiles());
+
+			Collections.sort(records);
+			assertEquals(records, sorted);
+		}
+	}
+
+	@Test
+	public void ignoresOversizedRecords() throws IOException {
+		try (ExternalSorter sorter = new ExternalSorter(directory, byText, 64)) {
+			sorter.add("b".getBytes(StandardCharsets.UTF_8));
+			sorter.add(new byte[0x10000]);
+			sorter.add("a".getBytes(StandardCharsets.UTF_8));
+			sorter.add(new byte[0xffff]);
+
+			List<Integer> lengths = new ArrayList<>();
+			sorter.merge(r -> lengths.add(r.length));
+
+			assertEquals(Arrays.asList(1, 1, 0xffff), lengths.stream().sorted().collect(Collectors.toList()));
+		}
+	}
+
+	@Test
+	public void assemblesHeaderAndParts() throws IOException {
+		Path a = temp.newFile("a").toPath(), b = temp.newFile("b").toPath(), file = directory.resolve("out");
+		Files.write(a, "hello ".getBytes(StandardCharsets.UTF_8));
+		Files.write(b, "world".getBytes(StandardCharsets.UTF_8));
+
+		ExternalSorter.assemble(file, ByteBuffer.wrap("> ".getBytes(StandardCharsets.UTF_8)), a, b);
+
+		assertEquals("> hello world", new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+		assertEquals(1, tempFiles());
+	}
+}
@@ -0,0 +1,141 @@
+package me.apemanzilla.edscan.plugins;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import me.apemanzilla.edscan.plugins.NeutronHighway.Route;
+
+public class NeutronPlotterTest {
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	private static final double range = 10;
+
+	private final List<String> systems = new ArrayList<>();
+
+	private StarCatalog catalog;
+
+	private void system(String name, double x, double y, double z, String mainStar) {
+		systems.add("{\"name\":\"" + name + "\",\"coords\":{\"x\":" + x + ",\"y\":" + y + ",\"z\":" + z
+				+ "},\"mainStar\":\"" + mainStar + "\"}");
+	}
+
+	/**
+	 * Builds a catalog of the systems added so far, plus a start and end 100 ly
+	 * apart
+	 */
+	private NeutronPlotter plotter(boolean useWhiteDwarfs) throws IOException {
+		system("Start", 0, 0, 0, "G (White-Yellow) Star");
+		system("End", 100, 0, 0, "K (Yellow-Orange) Star");
+
+		Path dump = temp.newFile("systems.json").toPath();
+		Files.write(dump, systems, StandardCharsets.UTF_8);
+
+		catalog = StarCatalog.build(dump, temp.newFolder("catalog").toPath()).get();
+		return new NeutronPlotter(catalog, useWhiteDwarfs);
+	}
+
+	private static List<String> waypoints(Route route) {
+		List<String> names = new ArrayList<>();
+
+		for (int i = 0; i < route.size(); i++) {
+			names.add(route.getSystem(i));
+		}
+
+		return names;
+	}
+
+	private static List<Integer> jumps(Route route) {
+		List<Integer> jumps = new ArrayList<>();
+
+		for (int i = 0; i < route.size(); i++) {
+			jumps.add(route.getJumps(i));
+		}
+
+		return jumps;
+	}
+
+	@Test
+	public void jumpsDirectlyWithoutBoosts() throws IOException {
+		Route route = plotter(true).plot("Start", "End", range, 100).get();
+
+		assertEquals(Arrays.asList("Start", "End"), waypoints(route));
+		assertEquals(Arrays.asList(0, 10), jumps(route));
+		assertEquals(100, route.getDistanceLeft(0), 1e-3);
+	}
+
+	@Test
+	public void boostsFromNeutronStar() throws IOException {
+		system("Neutron", 10, 0, 0, "Neutron Star");
+
+		Route route = plotter(true).plot("Start", "End", range, 100).get();
+
+		// one jump to the neutron star, then 40 ly boosted and 50 ly normally
+		assertEquals(Arrays.asList("Start", "Neutron", "End"), waypoints(route));
+		assertEquals(Arrays.asList(0, 1, 6), jumps(route));
+		assertEquals(90, route.getDistanceLeft(1), 1e-3);
+	}
+
+	@Test
+	public void boostsFromNeutronStarAtSource() throws IOException {
+		system("Pulsar", 0, 0, 0, "Neutron Star");
+
+		// 40 ly boosted and 60 ly normally
+		Route route = plotter(true).plot("pulsar", "END", range, 100).get();
+
+		assertEquals(Arrays.asList("Pulsar", "End"), waypoints(route));
+		assertEquals(Arrays.asList(0, 7), jumps(route));
+	}
+
+	@Test
+	public void usesWhiteDwarfsOnlyWhenAllowed() throws IOException {
+		system("Dwarf A", 10, 0, 0, "White Dwarf (DA) Star");
+		system("Dwarf B", 25, 0, 0, "White Dwarf (DB) Star");
+
+		// 15 ly boosted between the dwarfs, then 15 ly boosted and 60 ly normally
+		Route route = plotter(true).plot("Start", "End", range, 100).get();
+		assertEquals(Arrays.asList("Start", "Dwarf A", "Dwarf B", "End"), waypoints(route));
+		assertEquals(Arrays.asList(0, 1, 1, 7), jumps(route));
+
+		route = new NeutronPlotter(catalog, false).plot("Start", "End", range, 100).get();
+		assertEquals(Arrays.asList("Start", "End"), waypoints(route));
+		assertEquals(10, route.totalJumps());
+	}
+
+	@Test
+	public void keepsToCorridor() throws IOException {
+		// 20 ly from the direct line, and worth three jumps to reach
+		system("Neutron", 20, 20, 0, "Neutron Star");
+		NeutronPlotter plotter = plotter(true);
+
+		Route route = plotter.plot("Start", "End", range, 100).get();
+		assertEquals(Arrays.asList("Start", "End"), waypoints(route));
+		assertEquals(10, route.totalJumps());
+
+		// the corridor now reaches 35 ly from the line
+		route = plotter.plot("Start", "End", range, 50).get();
+		assertEquals(Arrays.asList("Start", "Neutron", "End"), waypoints(route));
+		assertEquals(Arrays.asList(0, 3, 6), jumps(route));
+	}
+
+	@Test
+	public void cannotPlotUnknownSystems() throws IOException {
+		NeutronPlotter plotter = plotter(true);
+
+		// so the route is plotted with Spansh instead
+		assertEquals(Optional.empty(), plotter.plot("Nowhere", "End", range, 100));
+		assertEquals(Optional.empty(), plotter.plot("Start", "Nowhere", range, 100));
+	}
+}
@@ -0,0 +1,141 @@
+package me.apemanzilla.edscan.plugins;
+
+import static me.apemanzilla.edscan.plugins.RouteStoreTest.route;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import me.apemanzilla.edscan.plugins.NeutronHighway.Route;
+
+public class RouteCacheTest {
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	private Path directory;
+
+	/**
+	 * The size of a cached copy of {@link RouteStoreTest#route()} plotted between
+	 * two systems with names of one letter
+	 */
+	private long routeBytes;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = temp.getRoot().toPath().resolve("routes");
+
+		RouteCache cache = new RouteCache(temp.newFolder("measure").toPath(), Long.MAX_VALUE);
+		cache.put("A", "B", 50, 60, route());
+
+		try (Stream<Path> files = Files.list(temp.getRoot().toPath().resolve("measure"))) {
+			routeBytes = Files.size(files.findFirst().get());
+		}
+	}
+
+	private long cachedFiles() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.count();
+		}
+	}
+
+	@Test
+	public void findsRouteIgnoringCaseAndRounding() throws IOException {
+		RouteCache cache = new RouteCache(directory, Long.MAX_VALUE);
+		cache.put("Sol", "Colonia", 50.001, 60.2, route());
+
+		Route route = cache.get(" sol", "COLONIA ", 50.004, 59.8).get();
+		assertEquals("Colonia", route.getDestinationSystem());
+		assertEquals(11, route.totalJumps());
+
+		assertEquals(Optional.empty(), cache.get("Sol", "Colonia", 50, 70));
+		assertEquals(Optional.empty(), cache.get("Colonia", "Sol", 50, 60));
+	}
+
+	@Test
+	public void reusesRouteForSlightlyLongerRange() throws IOException {
+		RouteCache cache = new RouteCache(directory, Long.MAX_VALUE);
+		cache.put("Sol", "Colonia", 50, 60, route());
+
+		// within 5% longer
+		assertTrue(cache.get("Sol", "Colonia", 52.5, 60).isPresent());
+
+		// a ship with a shorter range can't follow it, and one with a much longer
+		// range deserves a better route
+		assertFalse(cache.get("Sol", "Colonia", 49.9, 60).isPresent());
+		assertFalse(cache.get("Sol", "Colonia", 53, 60).isPresent());
+	}
+
+	@Test
+	public void prefersClosestShorterRange() throws IOException {
+		RouteCache cache = new RouteCache(directory, Long.MAX_VALUE);
+		cache.put("Sol", "Colonia", 50, 60, route());
+		cache.put("Sol", "Colonia", 51, 60,
+				new Route("Sol", "Colonia", 51, new String[] { "Sol", "Colonia" }, new int[] { 0, 9 },
+						new double[] { 22000, 0 }, null, null, null));
+
+		assertEquals(9, cache.get("Sol", "Colonia", 52, 60).get().totalJumps());
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedBySize() throws IOException {
+		RouteCache cache = new RouteCache(directory, 2 * routeBytes);
+		cache.put("A", "B", 50, 60, route());
+		cache.put("C", "D", 50, 60, route());
+
+		// using the first route makes the second the least recently used
+		assertTrue(cache.get("A", "B", 50, 60).isPresent());
+		cache.put("E", "F", 50, 60, route());
+
+		assertEquals(2, cachedFiles());
+		assertTrue(cache.get("A", "B", 50, 60).isPresent());
+		assertFalse(cache.get("C", "D", 50, 60).isPresent());
+		assertTrue(cache.get("E", "F", 50, 60).isPresent());
+	}
+
+	@Test
+	public void keepsRouteLargerThanLimit() throws IOException {
+		RouteCache cache = new RouteCache(directory, routeBytes / 2);
+		cache.put("A", "B", 50, 60, route());
+		cache.put("C", "D", 50, 60, route());
+
+		// the newest route is kept even though it's too big on its own
+		assertEquals(1, cachedFiles());
+		assertTrue(cache.get("C", "D", 50, 60).isPresent());
+	}
+
+	@Test
+	public void reloadsAfterRestart() throws Exception {
+		RouteCache cache = new RouteCache(directory, 2 * routeBytes);
+		cache.put("A", "B", 50, 60, route());
+
+		// file times may be as coarse as a second
+		Thread.sleep(1100);
+		cache.put("C", "D", 50, 60, route());
+		Files.write(directory.resolve("junk.route"), new byte[] { 1, 2, 3 });
+
+		cache = new RouteCache(directory, 2 * routeBytes);
+
+		// the unreadable file is deleted
+		assertEquals(2, cachedFiles());
+		assertTrue(cache.get("C", "D", 50, 60).isPresent());
+		assertTrue(cache.get("A", "B", 50, 60).isPresent());
+
+		// the order of use was restored from file times, then updated by using the
+		// routes
+		Thread.sleep(1100);
+		assertTrue(cache.get("C", "D", 50, 60).isPresent());
+		cache = new RouteCache(directory, 2 * routeBytes);
+		cache.put("E", "F", 50, 60, route());
+
+		assertFalse(cache.get("A", "B", 50, 60).isPresent());
+		assertTrue(cache.get("C", "D", 50, 60).isPresent());
+	}
+}
@@ -0,0 +1,153 @@
+package me.apemanzilla.edscan.plugins;
+
+import static org.junit.Assert.*;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Optional;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import me.apemanzilla.edscan.plugins.NeutronHighway.Route;
+
+public class RouteStoreTest {
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	private Path file;
+
+	private RouteStore store;
+
+	@Before
+	public void setUp() {
+		file = temp.getRoot().toPath().resolve("neutron-route.bin");
+		store = new RouteStore(file);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		store.close();
+	}
+
+	static Route route() {
+		return new Route("Sol", "Colonia", 65.5, new String[] { "Sol", "Neutron", "Colonia" }, new int[] { 0, 4, 7 },
+				new double[] { 22000, 21800, 0 }, new float[] { 0, 10, -9530.5f }, new float[] { 0, 20, -910.3f },
+				new float[] { 0, 30, Float.NaN });
+	}
+
+	/**
+	 * Opens the store again, as after a restart
+	 */
+	private Route reload() throws IOException {
+		store.close();
+		store = new RouteStore(file);
+		return store.load().get();
+	}
+
+	@Test
+	public void loadsNothingWhenEmpty() throws IOException {
+		assertEquals(Optional.empty(), store.load());
+
+		// nothing to record progress for
+		store.saveProgress(3);
+		assertFalse(Files.exists(file));
+	}
+
+	@Test
+	public void roundTripsRoute() throws IOException {
+		Route route = route();
+		route.setProgress(1);
+		store.save(route);
+
+		Route loaded = reload();
+
+		assertEquals("Sol", loaded.getSourceSystem());
+		assertEquals("Colonia", loaded.getDestinationSystem());
+		assertEquals(65.5, loaded.getRange(), 0);
+		assertEquals(1, loaded.getProgress());
+		assertEquals(11, loaded.totalJumps());
+		assertEquals(21800, loaded.getDistanceLeft(1), 0);
+		assertArrayEquals(new double[] { 10, 20, 30 }, loaded.getPosition(1).get(), 0);
+
+		// the last waypoint's coordinates were incomplete
+		assertFalse(loaded.getPosition(2).isPresent());
+	}
+
+	@Test
+	public void readsVersionOneFile() throws IOException {
+		try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+			out.writeInt(0x45444E52);
+			out.writeInt(1);
+			out.writeInt(2);
+			out.writeUTF("Sol");
+			out.writeUTF("Colonia");
+			out.writeInt(3);
+
+			for (String system : new String[] { "Sol", "Neutron", "Colonia" }) {
+				out.writeUTF(system);
+				out.writeInt(system.equals("Sol") ? 0 : 5);
+				out.writeDouble(system.equals("Colonia") ? 0 : 1000);
+			}
+		}
+
+		Route route = store.load().get();
+
+		assertEquals("Colonia", route.getDestinationSystem());
+		assertEquals(2, route.getProgress());
+		assertEquals(10, route.totalJumps());
+		assertEquals(0, route.getRange(), 0);
+		assertFalse(route.getPosition(0).isPresent());
+
+		// progress is still recorded in place, and saving rewrites it in the current
+		// format
+		store.saveProgress(1);
+		assertEquals(1, reload().getProgress());
+
+		store.save(route);
+		assertEquals(2, Files.readAllBytes(file)[7]);
+		assertEquals(10, reload().totalJumps());
+	}
+
+	@Test
+	public void savesProgressInPlace() throws IOException {
+		store.save(route());
+		byte[] saved = Files.readAllBytes(file);
+
+		store.saveProgress(2);
+		byte[] updated = Files.readAllBytes(file);
+
+		// only the progress changed
+		assertEquals(saved.length, updated.length);
+		assertEquals(2, updated[11]);
+		updated[11] = saved[11];
+		assertTrue(Arrays.equals(saved, updated));
+
+		assertEquals(2, reload().getProgress());
+
+		// and it keeps working once the route has been loaded again
+		store.saveProgress(1);
+		assertEquals(1, reload().getProgress());
+	}
+
+	@Test
+	public void rejectsOtherFiles() throws IOException {
+		Files.write(file, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12 });
+
+		try {
+			store.load();
+			fail("Loaded a file which isn't a route");
+		} catch (IOException e) {
+			// expected
+		}
+
+		store.clear();
+		assertFalse(Files.exists(file));
+	}
+}
@@ -0,0 +1,272 @@
+package me.apemanzilla.edscan.plugins;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.OptionalInt;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+import me.apemanzilla.edscan.Config;
+import me.apemanzilla.edscan.plugins.NeutronHighway.Route;
+
+public class RouteTest {
+	private static final Gson gson = new Gson();
+
+	/**
+	 * Makes a route without coordinates
+	 *
+	 * @param jumps The number of jumps to each waypoint from the previous one
+	 */
+	static Route route(String[] systems, int... jumps) {
+		double[] distanceLeft = new double[systems.length];
+		for (int i = 0; i < systems.length; i++) {
+			distanceLeft[i] = 10 * (systems.length - 1 - i);
+		}
+
+		return new Route(systems[0], systems[systems.length - 1], 0, systems, jumps, distanceLeft, null, null, null);
+	}
+
+	private static void assertSameRoute(Route expected, Route actual) {
+		assertEquals(expected.getSourceSystem(), actual.getSourceSystem());
+		assertEquals(expected.getDestinationSystem(), actual.getDestinationSystem());
+		assertEquals(expected.getRange(), actual.getRange(), 0);
+		assertEquals(expected.getProgress(), actual.getProgress());
+		assertEquals(expected.size(), actual.size());
+
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.getSystem(i), actual.getSystem(i));
+			assertEquals(expected.getJumps(i), actual.getJumps(i));
+			assertEquals(expected.getDistanceLeft(i), actual.getDistanceLeft(i), 0);
+			assertEquals(expected.getPosition(i).isPresent(), actual.getPosition(i).isPresent());
+			if (expected.getPosition(i).isPresent())
+				assertArrayEquals(expected.getPosition(i).get(), actual.getPosition(i).get(), 0);
+		}
+	}
+
+	@Test
+	public void countsJumps() {
+		Route route = route(new String[] { "A", "B", "C", "D" }, 0, 3, 1, 4);
+
+		assertEquals(8, route.totalJumps());
+		assertEquals(0, route.completedJumps());
+
+		route.setProgress(2);
+		assertEquals(4, route.completedJumps());
+
+		// progress can't go past the destination
+		route.changeProgress(5);
+		assertEquals(3, route.getProgress());
+		assertEquals(8, route.completedJumps());
+		assertEquals(0, route.getDistanceLeft(), 0);
+	}
+
+	@Test
+	public void countsJumpsOfEmptyRoute() {
+		Route route = new Route(null, null, 0, new String[0], new int[0], new double[0], null, null, null);
+
+		assertEquals(0, route.totalJumps());
+		assertEquals(0, route.completedJumps());
+		assertFalse(route.getNextSystem().isPresent());
+		assertFalse(route.advanceTo("A"));
+	}
+
+	@Test
+	public void advancesOnlyForwards() {
+		Route route = route(new String[] { "A", "B", "C", "D" }, 0, 1, 1, 1);
+
+		assertTrue(route.advanceTo("c"));
+		assertEquals(2, route.getProgress());
+
+		assertFalse(route.advanceTo("B"));
+		assertFalse(route.advanceTo("Elsewhere"));
+		assertEquals(2, route.getProgress());
+	}
+
+	@Test
+	public void advancesToNextWaypointWithDuplicateName() {
+		Route route = route(new String[] { "A", "B", "C", "B", "D", "B" }, 0, 1, 1, 1, 1, 1);
+
+		assertEquals(OptionalInt.of(1), route.indexOf("B"));
+
+		assertTrue(route.advanceTo("B"));
+		assertEquals(1, route.getProgress());
+
+		// arriving again moves on to the next visit rather than staying put
+		assertTrue(route.advanceTo("b"));
+		assertEquals(3, route.getProgress());
+
+		route.setProgress(4);
+		assertTrue(route.advanceTo("B"));
+		assertEquals(5, route.getProgress());
+		assertFalse(route.advanceTo("B"));
+	}
+
+	/**
+	 * Makes a route along a random walk on a small grid, so that some waypoints
+	 * share coordinates, with some coordinates unknown
+	 */
+	private static Route randomRoute(Random random, int n) {
+		String[] systems = new String[n];
+		float[] xs = new float[n], ys = new float[n], zs = new float[n];
+		int x = 0, y = 0, z = 0;
+
+		for (int i = 0; i < n; i++) {
+			systems[i] = "System " + i;
+			x += random.nextInt(5) - 2;
+			y += random.nextInt(5) - 2;
+			z += random.nextInt(5) - 2;
+
+			xs[i] = x;
+			ys[i] = y;
+			zs[i] = z;
+
+			if (random.nextInt(10) == 0) {
+				(random.nextBoolean() ? xs : zs)[i] = Float.NaN;
+			}
+		}
+
+		return new Route(systems[0], systems[n - 1], 10, systems, new int[n], new double[n], xs, ys, zs);
+	}
+
+	private static int bruteForceNearestAhead(Route route, double x, double y, double z, double maxDistance) {
+		int found = -1;
+		double best = maxDistance * maxDistance;
+
+		for (int i = route.getProgress() + 1; i < route.size(); i++) {
+			if (!route.getPosition(i).isPresent()) continue;
+
+			double[] p = route.getPosition(i).get();
+			double d = (p[0] - x) * (p[0] - x) + (p[1] - y) * (p[1] - y) + (p[2] - z) * (p[2] - z);
+
+			if (d < best || (d == best && found < 0)) {
+				best = d;
+				found = i;
+			}
+		}
+
+		return found;
+	}
+
+	@Test
+	public void findsSameNearestWaypointAsBruteForce() {
+		Random random = new Random(42);
+
+		for (int trial = 0; trial < 50; trial++) {
+			Route route = randomRoute(random, 1 + random.nextInt(300));
+			route.setProgress(random.nextInt(route.size()));
+
+			for (int query = 0; query < 50; query++) {
+				// whole coordinates often land exactly on waypoints, or at equal
+				// distances from several
+				double x = random.nextInt(21) - 10, y = random.nextInt(21) - 10, z = random.nextInt(21) - 10;
+				if (random.nextBoolean()) {
+					x += random.nextDouble();
+					y += random.nextDouble();
+				}
+
+				double maxDistance = random.nextInt(4) == 0 ? Double.POSITIVE_INFINITY : random.nextInt(8);
+
+				assertEquals("Trial " + trial + ", query " + query, bruteForceNearestAhead(route, x, y, z, maxDistance),
+						route.nearestAhead(x, y, z, maxDistance));
+			}
+		}
+	}
+
+	@Test
+	public void ignoresWaypointsWithoutCoordinates() {
+		Route route = new Route("A", "C", 10, new String[] { "A", "B", "C" }, new int[3], new double[3],
+				new float[] { 0, 1, 5 }, new float[] { 0, 0, 0 }, new float[] { 0, Float.NaN, 0 });
+
+		assertFalse(route.getPosition(1).isPresent());
+		assertEquals(2, route.nearestAhead(1, 0, 0, 10));
+		assertEquals(-1, route.nearestAhead(1, 0, 0, 3));
+	}
+
+	@Test
+	public void rejoinsAtNearestWaypointAhead() {
+		Route route = new Route("A", "E", 10, new String[] { "A", "B", "C", "D", "E" }, new int[] { 0, 1, 1, 1, 1 },
+				new double[5], new float[] { 0, 10, 20, 30, 40 }, new float[5], new float[5]);
+		route.setProgress(1);
+
+		// already heading for the nearest waypoint
+		assertFalse(route.rejoin(19, 1, 0, 10));
+		assertEquals(1, route.getProgress());
+
+		// the current waypoint is nearer, but only waypoints ahead count
+		assertFalse(route.rejoin(11, 0, 0, 5));
+		assertEquals(1, route.getProgress());
+
+		assertTrue(route.rejoin(31, 1, 0, 10));
+		assertEquals(2, route.getProgress());
+		assertEquals("D", route.getNextSystem().get());
+
+		// too far from every waypoint
+		assertFalse(route.rejoin(100, 0, 0, 10));
+		assertEquals(2, route.getProgress());
+	}
+
+	@Test
+	public void roundTripsThroughConfig() {
+		Route route = new Route("Sol", "Colonia", 50.5, new String[] { "Sol", "Neutron", "Colonia" },
+				new int[] { 0, 4, 7 }, new double[] { 22000, 21800, 0 }, new float[] { 0, 10, Float.NaN },
+				new float[] { 0, 20, 1 }, new float[] { 0, 30, 2 });
+		route.setProgress(1);
+
+		Config config = new Config();
+		config.put("neutronHighway.route", route);
+
+		// written the way Spansh returns routes
+		JsonElement json = config.get("neutronHighway.route").get();
+		assertTrue(json.getAsJsonObject().has("source_system"));
+		assertTrue(json.getAsJsonObject().has("system_jumps"));
+
+		// incomplete coordinates are dropped
+		assertFalse(route.getPosition(2).isPresent());
+		assertSameRoute(route, config.getAs(Route.class, "neutronHighway.route").get());
+	}
+
+	@Test
+	public void readsSpanshRoute() {
+		Route route = gson.fromJson("{\"source_system\":\"Sol\",\"destination_system\":\"Colonia\",\"range\":50,"
+				+ "\"via\":[],\"system_jumps\":[{\"system\":\"Sol\",\"jumps\":0,\"distance_left\":22000,"
+				+ "\"distance_jumped\":0,\"neutron_star\":false,\"x\":0,\"y\":0,\"z\":0},"
+				+ "{\"system\":\"Colonia\",\"jumps\":120,\"distance_left\":0,\"x\":-9530.5,\"y\":-910.3,\"z\":19808.1}]}",
+				Route.class);
+
+		assertEquals("Colonia", route.getDestinationSystem());
+		assertEquals(50, route.getRange(), 0);
+		assertEquals(0, route.getProgress());
+		assertEquals(120, route.totalJumps());
+		assertEquals(-9530.5, route.getPosition(1).get()[0], 1e-3);
+	}
+
+	@Test
+	public void readsLegacyConfig() {
+		// saved by versions before the route kept Spansh's names
+		JsonElement legacy = new JsonParser().parse("{\"sourceSystem\":\"Sol\",\"destinationSystem\":\"Colonia\","
+				+ "\"systemJumps\":[{\"system\":\"Sol\",\"jumps\":0,\"distanceLeft\":22000},"
+				+ "{\"system\":\"Neutron\",\"jumps\":4,\"distanceLeft\":21800},"
+				+ "{\"system\":\"Colonia\",\"jumps\":7,\"distanceLeft\":0}],\"progress\":1}");
+
+		Config config = new Config(Collections.singletonMap("neutronHighway.route", legacy));
+		Route route = config.getAs(Route.class, "neutronHighway.route").get();
+
+		assertEquals("Neutron", route.getSystem(1));
+		assertEquals(21800, route.getDistanceLeft(1), 0);
+		assertEquals(0, route.getRange(), 0);
+		assertEquals(1, route.getProgress());
+		assertEquals(11, route.totalJumps());
+		assertEquals(4, route.completedJumps());
+		assertFalse(route.getPosition(0).isPresent());
+
+		// and written back in the new format
+		assertSameRoute(route, gson.fromJson(gson.toJson(route), Route.class));
+		assertTrue(gson.toJsonTree(route).getAsJsonObject().has("system_jumps"));
+	}
+}